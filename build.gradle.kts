@@ -12,6 +12,14 @@ dependencies {
 		}
 	}
 	compileOnly(libs.gson)
+
+	testImplementation(libs.junit.jupiter)
+	testRuntimeOnly(libs.junit.platform.launcher)
+	testImplementation(libs.gson)
+}
+
+tasks.test {
+	useJUnitPlatform()
 }
 
 monumenta {
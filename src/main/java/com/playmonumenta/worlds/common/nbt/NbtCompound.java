@@ -0,0 +1,56 @@
+package com.playmonumenta.worlds.common.nbt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Minimal NBT compound tag.
+ * <p>
+ * Values are stored as plain Java objects: Byte, Short, Integer, Long, Float, Double, byte[], String,
+ * {@link NbtList}, NbtCompound, int[] and long[], matching NBT tag types 1 through 12.
+ */
+public class NbtCompound {
+	private final Map<String, Object> mTags = new LinkedHashMap<>();
+
+	public @Nullable Object get(String key) {
+		return mTags.get(key);
+	}
+
+	public void put(String key, Object value) {
+		NbtIo.getTagType(value); // Validates the type
+		mTags.put(key, value);
+	}
+
+	public @Nullable Object remove(String key) {
+		return mTags.remove(key);
+	}
+
+	public boolean contains(String key) {
+		return mTags.containsKey(key);
+	}
+
+	public @Nullable NbtCompound getCompound(String key) {
+		Object value = mTags.get(key);
+		return value instanceof NbtCompound compound ? compound : null;
+	}
+
+	public @Nullable NbtList getList(String key) {
+		Object value = mTags.get(key);
+		return value instanceof NbtList list ? list : null;
+	}
+
+	public @Nullable int[] getIntArray(String key) {
+		Object value = mTags.get(key);
+		return value instanceof int[] array ? array : null;
+	}
+
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return mTags.entrySet();
+	}
+
+	public int size() {
+		return mTags.size();
+	}
+}
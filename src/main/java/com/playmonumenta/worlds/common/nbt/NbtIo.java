@@ -0,0 +1,196 @@
+package com.playmonumenta.worlds.common.nbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes uncompressed NBT; callers handle compression.
+ */
+public class NbtIo {
+	public static final byte TAG_END = 0;
+	public static final byte TAG_BYTE = 1;
+	public static final byte TAG_SHORT = 2;
+	public static final byte TAG_INT = 3;
+	public static final byte TAG_LONG = 4;
+	public static final byte TAG_FLOAT = 5;
+	public static final byte TAG_DOUBLE = 6;
+	public static final byte TAG_BYTE_ARRAY = 7;
+	public static final byte TAG_STRING = 8;
+	public static final byte TAG_LIST = 9;
+	public static final byte TAG_COMPOUND = 10;
+	public static final byte TAG_INT_ARRAY = 11;
+	public static final byte TAG_LONG_ARRAY = 12;
+
+	// Same limit as vanilla, protects against corrupt data recursing forever
+	private static final int MAX_DEPTH = 512;
+
+	/**
+	 * Reads a root compound tag, discarding its name.
+	 */
+	public static NbtCompound readRoot(DataInput in) throws IOException {
+		byte type = in.readByte();
+		if (type != TAG_COMPOUND) {
+			throw new IOException("Root tag must be a compound, got type " + type);
+		}
+		in.readUTF();
+		return readCompound(in, 0);
+	}
+
+	/**
+	 * Writes a root compound tag with the given name (usually empty).
+	 */
+	public static void writeRoot(DataOutput out, String name, NbtCompound root) throws IOException {
+		out.writeByte(TAG_COMPOUND);
+		out.writeUTF(name);
+		writeCompound(out, root);
+	}
+
+	public static byte getTagType(Object value) {
+		if (value instanceof Byte) {
+			return TAG_BYTE;
+		} else if (value instanceof Short) {
+			return TAG_SHORT;
+		} else if (value instanceof Integer) {
+			return TAG_INT;
+		} else if (value instanceof Long) {
+			return TAG_LONG;
+		} else if (value instanceof Float) {
+			return TAG_FLOAT;
+		} else if (value instanceof Double) {
+			return TAG_DOUBLE;
+		} else if (value instanceof byte[]) {
+			return TAG_BYTE_ARRAY;
+		} else if (value instanceof String) {
+			return TAG_STRING;
+		} else if (value instanceof NbtList) {
+			return TAG_LIST;
+		} else if (value instanceof NbtCompound) {
+			return TAG_COMPOUND;
+		} else if (value instanceof int[]) {
+			return TAG_INT_ARRAY;
+		} else if (value instanceof long[]) {
+			return TAG_LONG_ARRAY;
+		}
+		throw new IllegalArgumentException("Not an NBT value: " + value.getClass().getName());
+	}
+
+	private static NbtCompound readCompound(DataInput in, int depth) throws IOException {
+		NbtCompound compound = new NbtCompound();
+		while (true) {
+			byte type = in.readByte();
+			if (type == TAG_END) {
+				return compound;
+			}
+			String name = in.readUTF();
+			compound.put(name, readPayload(in, type, depth + 1));
+		}
+	}
+
+	private static Object readPayload(DataInput in, byte type, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("NBT nested deeper than " + MAX_DEPTH);
+		}
+		return switch (type) {
+			case TAG_BYTE -> in.readByte();
+			case TAG_SHORT -> in.readShort();
+			case TAG_INT -> in.readInt();
+			case TAG_LONG -> in.readLong();
+			case TAG_FLOAT -> in.readFloat();
+			case TAG_DOUBLE -> in.readDouble();
+			case TAG_BYTE_ARRAY -> {
+				byte[] value = new byte[readLength(in)];
+				in.readFully(value);
+				yield value;
+			}
+			case TAG_STRING -> in.readUTF();
+			case TAG_LIST -> {
+				byte elementType = in.readByte();
+				int length = readLength(in);
+				List<Object> values = new ArrayList<>(Math.min(length, 1024));
+				for (int i = 0; i < length; i++) {
+					values.add(readPayload(in, elementType, depth + 1));
+				}
+				yield new NbtList(length == 0 ? TAG_END : elementType, values);
+			}
+			case TAG_COMPOUND -> readCompound(in, depth);
+			case TAG_INT_ARRAY -> {
+				int[] value = new int[readLength(in)];
+				for (int i = 0; i < value.length; i++) {
+					value[i] = in.readInt();
+				}
+				yield value;
+			}
+			case TAG_LONG_ARRAY -> {
+				long[] value = new long[readLength(in)];
+				for (int i = 0; i < value.length; i++) {
+					value[i] = in.readLong();
+				}
+				yield value;
+			}
+			default -> throw new IOException("Unknown NBT tag type " + type);
+		};
+	}
+
+	private static int readLength(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative NBT length " + length);
+		}
+		return length;
+	}
+
+	private static void writeCompound(DataOutput out, NbtCompound compound) throws IOException {
+		for (Map.Entry<String, Object> entry : compound.entrySet()) {
+			Object value = entry.getValue();
+			out.writeByte(getTagType(value));
+			out.writeUTF(entry.getKey());
+			writePayload(out, value);
+		}
+		out.writeByte(TAG_END);
+	}
+
+	private static void writePayload(DataOutput out, Object value) throws IOException {
+		switch (getTagType(value)) {
+			case TAG_BYTE -> out.writeByte((Byte) value);
+			case TAG_SHORT -> out.writeShort((Short) value);
+			case TAG_INT -> out.writeInt((Integer) value);
+			case TAG_LONG -> out.writeLong((Long) value);
+			case TAG_FLOAT -> out.writeFloat((Float) value);
+			case TAG_DOUBLE -> out.writeDouble((Double) value);
+			case TAG_BYTE_ARRAY -> {
+				byte[] array = (byte[]) value;
+				out.writeInt(array.length);
+				out.write(array);
+			}
+			case TAG_STRING -> out.writeUTF((String) value);
+			case TAG_LIST -> {
+				NbtList list = (NbtList) value;
+				out.writeByte(list.getElementType());
+				out.writeInt(list.size());
+				for (Object element : list.values()) {
+					writePayload(out, element);
+				}
+			}
+			case TAG_COMPOUND -> writeCompound(out, (NbtCompound) value);
+			case TAG_INT_ARRAY -> {
+				int[] array = (int[]) value;
+				out.writeInt(array.length);
+				for (int element : array) {
+					out.writeInt(element);
+				}
+			}
+			case TAG_LONG_ARRAY -> {
+				long[] array = (long[]) value;
+				out.writeInt(array.length);
+				for (long element : array) {
+					out.writeLong(element);
+				}
+			}
+			default -> throw new IOException("Unknown NBT value " + value);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.playmonumenta.worlds.common.nbt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal NBT list tag; see {@link NbtCompound} for how values are represented.
+ */
+public class NbtList {
+	private final byte mElementType;
+	private final List<Object> mValues;
+
+	public NbtList(byte elementType) {
+		this(elementType, new ArrayList<>());
+	}
+
+	protected NbtList(byte elementType, List<Object> values) {
+		mElementType = elementType;
+		mValues = values;
+	}
+
+	public byte getElementType() {
+		return mElementType;
+	}
+
+	public Object get(int index) {
+		return mValues.get(index);
+	}
+
+	public void add(Object value) {
+		if (NbtIo.getTagType(value) != mElementType) {
+			throw new IllegalArgumentException("Cannot add tag of type " + NbtIo.getTagType(value)
+				+ " to list of type " + mElementType);
+		}
+		mValues.add(value);
+	}
+
+	public int size() {
+		return mValues.size();
+	}
+
+	public List<Object> values() {
+		return mValues;
+	}
+}
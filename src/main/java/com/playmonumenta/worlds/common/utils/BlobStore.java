@@ -0,0 +1,31 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Somewhere to keep large files off the server, such as archived worlds, addressed by key.
+ * <p>
+ * Implementations must be thread safe, and a put must either store the whole file or nothing. All methods may block on
+ * I/O, and should only be called on an async thread.
+ */
+public interface BlobStore {
+	/**
+	 * Stores the contents of source under key, replacing anything already stored there.
+	 */
+	void put(String key, Path source) throws IOException;
+
+	/**
+	 * Writes the contents stored under key to target, replacing it if it exists.
+	 *
+	 * @throws java.nio.file.NoSuchFileException if nothing is stored under key
+	 */
+	void get(String key, Path target) throws IOException;
+
+	boolean exists(String key) throws IOException;
+
+	/**
+	 * Removes whatever is stored under key, doing nothing if there is nothing.
+	 */
+	void delete(String key) throws IOException;
+}
@@ -0,0 +1,201 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * The size, modify time and SHA-256 hash of every regular file in a folder, keyed by path relative to the folder.
+ * <p>
+ * Used to tell exactly which files of a world differ from another version of it. The version ID of a manifest is a
+ * hash of its paths, sizes and hashes (but not modify times), so two folders with the same contents share a version.
+ * <p>
+ * Hashing every file is slow, so building a manifest can reuse the hashes of a previous manifest of the same folder
+ * for files whose size and modify time haven't changed.
+ */
+public class ContentManifest {
+	public static class Entry {
+		public final long mSize;
+		public final long mModifiedMillis;
+		public final String mHash;
+
+		public Entry(long size, long modifiedMillis, String hash) {
+			mSize = size;
+			mModifiedMillis = modifiedMillis;
+			mHash = hash;
+		}
+
+		/**
+		 * Whether a file with these attributes is (as far as can be told without reading it) this file.
+		 */
+		public boolean matches(BasicFileAttributes attrs) {
+			return attrs.size() == mSize && attrs.lastModifiedTime().toMillis() == mModifiedMillis;
+		}
+	}
+
+	private static final String HEADER = "# content manifest v1";
+	private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+	// Sorted, so the version ID doesn't depend on walk order
+	private final Map<String, Entry> mEntries;
+	private final String mVersionId;
+
+	private ContentManifest(Map<String, Entry> entries) {
+		mEntries = Collections.unmodifiableMap(entries);
+		mVersionId = computeVersionId(entries);
+	}
+
+	/**
+	 * Builds a manifest of root, reusing hashes from previous (if not null) for files that appear unchanged.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public static ContentManifest build(Path root, @Nullable ContentManifest previous) throws IOException {
+		return build(root, previous, CopyRules.ALL);
+	}
+
+	/**
+	 * Builds a manifest of the files in root accepted by rules, reusing hashes from previous (if not null) for files
+	 * that appear unchanged.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public static ContentManifest build(Path root, @Nullable ContentManifest previous, CopyRules rules) throws IOException {
+		Map<String, Entry> entries = new TreeMap<>();
+		Files.walkFileTree(root, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isRegularFile()) {
+					return FileVisitResult.CONTINUE;
+				}
+				String relativePath = root.relativize(file).toString();
+				if (!rules.accepts(relativePath)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Entry oldEntry = previous == null ? null : previous.mEntries.get(relativePath);
+				String hash = oldEntry != null && oldEntry.matches(attrs) ? oldEntry.mHash : hash(file);
+				entries.put(relativePath, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return new ContentManifest(entries);
+	}
+
+	/**
+	 * Loads a manifest saved with {@link #save(Path)}, returning null if there isn't a readable one.
+	 */
+	public static @Nullable ContentManifest load(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		Map<String, Entry> entries = new TreeMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				return null;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// hash, size, modify time, path; the path goes last as it is the only field that may contain tabs
+				String[] parts = line.split("\t", 4);
+				if (parts.length != 4) {
+					return null;
+				}
+				entries.put(parts[3], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+			}
+		} catch (IOException | NumberFormatException ex) {
+			return null;
+		}
+		return new ContentManifest(entries);
+	}
+
+	/**
+	 * Saves the manifest, replacing the file atomically.
+	 */
+	public void save(Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+				Entry value = entry.getValue();
+				writer.write(value.mHash + "\t" + value.mSize + "\t" + value.mModifiedMillis + "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public @Nullable Entry get(String relativePath) {
+		return mEntries.get(relativePath);
+	}
+
+	/**
+	 * Every file in the manifest, sorted by relative path.
+	 */
+	public Map<String, Entry> getEntries() {
+		return mEntries;
+	}
+
+	public String getVersionId() {
+		return mVersionId;
+	}
+
+	public long totalBytes() {
+		long total = 0;
+		for (Entry entry : mEntries.values()) {
+			total += entry.mSize;
+		}
+		return total;
+	}
+
+	/**
+	 * Hashes a file's contents with SHA-256, returning the hash as lowercase hex.
+	 */
+	public static String hash(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static String computeVersionId(Map<String, Entry> entries) {
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			digest.update((entry.getKey() + "\t" + entry.getValue().mSize + "\t" + entry.getValue().mHash + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Files stored by the SHA-256 hash of their contents, as computed by {@link ContentManifest#hash(Path)}, so each
+ * distinct file is only stored once however many worlds contain it.
+ * <p>
+ * Objects are never modified once stored. Objects nothing refers to any more are removed by
+ * {@link #sweep(Set, IoThrottle)}, which the owner calls with every hash still referenced.
+ * <p>
+ * Thread safe; storing the same contents from several threads at once leaves a single copy. Sweeping must not run at
+ * the same time as storing or copying out.
+ */
+public class ContentStore {
+	private final Path mRoot;
+
+	public ContentStore(Path root) {
+		mRoot = root;
+	}
+
+	public boolean contains(String hash) {
+		return Files.isRegularFile(objectPath(hash));
+	}
+
+	/**
+	 * Moves file into the store as the object for hash, or deletes it if that object is already stored. The caller is
+	 * responsible for hash being the hash of file's contents.
+	 */
+	public void moveIn(String hash, Path file) throws IOException {
+		Path object = objectPath(hash);
+		if (Files.isRegularFile(object)) {
+			Files.delete(file);
+			return;
+		}
+		Files.createDirectories(object.getParent());
+		try {
+			Files.move(file, object, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			// On a different file system; copy then move, so a partial object is never visible
+			Path temp = object.resolveSibling(hash + ".tmp" + Thread.currentThread().getId());
+			Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Copies the object for hash to target, replacing it if it exists.
+	 *
+	 * @throws java.nio.file.NoSuchFileException if the object isn't stored
+	 */
+	public void copyOut(String hash, Path target) throws IOException {
+		Files.copy(objectPath(hash), target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Removes every object whose hash isn't in live, along with temporary files left by interrupted moves. Returns the
+	 * number of objects removed.
+	 */
+	public int sweep(Set<String> live, @Nullable IoThrottle throttle) throws IOException {
+		if (!Files.isDirectory(mRoot)) {
+			return 0;
+		}
+		int removed = 0;
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(mRoot)) {
+			for (Path prefix : prefixes) {
+				if (!Files.isDirectory(prefix)) {
+					continue;
+				}
+				try (DirectoryStream<Path> objects = Files.newDirectoryStream(prefix)) {
+					for (Path object : objects) {
+						String name = object.getFileName().toString();
+						if (live.contains(name)) {
+							continue;
+						}
+						if (throttle != null) {
+							throttle.acquire(0, 1);
+						}
+						Files.deleteIfExists(object);
+						if (!name.contains(".tmp")) {
+							removed++;
+						}
+					}
+				}
+			}
+		}
+		return removed;
+	}
+
+	private Path objectPath(String hash) {
+		return mRoot.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+}
@@ -0,0 +1,98 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only record of which files of a copy have been completed, so an interrupted copy can be resumed.
+ * <p>
+ * The first line records a version string for the copy source. If a journal is reopened with a different version,
+ * the source has changed since the copy started, and the journal is discarded rather than resumed.
+ * Each following line is the path (relative to the copy root) of a file that was completely written.
+ * <p>
+ * A line is only appended after its file has been closed, but as it is not synced to disk, callers should still
+ * check that a journaled file looks intact before trusting it.
+ */
+public class CopyJournal implements Closeable {
+	private static final String HEADER_PREFIX = "# source ";
+
+	private final Set<String> mCompleted = ConcurrentHashMap.newKeySet();
+	private final boolean mResumable;
+	private final BufferedWriter mWriter;
+
+	/**
+	 * Opens the journal at file, creating it if needed.
+	 */
+	public CopyJournal(Path file, String sourceVersion) throws IOException {
+		String header = HEADER_PREFIX + sourceVersion;
+		boolean resumable = false;
+		if (Files.isRegularFile(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				if (header.equals(reader.readLine())) {
+					resumable = true;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (!line.isEmpty()) {
+							mCompleted.add(line);
+						}
+					}
+				}
+			}
+		}
+		mResumable = resumable;
+
+		Files.createDirectories(file.getParent());
+		if (resumable) {
+			mWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			// A partial last line from a crash would otherwise be joined with the next entry
+			mWriter.newLine();
+		} else {
+			mWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+			mWriter.write(header);
+			mWriter.newLine();
+		}
+		mWriter.flush();
+	}
+
+	/**
+	 * Whether this journal was left by an earlier copy of the same source version, so the copy can be resumed.
+	 */
+	public boolean isResumable() {
+		return mResumable;
+	}
+
+	public boolean isCompleted(String relativePath) {
+		return mCompleted.contains(relativePath);
+	}
+
+	public int completedFiles() {
+		return mCompleted.size();
+	}
+
+	/**
+	 * Records that a file has been completely written. Thread safe.
+	 */
+	public void markCompleted(String relativePath) throws IOException {
+		mCompleted.add(relativePath);
+		synchronized (mWriter) {
+			mWriter.write(relativePath);
+			mWriter.newLine();
+			mWriter.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (mWriter) {
+			mWriter.close();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Glob rules selecting which files of a world are copied, by path relative to the world folder.
+ * <p>
+ * A file is copied unless it matches an exclude pattern, and files matching an include pattern are always copied.
+ * Patterns use {@link java.nio.file.FileSystem#getPathMatcher} glob syntax, for example "playerdata/**".
+ */
+public class CopyRules {
+	public static final CopyRules ALL = new CopyRules(List.of(), List.of());
+
+	private final List<String> mIncludes;
+	private final List<String> mExcludes;
+	private final List<PathMatcher> mIncludeMatchers = new ArrayList<>();
+	private final List<PathMatcher> mExcludeMatchers = new ArrayList<>();
+
+	/**
+	 * Throws IllegalArgumentException if any pattern is invalid.
+	 */
+	public CopyRules(List<String> includes, List<String> excludes) {
+		mIncludes = List.copyOf(includes);
+		mExcludes = List.copyOf(excludes);
+		for (String pattern : mIncludes) {
+			mIncludeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+		for (String pattern : mExcludes) {
+			mExcludeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+	}
+
+	/**
+	 * Returns rules that include and exclude everything either these rules or other do.
+	 */
+	public CopyRules merge(CopyRules other) {
+		List<String> includes = new ArrayList<>(mIncludes);
+		includes.addAll(other.mIncludes);
+		List<String> excludes = new ArrayList<>(mExcludes);
+		excludes.addAll(other.mExcludes);
+		return new CopyRules(includes, excludes);
+	}
+
+	public boolean accepts(String relativePath) {
+		Path path = Paths.get(relativePath);
+		for (PathMatcher matcher : mIncludeMatchers) {
+			if (matcher.matches(path)) {
+				return true;
+			}
+		}
+		for (PathMatcher matcher : mExcludeMatchers) {
+			if (matcher.matches(path)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "include=" + mIncludes + " exclude=" + mExcludes;
+	}
+}
@@ -0,0 +1,223 @@
+package com.playmonumenta.worlds.common.utils;
+
+import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.nbt.NbtCompound;
+import com.playmonumenta.worlds.common.nbt.NbtIo;
+import com.playmonumenta.worlds.common.nbt.NbtList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Gives every entity in a world's Anvil region files a new random UUID while the world is copied.
+ * <p>
+ * Handles both entities/*.mca (1.17+) and entities stored in region/*.mca chunks (older worlds),
+ * including passengers. Chunks that do not contain entities, or that use a compression scheme this
+ * does not understand (such as LZ4 or external .mcc chunks), are copied unchanged.
+ */
+public class EntityUuidRewriter implements WorldCopier.FileTransformer {
+	private static final int SECTOR_SIZE = 4096;
+	private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+	private static final int CHUNKS_PER_REGION = 1024;
+	private static final byte COMPRESSION_GZIP = 1;
+	private static final byte COMPRESSION_ZLIB = 2;
+	private static final byte COMPRESSION_NONE = 3;
+	private static final int MAX_SECTORS_PER_CHUNK = 255;
+
+	private final AtomicLong mRewrittenEntities = new AtomicLong(0);
+
+	public long getRewrittenEntities() {
+		return mRewrittenEntities.get();
+	}
+
+	@Override
+	public boolean accepts(Path relativePath) {
+		Path parent = relativePath.getParent();
+		if (parent == null || !relativePath.getFileName().toString().endsWith(".mca")) {
+			return false;
+		}
+		String folder = parent.getFileName().toString();
+		return folder.equals("entities") || folder.equals("region");
+	}
+
+	@Override
+	public long transform(Path source, Path target) throws IOException {
+		return transform(source, Files.readAllBytes(source), target);
+	}
+
+	@Override
+	public long transform(Path source, ByteBuffer sourceContents, Path target) throws IOException {
+		byte[] input = new byte[sourceContents.remaining()];
+		sourceContents.get(input);
+		return transform(source, input, target);
+	}
+
+	private long transform(Path source, byte[] input, Path target) throws IOException {
+		byte[] output;
+		try {
+			output = rewriteRegion(input);
+		} catch (IOException ex) {
+			MMLog.warning("Unable to rewrite entity UUIDs in " + source + ", copying unchanged: " + ex.getMessage());
+			output = input;
+		}
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(output);
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+		}
+		return output.length;
+	}
+
+	private byte[] rewriteRegion(byte[] input) throws IOException {
+		if (input.length < HEADER_SIZE) {
+			// Empty or truncated region file, nothing to rewrite
+			return input;
+		}
+		ByteBuffer in = ByteBuffer.wrap(input);
+		ByteArrayOutputStream body = new ByteArrayOutputStream(input.length);
+		byte[] header = new byte[HEADER_SIZE];
+		// Timestamps are carried over as-is
+		System.arraycopy(input, SECTOR_SIZE, header, SECTOR_SIZE, SECTOR_SIZE);
+		boolean changed = false;
+		int nextSector = 2;
+
+		for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+			int location = in.getInt(i * 4);
+			int sectorOffset = location >>> 8;
+			int sectorCount = location & 0xFF;
+			if (sectorOffset == 0 || sectorCount == 0) {
+				continue;
+			}
+			int start = sectorOffset * SECTOR_SIZE;
+			if (start + 5 > input.length) {
+				throw new IOException("Chunk " + i + " points past the end of the file");
+			}
+			int length = in.getInt(start);
+			if (length <= 0 || start + 4 + length > input.length) {
+				throw new IOException("Chunk " + i + " has invalid length " + length);
+			}
+
+			// Payload is the compression type byte followed by the compressed data
+			byte[] payload = new byte[length];
+			System.arraycopy(input, start + 4, payload, 0, length);
+			byte[] rewritten = rewriteChunk(payload);
+			if (rewritten != null && sectorsFor(rewritten.length) <= MAX_SECTORS_PER_CHUNK) {
+				payload = rewritten;
+				changed = true;
+			}
+
+			int sectors = sectorsFor(payload.length);
+			header[i * 4] = (byte) (nextSector >>> 16);
+			header[i * 4 + 1] = (byte) (nextSector >>> 8);
+			header[i * 4 + 2] = (byte) nextSector;
+			header[i * 4 + 3] = (byte) sectors;
+			DataOutputStream bodyOut = new DataOutputStream(body);
+			bodyOut.writeInt(payload.length);
+			bodyOut.write(payload);
+			int padding = sectors * SECTOR_SIZE - (payload.length + 4);
+			bodyOut.write(new byte[padding]);
+			nextSector += sectors;
+		}
+
+		if (!changed) {
+			return input;
+		}
+		byte[] output = new byte[HEADER_SIZE + body.size()];
+		System.arraycopy(header, 0, output, 0, HEADER_SIZE);
+		System.arraycopy(body.toByteArray(), 0, output, HEADER_SIZE, body.size());
+		return output;
+	}
+
+	private static int sectorsFor(int payloadLength) {
+		return (payloadLength + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+	}
+
+	/**
+	 * Returns the rewritten payload (compression byte + data), or null if the chunk should be kept unchanged.
+	 */
+	private @Nullable byte[] rewriteChunk(byte[] payload) throws IOException {
+		byte compression = payload[0];
+		if (compression != COMPRESSION_GZIP && compression != COMPRESSION_ZLIB && compression != COMPRESSION_NONE) {
+			return null;
+		}
+
+		NbtCompound root;
+		try (DataInputStream dataIn = new DataInputStream(decompress(compression, new ByteArrayInputStream(payload, 1, payload.length - 1)))) {
+			root = NbtIo.readRoot(dataIn);
+		}
+
+		long rewritten = rewriteEntityList(root.getList("Entities"));
+		NbtCompound level = root.getCompound("Level");
+		if (level != null) {
+			rewritten += rewriteEntityList(level.getList("Entities"));
+		}
+		if (rewritten == 0) {
+			return null;
+		}
+		mRewrittenEntities.addAndGet(rewritten);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 64);
+		out.write(compression);
+		try (DataOutputStream dataOut = new DataOutputStream(compress(compression, out))) {
+			NbtIo.writeRoot(dataOut, "", root);
+		}
+		return out.toByteArray();
+	}
+
+	private static long rewriteEntityList(@Nullable NbtList entities) {
+		if (entities == null || entities.getElementType() != NbtIo.TAG_COMPOUND) {
+			return 0;
+		}
+		long rewritten = 0;
+		for (Object value : entities.values()) {
+			NbtCompound entity = (NbtCompound) value;
+			if (entity.getIntArray("UUID") != null) {
+				UUID uuid = UUID.randomUUID();
+				long most = uuid.getMostSignificantBits();
+				long least = uuid.getLeastSignificantBits();
+				entity.put("UUID", new int[] {(int) (most >> 32), (int) most, (int) (least >> 32), (int) least});
+				rewritten++;
+			} else if (entity.contains("UUIDMost") && entity.contains("UUIDLeast")) {
+				UUID uuid = UUID.randomUUID();
+				entity.put("UUIDMost", uuid.getMostSignificantBits());
+				entity.put("UUIDLeast", uuid.getLeastSignificantBits());
+				rewritten++;
+			}
+			rewritten += rewriteEntityList(entity.getList("Passengers"));
+		}
+		return rewritten;
+	}
+
+	private static InputStream decompress(byte compression, InputStream in) throws IOException {
+		return switch (compression) {
+			case COMPRESSION_GZIP -> new GZIPInputStream(in);
+			case COMPRESSION_ZLIB -> new InflaterInputStream(in);
+			default -> in;
+		};
+	}
+
+	private static OutputStream compress(byte compression, OutputStream out) throws IOException {
+		return switch (compression) {
+			case COMPRESSION_GZIP -> new GZIPOutputStream(out);
+			case COMPRESSION_ZLIB -> new DeflaterOutputStream(out);
+			default -> out;
+		};
+	}
+}
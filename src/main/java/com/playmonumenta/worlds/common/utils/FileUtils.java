@@ -5,23 +5,38 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 public class FileUtils {
 	public static void deleteRecursively(Path path) throws IOException {
+		deleteRecursively(path, null);
+	}
+
+	/**
+	 * Deletes path and everything under it, waiting for throttle (if not null) before deleting each file or directory.
+	 */
+	public static void deleteRecursively(Path path, @Nullable IoThrottle throttle) throws IOException {
 		if (Files.isSymbolicLink(path)) {
-			Files.delete(path);
+			delete(path, throttle);
 			return;
 		}
 		if (Files.isDirectory(path)) {
 			try (Stream<Path> subPathStream = Files.list(path)) {
 				Iterator<Path> it = subPathStream.iterator();
 				while (it.hasNext()) {
-					deleteRecursively(it.next());
+					deleteRecursively(it.next(), throttle);
 				}
 			}
-			Files.delete(path);
+			delete(path, throttle);
 			return;
 		}
+		delete(path, throttle);
+	}
+
+	private static void delete(Path path, @Nullable IoThrottle throttle) throws IOException {
+		if (throttle != null) {
+			throttle.acquire(0, 1);
+		}
 		Files.delete(path);
 	}
 }
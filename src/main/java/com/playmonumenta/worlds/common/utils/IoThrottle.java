@@ -0,0 +1,103 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket limiting the bytes and file operations per second of background I/O, so it doesn't starve the server's
+ * own chunk I/O.
+ * <p>
+ * Each bucket holds up to one second of its rate. A request is let through whenever both buckets are not in debt, and
+ * may put them into debt, so requests larger than a bucket still pass, and later requests wait for the debt to be
+ * repaid. Limits <= 0 are unlimited. Limits can be changed at any time, taking effect for the next request.
+ * <p>
+ * Thread safe. Threads sharing a throttle share its limits.
+ */
+public class IoThrottle {
+	private double mBytesPerSecond;
+	private double mOpsPerSecond;
+	private double mByteTokens = 0;
+	private double mOpTokens = 0;
+	private long mLastRefillNanos = System.nanoTime();
+
+	public IoThrottle(double bytesPerSecond, double opsPerSecond) {
+		mBytesPerSecond = bytesPerSecond;
+		mOpsPerSecond = opsPerSecond;
+	}
+
+	public synchronized void setLimits(double bytesPerSecond, double opsPerSecond) {
+		refill();
+		mBytesPerSecond = bytesPerSecond;
+		mOpsPerSecond = opsPerSecond;
+		// Debt under the old limits no longer applies
+		mByteTokens = Math.max(0, Math.min(mByteTokens, bytesPerSecond));
+		mOpTokens = Math.max(0, Math.min(mOpTokens, opsPerSecond));
+	}
+
+	public synchronized double getBytesPerSecond() {
+		return mBytesPerSecond;
+	}
+
+	public synchronized double getOpsPerSecond() {
+		return mOpsPerSecond;
+	}
+
+	public synchronized boolean isUnlimited() {
+		return mBytesPerSecond <= 0 && mOpsPerSecond <= 0;
+	}
+
+	/**
+	 * Blocks until the given number of bytes and file operations may be performed.
+	 */
+	public void acquire(long bytes, int ops) throws InterruptedIOException {
+		while (true) {
+			long waitNanos;
+			synchronized (this) {
+				refill();
+				boolean bytesLimited = mBytesPerSecond > 0;
+				boolean opsLimited = mOpsPerSecond > 0;
+				if ((!bytesLimited || mByteTokens >= 0) && (!opsLimited || mOpTokens >= 0)) {
+					if (bytesLimited) {
+						mByteTokens -= bytes;
+					}
+					if (opsLimited) {
+						mOpTokens -= ops;
+					}
+					return;
+				}
+				double waitSeconds = 0;
+				if (bytesLimited && mByteTokens < 0) {
+					waitSeconds = -mByteTokens / mBytesPerSecond;
+				}
+				if (opsLimited && mOpTokens < 0) {
+					waitSeconds = Math.max(waitSeconds, -mOpTokens / mOpsPerSecond);
+				}
+				waitNanos = Math.max(1_000_000L, (long) (waitSeconds * 1_000_000_000L));
+			}
+			try {
+				// Capped, so a lowered limit or raised rate is noticed promptly
+				Thread.sleep(Math.min(waitNanos / 1_000_000L, 1000L));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for I/O throttle");
+			}
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		double seconds = (now - mLastRefillNanos) / 1_000_000_000.0;
+		mLastRefillNanos = now;
+		if (mBytesPerSecond > 0) {
+			mByteTokens = Math.min(mBytesPerSecond, mByteTokens + seconds * mBytesPerSecond);
+		}
+		if (mOpsPerSecond > 0) {
+			mOpTokens = Math.min(mOpsPerSecond, mOpTokens + seconds * mOpsPerSecond);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return (mBytesPerSecond > 0 ? String.format("%.1f MiB/s", mBytesPerSecond / 1048576.0) : "unlimited MiB/s")
+			+ ", " + (mOpsPerSecond > 0 ? String.format("%.0f ops/s", mOpsPerSecond) : "unlimited ops/s");
+	}
+}
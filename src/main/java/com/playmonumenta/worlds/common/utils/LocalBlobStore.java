@@ -0,0 +1,62 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link BlobStore} keeping each blob as a file in a local directory, such as a mounted network share.
+ * <p>
+ * Blobs are copied to a temporary file first and then atomically moved into place.
+ */
+public class LocalBlobStore implements BlobStore {
+	private final Path mRoot;
+
+	public LocalBlobStore(Path root) {
+		mRoot = root;
+	}
+
+	@Override
+	public void put(String key, Path source) throws IOException {
+		Path target = resolve(key);
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		Files.createDirectories(mRoot);
+		try {
+			Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			Files.deleteIfExists(temp);
+			throw ex;
+		}
+	}
+
+	@Override
+	public void get(String key, Path target) throws IOException {
+		Files.copy(resolve(key), target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Override
+	public boolean exists(String key) throws IOException {
+		return Files.isRegularFile(resolve(key));
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		Files.deleteIfExists(resolve(key));
+	}
+
+	private Path resolve(String key) throws IOException {
+		Path root = mRoot.toAbsolutePath().normalize();
+		Path path = root.resolve(key).normalize();
+		if (!root.equals(path.getParent())) {
+			throw new IOException("Invalid blob key '" + key + "'");
+		}
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return "local:" + mRoot;
+	}
+}
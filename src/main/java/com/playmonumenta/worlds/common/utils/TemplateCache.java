@@ -0,0 +1,221 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the contents of template worlds in off-heap (direct) memory, so copies of them don't read from disk.
+ * <p>
+ * Each template is cached as a whole, for one version of its {@link ContentManifest}. When the total cached size would
+ * exceed the cap, the least recently used templates are dropped. Dropped templates' memory is released once the
+ * garbage collector finds their buffers unreferenced, so -XX:MaxDirectMemorySize must allow for some slack above the cap.
+ * <p>
+ * Small files are packed into shared slabs rather than each getting their own direct buffer.
+ * <p>
+ * Each template version is only loaded by one thread at a time; other threads asking for it wait for that load.
+ * <p>
+ * Thread safe.
+ */
+public class TemplateCache {
+	/**
+	 * The cached contents of one version of a template. Buffers returned are independent read-only views.
+	 */
+	public static class CachedTemplate {
+		private final String mVersionId;
+		private final Map<String, ByteBuffer> mFiles;
+		private final long mBytes;
+
+		private CachedTemplate(String versionId, Map<String, ByteBuffer> files, long bytes) {
+			mVersionId = versionId;
+			mFiles = files;
+			mBytes = bytes;
+		}
+
+		/**
+		 * The contents of a file by path relative to the template folder, or null if it isn't cached.
+		 */
+		public @Nullable ByteBuffer get(String relativePath) {
+			ByteBuffer buffer = mFiles.get(relativePath);
+			return buffer == null ? null : buffer.duplicate();
+		}
+
+		public long getBytes() {
+			return mBytes;
+		}
+	}
+
+	/**
+	 * A load of one version of a template in progress, completed with null if the template can't be cached.
+	 */
+	private static class InFlightLoad {
+		private final String mVersionId;
+		private final CompletableFuture<CachedTemplate> mFuture = new CompletableFuture<>();
+
+		private InFlightLoad(String versionId) {
+			mVersionId = versionId;
+		}
+	}
+
+	private static final int SLAB_SIZE = 64 * 1024 * 1024;
+
+	private final long mMaxBytes;
+	// Access ordered, so the first entry is the least recently used
+	private final LinkedHashMap<String, CachedTemplate> mTemplates = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, InFlightLoad> mLoading = new HashMap<>();
+	private long mTotalBytes = 0;
+
+	public TemplateCache(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	public synchronized long getTotalBytes() {
+		return mTotalBytes;
+	}
+
+	public synchronized int size() {
+		return mTemplates.size();
+	}
+
+	public synchronized void clear() {
+		mTemplates.clear();
+		mTotalBytes = 0;
+	}
+
+	/**
+	 * Gets the cached contents of the template at root, loading them into the cache if they aren't cached for the
+	 * version described by manifest.
+	 * <p>
+	 * Returns null if the template is larger than the whole cache, or changed while being read.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public @Nullable CachedTemplate get(String templateName, Path root, ContentManifest manifest) throws IOException {
+		long bytes = manifest.totalBytes();
+		if (bytes > mMaxBytes) {
+			return null;
+		}
+
+		InFlightLoad inFlight;
+		boolean loading = false;
+		synchronized (this) {
+			CachedTemplate cached = mTemplates.get(templateName);
+			if (cached != null && cached.mVersionId.equals(manifest.getVersionId())) {
+				return cached;
+			}
+			inFlight = mLoading.get(templateName);
+			if (inFlight == null || !inFlight.mVersionId.equals(manifest.getVersionId())) {
+				// Any load of another version still finishes, but is no longer waited on
+				inFlight = new InFlightLoad(manifest.getVersionId());
+				mLoading.put(templateName, inFlight);
+				loading = true;
+			}
+		}
+		if (!loading) {
+			return await(inFlight);
+		}
+
+		CachedTemplate loaded = null;
+		try {
+			loaded = load(root, manifest, bytes);
+			if (loaded != null) {
+				insert(templateName, inFlight, loaded);
+			}
+		} catch (IOException | RuntimeException ex) {
+			inFlight.mFuture.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			synchronized (this) {
+				mLoading.remove(templateName, inFlight);
+			}
+			inFlight.mFuture.complete(loaded);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Waits for another thread's load, rethrowing its failure. Must not be called while holding this lock.
+	 */
+	private static @Nullable CachedTemplate await(InFlightLoad inFlight) throws IOException {
+		try {
+			return inFlight.mFuture.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof IOException ioEx) {
+				throw new IOException("Failed to load template: " + ioEx.getMessage(), ioEx);
+			}
+			throw ex;
+		}
+	}
+
+	private synchronized void insert(String templateName, InFlightLoad inFlight, CachedTemplate loaded) {
+		if (mLoading.get(templateName) != inFlight) {
+			// A newer version started loading meanwhile; don't replace it with this one
+			return;
+		}
+		CachedTemplate cached = mTemplates.remove(templateName);
+		if (cached != null) {
+			mTotalBytes -= cached.mBytes;
+		}
+		Iterator<CachedTemplate> iter = mTemplates.values().iterator();
+		while (mTotalBytes + loaded.mBytes > mMaxBytes && iter.hasNext()) {
+			mTotalBytes -= iter.next().mBytes;
+			iter.remove();
+		}
+		mTemplates.put(templateName, loaded);
+		mTotalBytes += loaded.mBytes;
+	}
+
+	private static @Nullable CachedTemplate load(Path root, ContentManifest manifest, long bytes) throws IOException {
+		Map<String, ByteBuffer> files = new HashMap<>();
+		ByteBuffer slab = null;
+		for (Map.Entry<String, ContentManifest.Entry> entry : manifest.getEntries().entrySet()) {
+			Path file = root.resolve(entry.getKey());
+			ContentManifest.Entry sourceEntry = entry.getValue();
+			BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (!sourceEntry.matches(attrs) || sourceEntry.mSize > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			int size = (int) sourceEntry.mSize;
+			ByteBuffer buffer;
+			if (size > SLAB_SIZE / 4) {
+				buffer = ByteBuffer.allocateDirect(size);
+			} else {
+				if (slab == null || slab.remaining() < size) {
+					slab = ByteBuffer.allocateDirect((int) Math.min(SLAB_SIZE, bytes));
+				}
+				buffer = slab.slice(slab.position(), size);
+				slab.position(slab.position() + size);
+			}
+			bytes -= size;
+
+			try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+				while (buffer.hasRemaining()) {
+					if (in.read(buffer) < 0) {
+						// Shrank since the manifest was built
+						return null;
+					}
+				}
+			}
+			buffer.flip();
+			files.put(entry.getKey(), buffer.asReadOnlyBuffer());
+		}
+		return new CachedTemplate(manifest.getVersionId(), files, manifest.totalBytes());
+	}
+}
@@ -0,0 +1,111 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel holding one deadline per key.
+ * <p>
+ * Time is measured in caller-defined ticks and grouped into slots of resolution ticks. Scheduling and cancelling are O(1),
+ * and advancing only visits the slots that have passed, so the cost of advancing is proportional to the number of
+ * deadlines expiring (plus any that wrap around the wheel more than once) rather than the number scheduled.
+ * <p>
+ * Not thread safe.
+ */
+public class TimingWheel<K> {
+	private final long mResolution;
+	private final List<Set<K>> mSlots;
+	private final Map<K, Long> mDeadlines = new HashMap<>();
+	// Last slot (in absolute slot numbers) that has been fully processed
+	private long mProcessedSlot;
+
+	/**
+	 * @param resolution Number of ticks per slot
+	 * @param span       Typical deadline distance in ticks; the wheel is sized so these expire within one rotation
+	 * @param now        Current tick
+	 */
+	public TimingWheel(long resolution, long span, long now) {
+		mResolution = Math.max(1, resolution);
+		int slotCount = (int) Math.max(1, Math.min(1 << 16, span / mResolution + 1));
+		mSlots = new ArrayList<>(slotCount);
+		for (int i = 0; i < slotCount; i++) {
+			mSlots.add(new LinkedHashSet<>());
+		}
+		mProcessedSlot = now / mResolution - 1;
+	}
+
+	/**
+	 * Schedules key to expire at the given tick, replacing any existing deadline for it.
+	 */
+	public void schedule(K key, long deadline) {
+		cancel(key);
+		// Deadlines in already processed slots go in the next slot to be processed
+		long slot = Math.max(deadline / mResolution, mProcessedSlot + 1);
+		mDeadlines.put(key, deadline);
+		mSlots.get(slotIndex(slot)).add(key);
+	}
+
+	public boolean cancel(K key) {
+		Long deadline = mDeadlines.remove(key);
+		if (deadline == null) {
+			return false;
+		}
+		long slot = Math.max(deadline / mResolution, mProcessedSlot + 1);
+		if (!mSlots.get(slotIndex(slot)).remove(key)) {
+			// Was placed in a slot that has since been passed over for being a later rotation; find it the slow way
+			for (Set<K> keys : mSlots) {
+				if (keys.remove(key)) {
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	public boolean isScheduled(K key) {
+		return mDeadlines.containsKey(key);
+	}
+
+	public int size() {
+		return mDeadlines.size();
+	}
+
+	/**
+	 * Advances the wheel to now, passing every key whose deadline is at or before now to expired.
+	 * <p>
+	 * Keys are removed before expired is called, so expired may schedule them again.
+	 */
+	public void advance(long now, Consumer<K> expired) {
+		long targetSlot = now / mResolution;
+		// Never visit a slot more than once per call, even if a long time has passed
+		long firstSlot = Math.max(mProcessedSlot + 1, targetSlot - mSlots.size() + 1);
+		List<K> expiredKeys = new ArrayList<>();
+		for (long slot = firstSlot; slot <= targetSlot; slot++) {
+			Iterator<K> iter = mSlots.get(slotIndex(slot)).iterator();
+			while (iter.hasNext()) {
+				K key = iter.next();
+				Long deadline = mDeadlines.get(key);
+				if (deadline == null || deadline <= now) {
+					iter.remove();
+					mDeadlines.remove(key);
+					expiredKeys.add(key);
+				}
+			}
+		}
+		// The slot now falls in may still hold deadlines later in it, so it is visited again next time
+		mProcessedSlot = Math.max(mProcessedSlot, targetSlot - 1);
+		for (K key : expiredKeys) {
+			expired.accept(key);
+		}
+	}
+
+	private int slotIndex(long slot) {
+		return (int) Math.floorMod(slot, (long) mSlots.size());
+	}
+}
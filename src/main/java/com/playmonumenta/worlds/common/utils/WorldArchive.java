@@ -0,0 +1,148 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Packs a world folder into a single zip file and back again, keeping file modification times and empty directories.
+ * <p>
+ * Packing writes to a temporary file which is synced to disk and then atomically moved into place, so an archive that
+ * exists is always complete.
+ */
+public class WorldArchive {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private WorldArchive() {
+	}
+
+	/**
+	 * Packs folder into zipFile, replacing it if it exists. Returns the size of the archive in bytes.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public static long pack(Path folder, Path zipFile, @Nullable IoThrottle throttle) throws IOException {
+		Path temp = zipFile.resolveSibling(zipFile.getFileName() + ".tmp");
+		Files.createDirectories(zipFile.toAbsolutePath().getParent());
+		try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+		     ZipOutputStream zipOut = new ZipOutputStream(fileOut)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (!dir.equals(folder)) {
+						ZipEntry entry = new ZipEntry(entryName(folder, dir) + "/");
+						entry.setLastModifiedTime(attrs.lastModifiedTime());
+						zipOut.putNextEntry(entry);
+						zipOut.closeEntry();
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (throttle != null) {
+						throttle.acquire(0, 1);
+					}
+					ZipEntry entry = new ZipEntry(entryName(folder, file));
+					entry.setLastModifiedTime(attrs.lastModifiedTime());
+					zipOut.putNextEntry(entry);
+					try (InputStream in = Files.newInputStream(file)) {
+						transfer(in, zipOut, buffer, throttle);
+					}
+					zipOut.closeEntry();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			zipOut.finish();
+			fileOut.getChannel().force(true);
+		} catch (IOException ex) {
+			Files.deleteIfExists(temp);
+			throw ex;
+		}
+		Files.move(temp, zipFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return Files.size(zipFile);
+	}
+
+	/**
+	 * Unpacks zipFile into folder, which must not exist yet.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public static void unpack(Path zipFile, Path folder, @Nullable IoThrottle throttle) throws IOException {
+		Path root = folder.toAbsolutePath().normalize();
+		Files.createDirectory(root);
+		try (ZipInputStream zipIn = new ZipInputStream(Files.newInputStream(zipFile))) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			ZipEntry entry;
+			while ((entry = zipIn.getNextEntry()) != null) {
+				Path target = root.resolve(entry.getName()).normalize();
+				if (!target.startsWith(root) || target.equals(root)) {
+					throw new IOException("Archive " + zipFile + " has an entry outside the world folder: " + entry.getName());
+				}
+				if (throttle != null) {
+					throttle.acquire(0, 1);
+				}
+				if (entry.isDirectory()) {
+					Files.createDirectories(target);
+				} else {
+					Files.createDirectories(target.getParent());
+					try (OutputStream out = Files.newOutputStream(target)) {
+						transfer(zipIn, out, buffer, throttle);
+					}
+					FileTime modified = entry.getLastModifiedTime();
+					if (modified != null) {
+						Files.setLastModifiedTime(target, modified);
+					}
+				}
+				zipIn.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Copies the file at entryName in zipFile to target, replacing it. Returns false if zipFile has no such entry.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public static boolean extract(Path zipFile, String entryName, Path target) throws IOException {
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			ZipEntry entry = zip.getEntry(entryName);
+			if (entry == null || entry.isDirectory()) {
+				return false;
+			}
+			Files.createDirectories(target.toAbsolutePath().getParent());
+			try (InputStream in = zip.getInputStream(entry)) {
+				Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		}
+	}
+
+	private static String entryName(Path folder, Path path) {
+		return folder.relativize(path).toString().replace('\\', '/');
+	}
+
+	private static void transfer(InputStream in, OutputStream out, byte[] buffer, @Nullable IoThrottle throttle) throws IOException {
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			if (throttle != null) {
+				throttle.acquire(read, 0);
+			}
+			out.write(buffer, 0, read);
+		}
+	}
+}
@@ -0,0 +1,725 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Copies world folders without spawning an external process.
+ * <p>
+ * The source tree is walked once; directories and small files are copied on the calling thread,
+ * while region files (region/, entities/, poi/ and similar *.mca/*.mcc files) are copied in parallel
+ * on a shared thread pool. Timestamps (and POSIX permissions where supported) are preserved like cp -a.
+ * <p>
+ * An optional {@link FileTransformer} may rewrite region files while they are being copied.
+ * <p>
+ * With a {@link CopyJournal}, completed files are recorded as they finish, and a copy interrupted part way through
+ * (by a crash or restart) can be resumed by copying again with the same journal, skipping files already done.
+ * <p>
+ * Given a {@link ContentManifest} of the source, a copy can skip walking the source and copy only the files the
+ * manifest lists, and an existing copy of an older version of the folder can instead be brought up to date with
+ * {@link #sync}, which only replaces the files that differ from the manifest. Either can read the source from a
+ * {@link TemplateCache} rather than disk.
+ * <p>
+ * A copier can be limited by an {@link IoThrottle} with {@link #throttled(IoThrottle)}.
+ */
+public class WorldCopier {
+	public interface FileTransformer {
+		/**
+		 * Whether this transformer should handle the given file, relative to the world folder.
+		 */
+		boolean accepts(Path relativePath);
+
+		/**
+		 * Writes a transformed copy of source to the new file target, returning the number of bytes written.
+		 * <p>
+		 * Called from the copier's thread pool, must be thread safe.
+		 */
+		long transform(Path source, Path target) throws IOException;
+
+		/**
+		 * Like {@link #transform(Path, Path)}, but reading the contents of source from sourceContents instead of disk.
+		 */
+		default long transform(Path source, ByteBuffer sourceContents, Path target) throws IOException {
+			return transform(source, target);
+		}
+	}
+
+	public static class CopyResult {
+		public final long mFiles;
+		public final long mBytes;
+		public final long mNanos;
+		// Files skipped because a resumed copy had already completed them
+		public final long mResumedFiles;
+
+		public CopyResult(long files, long bytes, long nanos, long resumedFiles) {
+			mFiles = files;
+			mBytes = bytes;
+			mNanos = nanos;
+			mResumedFiles = resumedFiles;
+		}
+
+		public double bytesPerSecond() {
+			if (mNanos <= 0) {
+				return 0.0;
+			}
+			return mBytes * 1_000_000_000.0 / mNanos;
+		}
+
+		@Override
+		public String toString() {
+			String result = String.format("%d files, %.1f MiB in %.2fs (%.1f MiB/s)",
+				mFiles, mBytes / 1048576.0, mNanos / 1_000_000_000.0, bytesPerSecond() / 1048576.0);
+			if (mResumedFiles > 0) {
+				result += ", resumed after " + mResumedFiles + " already copied files";
+			}
+			return result;
+		}
+	}
+
+	// Files at most this large are copied with a single read/write through a pooled direct buffer
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 64;
+	// Large files are throttled in chunks this size, so the throttle doesn't let through a whole file at once
+	private static final long THROTTLE_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private final ExecutorService mExecutor;
+	private final ConcurrentLinkedQueue<ByteBuffer> mBufferPool;
+	private final AtomicInteger mPooledBuffers;
+	private final @Nullable IoThrottle mThrottle;
+
+	/**
+	 * @param threads Number of threads to copy region files with; values <= 0 use one thread per core
+	 */
+	public WorldCopier(int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		AtomicInteger threadId = new AtomicInteger(0);
+		mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "MonumentaWorldManagement-Copy-" + threadId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}, (runnable, executor) -> {
+			// Only rejected once shut down; copies still in progress finish their remaining files on their own thread
+			runnable.run();
+		});
+		((ThreadPoolExecutor) mExecutor).allowCoreThreadTimeOut(true);
+		mBufferPool = new ConcurrentLinkedQueue<>();
+		mPooledBuffers = new AtomicInteger(0);
+		mThrottle = null;
+	}
+
+	private WorldCopier(WorldCopier copier, IoThrottle throttle) {
+		mExecutor = copier.mExecutor;
+		mBufferPool = copier.mBufferPool;
+		mPooledBuffers = copier.mPooledBuffers;
+		mThrottle = throttle;
+	}
+
+	/**
+	 * Returns a copier sharing this copier's thread pool, whose reads, writes and file operations go through throttle.
+	 * <p>
+	 * Shutting down either copier shuts down both.
+	 */
+	public WorldCopier throttled(IoThrottle throttle) {
+		return new WorldCopier(this, throttle);
+	}
+
+	/**
+	 * Stops accepting new copies; copies already in progress still run to completion.
+	 */
+	public void shutdown() {
+		mExecutor.shutdown();
+		mBufferPool.clear();
+	}
+
+	/**
+	 * Stops the thread pool immediately, interrupting copies in progress.
+	 */
+	public void shutdownNow() {
+		mExecutor.shutdownNow();
+		mBufferPool.clear();
+	}
+
+	/**
+	 * Copies the folder src to dst, which must not already exist.
+	 * <p>
+	 * Blocks until the copy is complete, should only be called on an async thread.
+	 */
+	public CopyResult copy(Path src, Path dst) throws IOException {
+		return copy(src, dst, null);
+	}
+
+	/**
+	 * Copies the folder src to dst, which must not already exist, passing region files through transformer.
+	 * <p>
+	 * Blocks until the copy is complete, should only be called on an async thread.
+	 */
+	public CopyResult copy(Path src, Path dst, @Nullable FileTransformer transformer) throws IOException {
+		return copy(src, dst, transformer, null);
+	}
+
+	/**
+	 * Copies the folder src to dst, recording completed files in journal.
+	 * <p>
+	 * If the journal is resumable, dst may already exist from the interrupted copy; files the journal lists as
+	 * completed are kept if they still look intact, and everything else is copied again. Otherwise dst must not exist.
+	 * <p>
+	 * Blocks until the copy is complete, should only be called on an async thread.
+	 */
+	public CopyResult copy(Path src, Path dst, @Nullable FileTransformer transformer, @Nullable CopyJournal journal) throws IOException {
+		long startTime = System.nanoTime();
+		if (!Files.isDirectory(src)) {
+			throw new IOException("Copy source '" + src + "' is not a directory");
+		}
+		boolean resuming = journal != null && journal.isResumable() && Files.isDirectory(dst, LinkOption.NOFOLLOW_LINKS);
+		if (!resuming && Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException("Copy destination '" + dst + "' already exists");
+		}
+
+		AtomicLong files = new AtomicLong(0);
+		AtomicLong bytes = new AtomicLong(0);
+		AtomicLong resumedFiles = new AtomicLong(0);
+		List<Future<?>> pending = new ArrayList<>();
+		// Directory timestamps are applied last, as copying their contents changes them
+		List<Path[]> directories = new ArrayList<>();
+
+		try {
+			Files.walkFileTree(src, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					Path target = dst.resolve(src.relativize(dir).toString());
+					if (!resuming || !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+						throttle(0);
+						Files.createDirectory(target);
+					}
+					directories.add(new Path[] {dir, target});
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Path relativePath = src.relativize(file);
+					Path target = dst.resolve(relativePath.toString());
+					boolean transformed = transformer != null && transformer.accepts(relativePath);
+					if (resuming) {
+						if (journal.isCompleted(relativePath.toString()) && isCopyIntact(target, attrs, transformed)) {
+							files.incrementAndGet();
+							resumedFiles.incrementAndGet();
+							return FileVisitResult.CONTINUE;
+						}
+						// Partially written, or not started
+						throttle(0);
+						Files.deleteIfExists(target);
+					}
+
+					if (attrs.isSymbolicLink()) {
+						throttle(0);
+						Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+						files.incrementAndGet();
+					} else if (isParallelCopyCandidate(file)) {
+						pending.add(mExecutor.submit(() -> {
+							if (transformed) {
+								throttle(attrs.size());
+								bytes.addAndGet(transformer.transform(file, target));
+								copyAttributes(file, target, attrs);
+							} else {
+								bytes.addAndGet(copyFile(file, target, attrs));
+							}
+							if (journal != null) {
+								journal.markCompleted(relativePath.toString());
+							}
+							files.incrementAndGet();
+							return null;
+						}));
+						return FileVisitResult.CONTINUE;
+					} else {
+						bytes.addAndGet(copyFile(file, target, attrs));
+						files.incrementAndGet();
+					}
+					if (journal != null) {
+						journal.markCompleted(relativePath.toString());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+
+			for (Future<?> future : pending) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			cancelAll(pending);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while copying '" + src + "' to '" + dst + "'", ex);
+		} catch (ExecutionException ex) {
+			cancelAll(pending);
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			throw new IOException("Failed to copy '" + src + "' to '" + dst + "': " + cause.getMessage(), cause);
+		} catch (IOException ex) {
+			cancelAll(pending);
+			throw ex;
+		}
+
+		for (int i = directories.size() - 1; i >= 0; i--) {
+			Path[] dirPair = directories.get(i);
+			copyAttributes(dirPair[0], dirPair[1], Files.readAttributes(dirPair[0], BasicFileAttributes.class));
+		}
+
+		return new CopyResult(files.get(), bytes.get(), System.nanoTime() - startTime, resumedFiles.get());
+	}
+
+	/**
+	 * Copies the files listed in manifest (an up to date manifest of src) from src to dst, without walking src.
+	 * <p>
+	 * Only the files in the manifest are copied, so a manifest built with {@link CopyRules} copies only the files
+	 * those rules accept. Copies take their modify time from the manifest; other attributes are left at their defaults.
+	 * Empty directories are not part of a manifest, so are not created.
+	 * <p>
+	 * Completed files are recorded in journal like {@link #copy(Path, Path, FileTransformer, CopyJournal)}, and dst may
+	 * only already exist if the journal is resumable.
+	 * <p>
+	 * Blocks until the copy is complete, should only be called on an async thread.
+	 */
+	public CopyResult copy(Path src, Path dst, ContentManifest manifest, @Nullable FileTransformer transformer, @Nullable CopyJournal journal) throws IOException {
+		return copy(src, dst, manifest, null, transformer, journal);
+	}
+
+	/**
+	 * Like {@link #copy(Path, Path, ContentManifest, FileTransformer, CopyJournal)}, reading file contents from cached
+	 * (the cached contents of src for the same manifest) instead of disk where possible.
+	 */
+	public CopyResult copy(Path src, Path dst, ContentManifest manifest, @Nullable TemplateCache.CachedTemplate cached, @Nullable FileTransformer transformer, @Nullable CopyJournal journal) throws IOException {
+		long startTime = System.nanoTime();
+		if (!Files.isDirectory(src)) {
+			throw new IOException("Copy source '" + src + "' is not a directory");
+		}
+		boolean resuming = journal != null && journal.isResumable() && Files.isDirectory(dst, LinkOption.NOFOLLOW_LINKS);
+		if (!resuming && Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException("Copy destination '" + dst + "' already exists");
+		}
+
+		AtomicLong files = new AtomicLong(0);
+		AtomicLong bytes = new AtomicLong(0);
+		AtomicLong resumedFiles = new AtomicLong(0);
+		List<Future<?>> pending = new ArrayList<>();
+		try {
+			Files.createDirectories(dst);
+			for (String dir : manifestDirectories(manifest)) {
+				throttle(0);
+				Files.createDirectories(dst.resolve(dir));
+			}
+
+			for (Map.Entry<String, ContentManifest.Entry> entry : manifest.getEntries().entrySet()) {
+				String relativePath = entry.getKey();
+				ContentManifest.Entry sourceEntry = entry.getValue();
+				Path file = src.resolve(relativePath);
+				Path target = dst.resolve(relativePath);
+				boolean transformed = transformer != null && transformer.accepts(Paths.get(relativePath));
+				if (resuming) {
+					if (journal.isCompleted(relativePath) && isCopyIntact(target, sourceEntry, transformed)) {
+						files.incrementAndGet();
+						resumedFiles.incrementAndGet();
+						continue;
+					}
+					// Partially written, or not started
+					throttle(0);
+					Files.deleteIfExists(target);
+				}
+
+				Callable<Void> copyFile = () -> {
+					ByteBuffer contents = cached == null ? null : cached.get(relativePath);
+					bytes.addAndGet(copyFromManifest(file, target, sourceEntry, contents, transformed ? transformer : null));
+					if (journal != null) {
+						journal.markCompleted(relativePath);
+					}
+					files.incrementAndGet();
+					return null;
+				};
+				if (isParallelCopyCandidate(file)) {
+					pending.add(mExecutor.submit(copyFile));
+				} else {
+					copyFile.call();
+				}
+			}
+
+			for (Future<?> future : pending) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			cancelAll(pending);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while copying '" + src + "' to '" + dst + "'", ex);
+		} catch (ExecutionException ex) {
+			cancelAll(pending);
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			throw new IOException("Failed to copy '" + src + "' to '" + dst + "': " + cause.getMessage(), cause);
+		} catch (IOException ex) {
+			cancelAll(pending);
+			throw ex;
+		} catch (Exception ex) {
+			cancelAll(pending);
+			throw new IOException("Failed to copy '" + src + "' to '" + dst + "': " + ex.getMessage(), ex);
+		}
+
+		return new CopyResult(files.get(), bytes.get(), System.nanoTime() - startTime, resumedFiles.get());
+	}
+
+	/**
+	 * Makes the existing folder dst identical to src, rsync-style, where manifest is an up to date manifest of src.
+	 * <p>
+	 * Files in dst whose size and modify time match the manifest are assumed unchanged. Files with the right size but
+	 * a different modify time are hashed, and only have their modify time corrected if their contents match.
+	 * Everything else is copied again (through transformer, if it accepts the file), and files and directories that
+	 * aren't in src are deleted. Files the transformer accepts are expected to differ in size, so only their modify
+	 * time is compared.
+	 * <p>
+	 * Empty directories are not part of a manifest, so are removed. Symbolic links are not supported and are replaced
+	 * by regular files. The returned result counts the files and
+	 * bytes actually written, with unchanged files as resumed files.
+	 * <p>
+	 * Blocks until the sync is complete, should only be called on an async thread.
+	 */
+	public CopyResult sync(Path src, Path dst, ContentManifest manifest, @Nullable FileTransformer transformer) throws IOException {
+		return sync(src, dst, manifest, null, transformer);
+	}
+
+	/**
+	 * Like {@link #sync(Path, Path, ContentManifest, FileTransformer)}, reading the contents of replaced files from
+	 * cached (the cached contents of src for the same manifest) instead of disk where possible.
+	 */
+	public CopyResult sync(Path src, Path dst, ContentManifest manifest, @Nullable TemplateCache.CachedTemplate cached, @Nullable FileTransformer transformer) throws IOException {
+		long startTime = System.nanoTime();
+		if (!Files.isDirectory(dst, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException("Sync destination '" + dst + "' is not a directory");
+		}
+
+		// Remove whatever isn't in the source, deepest first so directories are empty by the time they are visited
+		Set<String> sourceDirs = manifestDirectories(manifest);
+		Files.walkFileTree(dst, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String relativePath = dst.relativize(file).toString();
+				if (!attrs.isRegularFile() || manifest.get(relativePath) == null) {
+					throttle(0);
+					Files.delete(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, @Nullable IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				if (!dir.equals(dst) && !sourceDirs.contains(dst.relativize(dir).toString())) {
+					throttle(0);
+					Files.delete(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		AtomicLong files = new AtomicLong(0);
+		AtomicLong bytes = new AtomicLong(0);
+		AtomicLong unchangedFiles = new AtomicLong(0);
+		List<Future<?>> pending = new ArrayList<>();
+		try {
+			for (String dir : sourceDirs) {
+				throttle(0);
+				Files.createDirectories(dst.resolve(dir));
+			}
+
+			for (Map.Entry<String, ContentManifest.Entry> entry : manifest.getEntries().entrySet()) {
+				String relativePath = entry.getKey();
+				ContentManifest.Entry sourceEntry = entry.getValue();
+				Path file = src.resolve(relativePath);
+				Path target = dst.resolve(relativePath);
+				boolean transformed = transformer != null && transformer.accepts(Paths.get(relativePath));
+				Callable<Void> syncFile = () -> {
+					if (isSyncedFile(target, sourceEntry, transformed)) {
+						unchangedFiles.incrementAndGet();
+						return null;
+					}
+					throttle(0);
+					Files.deleteIfExists(target);
+					ByteBuffer contents = cached == null ? null : cached.get(relativePath);
+					bytes.addAndGet(copyFromManifest(file, target, sourceEntry, contents, transformed ? transformer : null));
+					files.incrementAndGet();
+					return null;
+				};
+				if (isParallelCopyCandidate(file)) {
+					pending.add(mExecutor.submit(syncFile));
+				} else {
+					syncFile.call();
+				}
+			}
+
+			for (Future<?> future : pending) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			cancelAll(pending);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while syncing '" + src + "' to '" + dst + "'", ex);
+		} catch (ExecutionException ex) {
+			cancelAll(pending);
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			throw new IOException("Failed to sync '" + src + "' to '" + dst + "': " + cause.getMessage(), cause);
+		} catch (IOException ex) {
+			cancelAll(pending);
+			throw ex;
+		} catch (Exception ex) {
+			cancelAll(pending);
+			throw new IOException("Failed to sync '" + src + "' to '" + dst + "': " + ex.getMessage(), ex);
+		}
+
+		return new CopyResult(files.get(), bytes.get(), System.nanoTime() - startTime, unchangedFiles.get());
+	}
+
+	/**
+	 * Whether target already has the contents described by sourceEntry, correcting its modify time if only that differs.
+	 */
+	private boolean isSyncedFile(Path target, ContentManifest.Entry sourceEntry, boolean transformed) throws IOException {
+		BasicFileAttributes targetAttrs;
+		try {
+			targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException ex) {
+			return false;
+		}
+		if (!targetAttrs.isRegularFile()) {
+			return false;
+		}
+		if (transformed) {
+			return targetAttrs.lastModifiedTime().toMillis() == sourceEntry.mModifiedMillis;
+		}
+		if (sourceEntry.matches(targetAttrs)) {
+			return true;
+		}
+		if (targetAttrs.size() != sourceEntry.mSize) {
+			return false;
+		}
+		throttle(targetAttrs.size());
+		if (ContentManifest.hash(target).equals(sourceEntry.mHash)) {
+			Files.setLastModifiedTime(target, FileTime.fromMillis(sourceEntry.mModifiedMillis));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Every directory containing a file in manifest, relative to its root.
+	 */
+	private static Set<String> manifestDirectories(ContentManifest manifest) {
+		Set<String> dirs = new HashSet<>();
+		for (String relativePath : manifest.getEntries().keySet()) {
+			for (Path parent = Paths.get(relativePath).getParent(); parent != null; parent = parent.getParent()) {
+				dirs.add(parent.toString());
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * Copies (or transforms, if transformer is not null) a file listed in a manifest, setting the copy's modify time
+	 * from the manifest. The file is read from contents if not null. Returns the number of bytes written.
+	 */
+	private long copyFromManifest(Path file, Path target, ContentManifest.Entry sourceEntry, @Nullable ByteBuffer contents, @Nullable FileTransformer transformer) throws IOException {
+		long size;
+		if (contents == null) {
+			if (transformer != null) {
+				throttle(sourceEntry.mSize);
+				size = transformer.transform(file, target);
+			} else {
+				size = copyContents(file, target);
+			}
+		} else if (transformer != null) {
+			// Read from memory, but the transformed copy is still written
+			throttle(sourceEntry.mSize);
+			size = transformer.transform(file, contents, target);
+		} else {
+			size = contents.remaining();
+			throttle(size);
+			try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				while (contents.hasRemaining()) {
+					out.write(contents);
+				}
+			}
+		}
+		Files.setLastModifiedTime(target, FileTime.fromMillis(sourceEntry.mModifiedMillis));
+		return size;
+	}
+
+	/**
+	 * Copies a single regular file, preserving its timestamps. Returns the number of bytes copied.
+	 */
+	public long copyFile(Path file, Path target, BasicFileAttributes attrs) throws IOException {
+		long size = copyContents(file, target);
+		copyAttributes(file, target, attrs);
+		return size;
+	}
+
+	/**
+	 * Copies the contents of a regular file to the new file target. Returns the number of bytes copied.
+	 */
+	private long copyContents(Path file, Path target) throws IOException {
+		long size;
+		try (
+			FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+		) {
+			size = in.size();
+			if (size <= BUFFER_SIZE) {
+				throttle(size);
+				ByteBuffer buffer = acquireBuffer();
+				try {
+					while (in.read(buffer) >= 0 && buffer.hasRemaining()) {
+						// Keep reading until EOF or the buffer is full
+					}
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					size = buffer.limit();
+				} finally {
+					releaseBuffer(buffer);
+				}
+			} else {
+				long position = 0;
+				while (position < size) {
+					long count = size - position;
+					if (mThrottle != null) {
+						count = Math.min(count, THROTTLE_CHUNK_SIZE);
+						mThrottle.acquire(count, position == 0 ? 1 : 0);
+					}
+					long transferred = in.transferTo(position, count, out);
+					if (transferred <= 0) {
+						// File shrank while copying
+						break;
+					}
+					position += transferred;
+				}
+				size = position;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Whether a file copied before an interruption was completed, judging by the modify time copied from the source
+	 * (which is only set once the file has been written) and, unless it was transformed, its size.
+	 */
+	private static boolean isCopyIntact(Path target, BasicFileAttributes sourceAttrs, boolean transformed) throws IOException {
+		BasicFileAttributes targetAttrs;
+		try {
+			targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException ex) {
+			return false;
+		}
+		if (sourceAttrs.isSymbolicLink()) {
+			return targetAttrs.isSymbolicLink();
+		}
+		return targetAttrs.lastModifiedTime().equals(sourceAttrs.lastModifiedTime())
+			&& (transformed || targetAttrs.size() == sourceAttrs.size());
+	}
+
+	/**
+	 * Like {@link #isCopyIntact(Path, BasicFileAttributes, boolean)}, for a file copied from a manifest.
+	 */
+	private static boolean isCopyIntact(Path target, ContentManifest.Entry sourceEntry, boolean transformed) throws IOException {
+		BasicFileAttributes targetAttrs;
+		try {
+			targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException ex) {
+			return false;
+		}
+		return targetAttrs.isRegularFile()
+			&& targetAttrs.lastModifiedTime().toMillis() == sourceEntry.mModifiedMillis
+			&& (transformed || targetAttrs.size() == sourceEntry.mSize);
+	}
+
+	private static boolean isParallelCopyCandidate(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".mca") || name.endsWith(".mcc");
+	}
+
+	public static void copyAttributes(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+		PosixFileAttributeView sourcePosix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		PosixFileAttributeView targetPosix = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if (sourcePosix != null && targetPosix != null) {
+			targetPosix.setPermissions(sourcePosix.readAttributes().permissions());
+		}
+		Files.getFileAttributeView(target, BasicFileAttributeView.class)
+			.setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), attrs.creationTime());
+	}
+
+	/**
+	 * Waits for the throttle (if any) to allow a file operation reading or writing the given number of bytes.
+	 */
+	private void throttle(long bytes) throws IOException {
+		if (mThrottle != null) {
+			mThrottle.acquire(bytes, 1);
+		}
+	}
+
+	private ByteBuffer acquireBuffer() {
+		ByteBuffer buffer = mBufferPool.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		mPooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	private void releaseBuffer(ByteBuffer buffer) {
+		buffer.clear();
+		if (mPooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			mBufferPool.add(buffer);
+		} else {
+			mPooledBuffers.decrementAndGet();
+		}
+	}
+
+	private static void cancelAll(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+}
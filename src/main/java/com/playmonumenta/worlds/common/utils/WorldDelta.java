@@ -0,0 +1,145 @@
+package com.playmonumenta.worlds.common.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Stores a world as only the files that differ from the template version it was copied from.
+ * <p>
+ * Worlds copied from a template manifest are stamped with an {@link #ORIGIN_FILE} naming the template and manifest
+ * version. Dehydrating such a world moves each file that still matches that version into a {@link ContentStore}, and
+ * writes a {@link #DELTA_MANIFEST_FILE} listing every file of the world; what is left in the folder is the delta.
+ * Materializing copies the missing files back out of the store.
+ * <p>
+ * A dehydrated world is missing most of its region files, so must never be loaded until it is materialized again.
+ * <p>
+ * Uses file I/O, should only be called on an async thread.
+ */
+public class WorldDelta {
+	public static class Origin {
+		public final String mTemplateName;
+		public final String mVersionId;
+
+		public Origin(String templateName, String versionId) {
+			mTemplateName = templateName;
+			mVersionId = versionId;
+		}
+	}
+
+	/**
+	 * The result of dehydrating a world.
+	 */
+	public static class Result {
+		public final int mKeptFiles;
+		public final long mKeptBytes;
+		public final int mStoredFiles;
+		public final long mStoredBytes;
+
+		private Result(int keptFiles, long keptBytes, int storedFiles, long storedBytes) {
+			mKeptFiles = keptFiles;
+			mKeptBytes = keptBytes;
+			mStoredFiles = storedFiles;
+			mStoredBytes = storedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("kept %d files (%.1f MiB), %d files (%.1f MiB) shared with the template",
+				mKeptFiles, mKeptBytes / 1048576.0, mStoredFiles, mStoredBytes / 1048576.0);
+		}
+	}
+
+	public static final String ORIGIN_FILE = "monumenta_template_origin.txt";
+	public static final String DELTA_MANIFEST_FILE = "monumenta_delta.manifest";
+
+	private WorldDelta() {
+	}
+
+	public static void writeOrigin(Path world, String templateName, String versionId) throws IOException {
+		Files.writeString(world.resolve(ORIGIN_FILE), templateName + "\t" + versionId + "\n", StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The template version world was copied from, or null if it isn't known.
+	 */
+	public static @Nullable Origin readOrigin(Path world) {
+		try {
+			List<String> lines = Files.readAllLines(world.resolve(ORIGIN_FILE), StandardCharsets.UTF_8);
+			String[] parts = lines.isEmpty() ? new String[0] : lines.get(0).split("\t");
+			return parts.length == 2 ? new Origin(parts[0], parts[1]) : null;
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	public static boolean isDehydrated(Path world) {
+		return Files.isRegularFile(world.resolve(DELTA_MANIFEST_FILE));
+	}
+
+	/**
+	 * Moves the files of world that match origin into store, leaving only the delta behind.
+	 */
+	public static Result dehydrate(Path world, ContentManifest origin, ContentStore store, @Nullable IoThrottle throttle) throws IOException {
+		ContentManifest manifest = ContentManifest.build(world, null);
+		// Written first, so an interrupted dehydrate can always be materialized again
+		manifest.save(world.resolve(DELTA_MANIFEST_FILE));
+
+		int keptFiles = 0;
+		long keptBytes = 0;
+		int storedFiles = 0;
+		long storedBytes = 0;
+		for (Map.Entry<String, ContentManifest.Entry> entry : manifest.getEntries().entrySet()) {
+			ContentManifest.Entry originEntry = origin.get(entry.getKey());
+			ContentManifest.Entry worldEntry = entry.getValue();
+			if (originEntry == null || !originEntry.mHash.equals(worldEntry.mHash)) {
+				keptFiles++;
+				keptBytes += worldEntry.mSize;
+				continue;
+			}
+			if (throttle != null) {
+				throttle.acquire(0, 1);
+			}
+			store.moveIn(worldEntry.mHash, world.resolve(entry.getKey()));
+			storedFiles++;
+			storedBytes += worldEntry.mSize;
+		}
+		return new Result(keptFiles, keptBytes, storedFiles, storedBytes);
+	}
+
+	/**
+	 * Copies the files missing from a dehydrated world back out of store, then removes its delta manifest.
+	 * Does nothing if world isn't dehydrated.
+	 */
+	public static void materialize(Path world, ContentStore store, @Nullable IoThrottle throttle) throws IOException {
+		Path manifestFile = world.resolve(DELTA_MANIFEST_FILE);
+		if (!Files.isRegularFile(manifestFile)) {
+			return;
+		}
+		ContentManifest manifest = ContentManifest.load(manifestFile);
+		if (manifest == null) {
+			throw new IOException("Delta manifest of '" + world + "' is unreadable");
+		}
+
+		for (Map.Entry<String, ContentManifest.Entry> entry : manifest.getEntries().entrySet()) {
+			Path target = world.resolve(entry.getKey());
+			ContentManifest.Entry worldEntry = entry.getValue();
+			if (Files.isRegularFile(target) && Files.size(target) == worldEntry.mSize) {
+				// Part of the delta, or already materialized by an interrupted attempt
+				continue;
+			}
+			if (throttle != null) {
+				throttle.acquire(worldEntry.mSize, 1);
+			}
+			Files.createDirectories(target.getParent());
+			store.copyOut(worldEntry.mHash, target);
+			Files.setLastModifiedTime(target, FileTime.fromMillis(worldEntry.mModifiedMillis));
+		}
+		Files.delete(manifestFile);
+	}
+}
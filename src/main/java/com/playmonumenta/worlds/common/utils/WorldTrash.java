@@ -0,0 +1,267 @@
+package com.playmonumenta.worlds.common.utils;
+
+import com.playmonumenta.worlds.common.MMLog;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Deletes folders by atomically renaming them into a trash folder, then purging the trash in the background.
+ * <p>
+ * The rename is instant, so a deleted folder's name is free to reuse straight away. The purge deletes files in
+ * parallel, waiting for an {@link IoThrottle} before each file or directory: the one given when the folder was moved,
+ * or the default one. Anything left in the trash by a restart is purged the next time {@link #purgeAsync()} is called,
+ * using the default throttle.
+ * <p>
+ * The trash folder must be on the same file system as the folders moved into it.
+ */
+public class WorldTrash {
+	private final Path mTrashDir;
+	private final IoThrottle mThrottle;
+	private final ExecutorService mExecutor;
+	// Runs one purge of the whole trash at a time
+	private final ExecutorService mCoordinator;
+	private final AtomicInteger mTrashCounter = new AtomicInteger(0);
+	// Throttles of entries trashed since startup that don't use the default one
+	private final Map<Path, IoThrottle> mEntryThrottles = new ConcurrentHashMap<>();
+	// Guarded by this
+	private boolean mPurgeScheduled = false;
+
+	/**
+	 * @param threads Number of threads to delete files with; values <= 0 use one thread per core
+	 */
+	public WorldTrash(Path trashDir, IoThrottle throttle, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		mTrashDir = trashDir;
+		mThrottle = throttle;
+		AtomicInteger threadId = new AtomicInteger(0);
+		mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "MonumentaWorldManagement-Purge-" + threadId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		((ThreadPoolExecutor) mExecutor).allowCoreThreadTimeOut(true);
+		mCoordinator = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "MonumentaWorldManagement-Trash");
+			thread.setDaemon(true);
+			return thread;
+		});
+		((ThreadPoolExecutor) mCoordinator).allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Stops accepting new purges; a purge already scheduled or in progress still runs to completion. Anything trashed
+	 * after this is left for the next purge of another instance using the same trash folder.
+	 */
+	public synchronized void shutdown() {
+		// Queued behind any pending purge, so its deletes aren't rejected
+		mCoordinator.execute(mExecutor::shutdown);
+		mCoordinator.shutdown();
+	}
+
+	/**
+	 * Stops both thread pools immediately, interrupting a purge in progress.
+	 */
+	public synchronized void shutdownNow() {
+		mCoordinator.shutdownNow();
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * Moves folder into the trash and schedules a purge with the default throttle.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public void moveToTrash(Path folder) throws IOException {
+		moveToTrash(folder, mThrottle);
+	}
+
+	/**
+	 * Moves folder into the trash and schedules a purge, which deletes it through throttle. If the file system can't
+	 * move it atomically, it is deleted in place instead, blocking until done.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public void moveToTrash(Path folder, IoThrottle throttle) throws IOException {
+		Files.createDirectories(mTrashDir);
+		Path trashed = mTrashDir.resolve(folder.getFileName() + "." + System.currentTimeMillis() + "." + mTrashCounter.incrementAndGet());
+		if (throttle != mThrottle) {
+			mEntryThrottles.put(trashed, throttle);
+		}
+		try {
+			Files.move(folder, trashed, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			mEntryThrottles.remove(trashed);
+			MMLog.warning("Can't move '" + folder + "' to the trash, deleting it in place: " + ex.getMessage());
+			FileUtils.deleteRecursively(folder, throttle);
+			return;
+		} catch (IOException ex) {
+			mEntryThrottles.remove(trashed);
+			throw ex;
+		}
+		MMLog.fine("Moved '" + folder + "' to the trash as '" + trashed + "'");
+		purgeAsync();
+	}
+
+	/**
+	 * Moves folder into the trash and schedules a purge with the default throttle, only if the file system can move it
+	 * atomically. Returns false, leaving folder in place, if it can't.
+	 * <p>
+	 * Never deletes anything itself, so may be called on the main thread.
+	 */
+	public boolean tryMoveToTrash(Path folder) throws IOException {
+		Files.createDirectories(mTrashDir);
+		Path trashed = mTrashDir.resolve(folder.getFileName() + "." + System.currentTimeMillis() + "." + mTrashCounter.incrementAndGet());
+		try {
+			Files.move(folder, trashed, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			return false;
+		}
+		MMLog.fine("Moved '" + folder + "' to the trash as '" + trashed + "'");
+		purgeAsync();
+		return true;
+	}
+
+	/**
+	 * Purges everything in the trash on a background thread, unless a purge is already scheduled.
+	 */
+	public synchronized void purgeAsync() {
+		if (mPurgeScheduled) {
+			return;
+		}
+		try {
+			mCoordinator.execute(this::purgeAll);
+			mPurgeScheduled = true;
+		} catch (RejectedExecutionException ex) {
+			MMLog.fine("Trash purge threads are shut down, leaving '" + mTrashDir + "' for the next purge");
+		}
+	}
+
+	private void purgeAll() {
+		synchronized (this) {
+			// Cleared first, so folders trashed during this purge schedule another
+			mPurgeScheduled = false;
+		}
+		if (!Files.isDirectory(mTrashDir)) {
+			return;
+		}
+		List<Path> entries = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(mTrashDir)) {
+			for (Path entry : stream) {
+				entries.add(entry);
+			}
+		} catch (IOException ex) {
+			MMLog.warning("Failed to list trash folder '" + mTrashDir + "': " + ex.getMessage());
+			return;
+		}
+		for (Path entry : entries) {
+			long startTime = System.nanoTime();
+			try {
+				int deleted = purge(entry, mEntryThrottles.getOrDefault(entry, mThrottle));
+				mEntryThrottles.remove(entry);
+				MMLog.fine(String.format("Purged '%s' from the trash: %d files in %.2fs", entry.getFileName(), deleted,
+					(System.nanoTime() - startTime) / 1_000_000_000.0));
+			} catch (IOException ex) {
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				MMLog.warning("Failed to purge '" + entry + "' from the trash, will retry on the next purge: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Deletes a trash entry, files in parallel and then directories deepest first. Returns the number of files deleted.
+	 */
+	private int purge(Path entry, IoThrottle throttle) throws IOException {
+		List<Future<?>> pending = new ArrayList<>();
+		List<Path> directories = new ArrayList<>();
+		AtomicInteger deleted = new AtomicInteger(0);
+		try {
+			Files.walkFileTree(entry, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					directories.add(dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					pending.add(mExecutor.submit(() -> {
+						deleteIfExists(file, throttle);
+						deleted.incrementAndGet();
+						return null;
+					}));
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					if (exc instanceof NoSuchFileException) {
+						return FileVisitResult.CONTINUE;
+					}
+					throw exc;
+				}
+			});
+
+			for (Future<?> future : pending) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			cancelAll(pending);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while purging '" + entry + "'", ex);
+		} catch (ExecutionException ex) {
+			cancelAll(pending);
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			throw new IOException("Failed to purge '" + entry + "': " + cause.getMessage(), cause);
+		} catch (IOException ex) {
+			cancelAll(pending);
+			throw ex;
+		}
+
+		for (int i = directories.size() - 1; i >= 0; i--) {
+			deleteIfExists(directories.get(i), throttle);
+		}
+		return deleted.get();
+	}
+
+	private static void deleteIfExists(@Nullable Path path, IoThrottle throttle) throws IOException {
+		if (path == null) {
+			return;
+		}
+		throttle.acquire(0, 1);
+		Files.deleteIfExists(path);
+	}
+
+	private static void cancelAll(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,571 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.utils.BlobStore;
+import com.playmonumenta.worlds.common.utils.ContentManifest;
+import com.playmonumenta.worlds.common.utils.ContentStore;
+import com.playmonumenta.worlds.common.utils.FileUtils;
+import com.playmonumenta.worlds.common.utils.IoThrottle;
+import com.playmonumenta.worlds.common.utils.WorldArchive;
+import com.playmonumenta.worlds.common.utils.WorldDelta;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Keeps idle instance worlds packed into a single zip archive each, instead of as folders in the world container.
+ * <p>
+ * Freezing a world first renames its folder into a staging folder, so it can't be loaded while it is packed, then packs
+ * it into cold-storage.folder and moves the folder to the trash. If a blob store is configured the archive is pushed to
+ * it as well, leaving only an empty marker file locally unless keep-local is set. Restoring unpacks the archive into a
+ * staging folder and renames it back into place, so a world is never seen half restored.
+ * <p>
+ * {@link MonumentaWorldManagementAPI#ensureWorldLoaded(String, String)} restores frozen worlds transparently, throwing
+ * {@link WorldNotReadyException} until they are back.
+ * <p>
+ * With cold-storage.delta-against-template, worlds copied from a template manifest are dehydrated with
+ * {@link WorldDelta} before packing, so the archive only holds the files players changed. Unchanged files go into a
+ * content-addressed store in the objects folder, shared by every world, and are copied back out when restoring.
+ * <p>
+ * Each archive's delta manifest and template origin are also kept unpacked in the references folder, written before
+ * the archive is, so what it needs is known without opening it. At most once a day, objects no archive refers to and
+ * template manifest versions no archive or world refers to are removed. Freezing and restoring wait while this runs.
+ * <p>
+ * Steps interrupted by a restart are rolled back or finished when the plugin next starts. Freezing and restoring must be
+ * started on the main thread, and their futures complete on the main thread.
+ */
+public class ColdStorage {
+	private static final String ARCHIVE_SUFFIX = ".zip";
+	// Marks an archive that is only in the blob store
+	private static final String REMOTE_SUFFIX = ".remote";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String STAGING_FOLDER = ".staging";
+	private static final String RESTORING_SUFFIX = ".restoring";
+	private static final String DOWNLOAD_SUFFIX = ".download";
+	private static final String OBJECTS_FOLDER = "objects";
+	private static final String REFERENCES_FOLDER = "references";
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	private final WorldManagementPlugin mPlugin;
+	private final Path mFolder;
+	private final Path mStaging;
+	private final @Nullable BlobStore mBlobStore;
+	private final ContentStore mContentStore;
+	private final boolean mKeepLocal;
+	// Read locked while storing objects or copying them out, write locked while removing unreferenced ones
+	private final ReadWriteLock mStoreLock = new ReentrantReadWriteLock();
+	// Worlds with an archive, or being packed into one; read from any thread
+	private final Set<String> mFrozen = ConcurrentHashMap.newKeySet();
+	private final Map<String, CompletableFuture<Void>> mFreezing = new HashMap<>();
+	private final Map<String, CompletableFuture<Void>> mRestoring = new HashMap<>();
+	private @Nullable BukkitTask mTask = null;
+	private boolean mRunning = false;
+	private long mLastCollectMillis = 0;
+
+	protected ColdStorage(WorldManagementPlugin plugin, Path folder, @Nullable BlobStore blobStore, boolean keepLocal) {
+		mPlugin = plugin;
+		mFolder = folder;
+		mStaging = folder.resolve(STAGING_FOLDER);
+		mBlobStore = blobStore;
+		mContentStore = new ContentStore(folder.resolve(OBJECTS_FOLDER));
+		mKeepLocal = keepLocal;
+		recover();
+	}
+
+	public void reloadConfig() {
+		cancel();
+		if (WorldManagementPlugin.isColdStorageEnabled()) {
+			long intervalTicks = Math.max(1, WorldManagementPlugin.getColdStorageIntervalMinutes()) * 60L * 20L;
+			mTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::run, intervalTicks, intervalTicks);
+		}
+	}
+
+	public void cancel() {
+		if (mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+
+	/**
+	 * Whether worldName is in cold storage, or on its way there. Safe from any thread.
+	 */
+	public boolean isFrozen(String worldName) {
+		return mFrozen.contains(worldName);
+	}
+
+	public int getFrozenCount() {
+		return mFrozen.size();
+	}
+
+	/**
+	 * Packs an unloaded world into cold storage. Its name stops being available immediately. Worlds that are queued or
+	 * waiting to be loaded are refused.
+	 * <p>
+	 * Must be called from the main thread.
+	 */
+	public CompletableFuture<Void> freeze(String worldName) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		if (mFrozen.contains(worldName)) {
+			future.completeExceptionally(new Exception("World '" + worldName + "' is already in cold storage"));
+			return future;
+		}
+		if (Bukkit.getWorld(worldName) != null) {
+			future.completeExceptionally(new Exception("Can't freeze world '" + worldName + "' which is loaded"));
+			return future;
+		}
+		if (MonumentaWorldManagementAPI.isLoadPending(worldName)) {
+			future.completeExceptionally(new Exception("Can't freeze world '" + worldName + "' which is about to be loaded"));
+			return future;
+		}
+
+		Path staged = mStaging.resolve(worldName);
+		try {
+			Files.createDirectories(mStaging);
+			Files.move(Paths.get(worldName), staged, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			future.completeExceptionally(new Exception("Failed to move world '" + worldName + "' to cold storage: " + ex.getMessage(), ex));
+			return future;
+		}
+		mFrozen.add(worldName);
+		mFreezing.put(worldName, future);
+		mPlugin.getWorldFolderIndex().remove(worldName);
+
+		IoThrottle throttle = WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE);
+		Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> {
+			try {
+				long startTime = System.nanoTime();
+				Path archive = archiveFile(worldName);
+				dehydrate(worldName, staged, throttle);
+				long size = WorldArchive.pack(staged, archive, throttle);
+				if (mBlobStore != null) {
+					pushToBlobStore(worldName, archive);
+				}
+				WorldManagementPlugin.getWorldTrash().moveToTrash(staged, throttle);
+				MMLog.info(String.format("Moved world %s to cold storage: %.1f MiB in %.2fs", worldName, size / 1048576.0,
+					(System.nanoTime() - startTime) / 1_000_000_000.0));
+				Bukkit.getScheduler().runTask(mPlugin, () -> {
+					mFreezing.remove(worldName);
+					future.complete(null);
+				});
+			} catch (IOException ex) {
+				try {
+					materialize(staged, throttle);
+					deleteReferences(worldName);
+				} catch (IOException materializeEx) {
+					MMLog.severe("Failed to materialize world " + worldName + " after failing to move it to cold storage: " + materializeEx.getMessage());
+				}
+				Bukkit.getScheduler().runTask(mPlugin, () -> abortFreeze(worldName, staged, future, ex));
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Unpacks a world from cold storage. Restoring a world that is already being restored returns the same future.
+	 * <p>
+	 * Must be called from the main thread.
+	 */
+	public CompletableFuture<Void> restore(String worldName) {
+		CompletableFuture<Void> future = mRestoring.get(worldName);
+		if (future != null) {
+			return future;
+		}
+		CompletableFuture<Void> restoring = new CompletableFuture<>();
+		mRestoring.put(worldName, restoring);
+
+		// If it's still being packed, wait; if packing fails, the folder is put back and there is nothing to restore
+		CompletableFuture<Void> freezing = mFreezing.getOrDefault(worldName, CompletableFuture.completedFuture(null));
+		freezing.whenComplete((unused, freezeEx) -> Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> {
+			try {
+				unpack(worldName);
+				Bukkit.getScheduler().runTask(mPlugin, () -> {
+					mFrozen.remove(worldName);
+					mRestoring.remove(worldName);
+					mPlugin.getWorldFolderIndex().add(worldName);
+					restoring.complete(null);
+				});
+			} catch (IOException ex) {
+				MMLog.severe("Failed to restore world " + worldName + " from cold storage: " + ex.getMessage());
+				Bukkit.getScheduler().runTask(mPlugin, () -> {
+					mRestoring.remove(worldName);
+					restoring.completeExceptionally(new Exception("Failed to restore world '" + worldName + "' from cold storage: " + ex.getMessage(), ex));
+				});
+			}
+		}));
+		return restoring;
+	}
+
+	/**
+	 * Freezes instance worlds that haven't been written to for cold-storage.idle-days, if the server is idle.
+	 * Must be called on the main thread.
+	 */
+	public void run() {
+		if (mRunning || WorldManagementPlugin.getServerLoad() != ServerLoadMonitor.Load.IDLE) {
+			return;
+		}
+		if (System.currentTimeMillis() - mLastCollectMillis >= MILLIS_PER_DAY) {
+			mLastCollectMillis = System.currentTimeMillis();
+			List<String> worldNames = List.of(mPlugin.getWorldFolderIndex().toArray());
+			Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> collectGarbage(worldNames));
+		}
+		List<String> candidates = new ArrayList<>();
+		for (String worldName : mPlugin.getWorldFolderIndex().toArray()) {
+			if (InstanceCollector.isInstanceName(worldName) && Bukkit.getWorld(worldName) == null) {
+				candidates.add(worldName);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return;
+		}
+
+		mRunning = true;
+		long cutoff = System.currentTimeMillis() - WorldManagementPlugin.getColdStorageIdleDays() * MILLIS_PER_DAY;
+		Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> {
+			List<String> idle = new ArrayList<>();
+			for (String worldName : candidates) {
+				if (idle.size() >= WorldManagementPlugin.getColdStorageMaxPerRun()) {
+					break;
+				}
+				try {
+					if (Files.getLastModifiedTime(Paths.get(worldName, "level.dat")).toMillis() < cutoff) {
+						idle.add(worldName);
+					}
+				} catch (IOException ex) {
+					// Deleted or not a world any more
+				}
+			}
+			Bukkit.getScheduler().runTask(mPlugin, () -> {
+				List<CompletableFuture<Void>> frozen = new ArrayList<>();
+				for (String worldName : idle) {
+					// Could have been loaded, or be about to be, while its folder was being checked
+					if (Bukkit.getWorld(worldName) == null && !MonumentaWorldManagementAPI.isLoadPending(worldName)
+						&& mPlugin.getWorldFolderIndex().contains(worldName)) {
+						frozen.add(freeze(worldName).exceptionally((ex) -> {
+							MMLog.warning("Failed to move idle world " + worldName + " to cold storage: " + ex.getMessage());
+							return null;
+						}));
+					}
+				}
+				CompletableFuture.allOf(frozen.toArray(new CompletableFuture<?>[0])).whenComplete((unused, ex) -> mRunning = false);
+			});
+		});
+	}
+
+	/**
+	 * Dehydrates a staged world if cold-storage.delta-against-template is set, then records its references. If either
+	 * fails, the world is materialized again before garbage collection can see its objects unreferenced.
+	 */
+	private void dehydrate(String worldName, Path staged, IoThrottle throttle) throws IOException {
+		mStoreLock.readLock().lock();
+		try {
+			WorldDelta.Origin origin = WorldDelta.readOrigin(staged);
+			if (origin != null && WorldManagementPlugin.isColdStorageDeltaAgainstTemplate()) {
+				ContentManifest originManifest = WorldGenerator.getTemplateManifestVersion(origin.mVersionId);
+				if (originManifest == null) {
+					MMLog.fine("Template version " + origin.mVersionId + " of world " + worldName + " is unknown, archiving it whole");
+				} else {
+					WorldDelta.Result result = WorldDelta.dehydrate(staged, originManifest, mContentStore, throttle);
+					MMLog.fine("Stored world " + worldName + " as a delta against template " + origin.mTemplateName + ": " + result);
+				}
+			}
+			writeReferences(worldName, staged);
+		} catch (IOException ex) {
+			WorldDelta.materialize(staged, mContentStore, throttle);
+			throw ex;
+		} finally {
+			mStoreLock.readLock().unlock();
+		}
+	}
+
+	private void materialize(Path world, @Nullable IoThrottle throttle) throws IOException {
+		mStoreLock.readLock().lock();
+		try {
+			WorldDelta.materialize(world, mContentStore, throttle);
+		} finally {
+			mStoreLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies the delta manifest and template origin of world, whichever it has, into the references folder for worldName.
+	 * The folder is replaced atomically, so it is never seen missing the delta manifest of a dehydrated world.
+	 */
+	private void writeReferences(String worldName, Path world) throws IOException {
+		Path temp = newReferencesTemp(worldName);
+		for (String fileName : new String[] {WorldDelta.DELTA_MANIFEST_FILE, WorldDelta.ORIGIN_FILE}) {
+			if (Files.isRegularFile(world.resolve(fileName))) {
+				Files.copy(world.resolve(fileName), temp.resolve(fileName));
+			}
+		}
+		deleteReferences(worldName);
+		Files.move(temp, referencesFolder(worldName), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Recreates the references folder of an archive written before references were kept, if the archive is local.
+	 * Returns false if it isn't.
+	 */
+	private boolean backfillReferences(String worldName) throws IOException {
+		Path archive = archiveFile(worldName);
+		if (!Files.isRegularFile(archive)) {
+			return false;
+		}
+		Path temp = newReferencesTemp(worldName);
+		WorldArchive.extract(archive, WorldDelta.DELTA_MANIFEST_FILE, temp.resolve(WorldDelta.DELTA_MANIFEST_FILE));
+		WorldArchive.extract(archive, WorldDelta.ORIGIN_FILE, temp.resolve(WorldDelta.ORIGIN_FILE));
+		Files.move(temp, referencesFolder(worldName), StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	/**
+	 * An empty folder next to the references folder of worldName, to be moved into its place once filled.
+	 */
+	private Path newReferencesTemp(String worldName) throws IOException {
+		Path temp = referencesFolder(worldName).resolveSibling(worldName + TEMP_SUFFIX);
+		if (Files.exists(temp)) {
+			FileUtils.deleteRecursively(temp);
+		}
+		Files.createDirectories(temp);
+		return temp;
+	}
+
+	private void deleteReferences(String worldName) throws IOException {
+		Path references = referencesFolder(worldName);
+		if (Files.exists(references)) {
+			FileUtils.deleteRecursively(references);
+		}
+	}
+
+	/**
+	 * Removes stored objects no archive refers to, and template manifest versions no archive or world in worldNames
+	 * refers to. Uses file I/O.
+	 */
+	private void collectGarbage(List<String> worldNames) {
+		IoThrottle throttle = WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE);
+		Set<String> liveObjects = new HashSet<>();
+		Set<String> liveVersions = new HashSet<>();
+		for (String worldName : worldNames) {
+			WorldDelta.Origin origin = WorldDelta.readOrigin(Paths.get(worldName));
+			if (origin != null) {
+				liveVersions.add(origin.mVersionId);
+			}
+		}
+
+		long startTime = System.nanoTime();
+		mStoreLock.writeLock().lock();
+		try {
+			for (String worldName : new ArrayList<>(mFrozen)) {
+				Path references = referencesFolder(worldName);
+				if (!Files.isDirectory(references) && !backfillReferences(worldName)) {
+					if (Files.isDirectory(mStaging.resolve(worldName)) || Files.isDirectory(Paths.get(worldName))) {
+						// Not dehydrated yet, as its references are written in the same step, or just restored
+						continue;
+					}
+					MMLog.warning("Skipping cold storage garbage collection: the archive of world " + worldName
+						+ " predates reference tracking and is only in the blob store");
+					return;
+				}
+				Path deltaFile = references.resolve(WorldDelta.DELTA_MANIFEST_FILE);
+				if (Files.exists(deltaFile)) {
+					ContentManifest delta = ContentManifest.load(deltaFile);
+					if (delta == null) {
+						MMLog.warning("Skipping cold storage garbage collection: '" + deltaFile + "' is unreadable");
+						return;
+					}
+					for (ContentManifest.Entry entry : delta.getEntries().values()) {
+						liveObjects.add(entry.mHash);
+					}
+				}
+				WorldDelta.Origin origin = WorldDelta.readOrigin(references);
+				if (origin != null) {
+					liveVersions.add(origin.mVersionId);
+				}
+			}
+
+			int objects = mContentStore.sweep(liveObjects, throttle);
+			int versions = WorldGenerator.pruneTemplateManifestVersions(liveVersions);
+			if (objects > 0 || versions > 0) {
+				MMLog.info(String.format("Removed %d unreferenced objects and %d template manifest versions from cold storage in %.2fs",
+					objects, versions, (System.nanoTime() - startTime) / 1_000_000_000.0));
+			}
+		} catch (IOException ex) {
+			MMLog.warning("Failed to collect cold storage garbage: " + ex.getMessage());
+		} finally {
+			mStoreLock.writeLock().unlock();
+		}
+	}
+
+	private void abortFreeze(String worldName, Path staged, CompletableFuture<Void> future, IOException failure) {
+		MMLog.severe("Failed to move world " + worldName + " to cold storage, putting it back: " + failure.getMessage());
+		mFreezing.remove(worldName);
+		try {
+			Files.move(staged, Paths.get(worldName), StandardCopyOption.ATOMIC_MOVE);
+			mFrozen.remove(worldName);
+			mPlugin.getWorldFolderIndex().add(worldName);
+		} catch (IOException ex) {
+			MMLog.severe("Failed to put world " + worldName + " back from '" + staged + "', it will be retried on restart: " + ex.getMessage());
+		}
+		future.completeExceptionally(new Exception("Failed to move world '" + worldName + "' to cold storage: " + failure.getMessage(), failure));
+	}
+
+	private void pushToBlobStore(String worldName, Path archive) {
+		if (mBlobStore == null) {
+			return;
+		}
+		try {
+			mBlobStore.put(worldName + ARCHIVE_SUFFIX, archive);
+			if (!mKeepLocal) {
+				// The marker must exist before the local copy is gone, so the world is never forgotten
+				Files.deleteIfExists(remoteMarker(worldName));
+				Files.createFile(remoteMarker(worldName));
+				Files.delete(archive);
+			}
+		} catch (IOException ex) {
+			MMLog.warning("Failed to push world " + worldName + " to " + mBlobStore + ", keeping it locally: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Unpacks a frozen world back into place, then removes its archive. Uses file I/O.
+	 */
+	private void unpack(String worldName) throws IOException {
+		Path target = Paths.get(worldName);
+		if (Files.isDirectory(target)) {
+			// Never made it into cold storage
+			return;
+		}
+
+		Path archive = archiveFile(worldName);
+		Path download = null;
+		if (!Files.isRegularFile(archive)) {
+			if (mBlobStore == null || !Files.exists(remoteMarker(worldName))) {
+				throw new IOException("No archive found for world '" + worldName + "'");
+			}
+			Files.createDirectories(mStaging);
+			download = mStaging.resolve(worldName + DOWNLOAD_SUFFIX);
+			mBlobStore.get(worldName + ARCHIVE_SUFFIX, download);
+			archive = download;
+		}
+
+		long startTime = System.nanoTime();
+		Path restoring = mStaging.resolve(worldName + RESTORING_SUFFIX);
+		if (Files.exists(restoring)) {
+			WorldManagementPlugin.getWorldTrash().moveToTrash(restoring, WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE));
+		}
+		Files.createDirectories(mStaging);
+		try {
+			IoThrottle throttle = WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE);
+			WorldArchive.unpack(archive, restoring, throttle);
+			materialize(restoring, throttle);
+			Files.move(restoring, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			if (download != null) {
+				Files.deleteIfExists(download);
+			}
+		}
+		MMLog.info(String.format("Restored world %s from cold storage in %.2fs", worldName, (System.nanoTime() - startTime) / 1_000_000_000.0));
+
+		Files.deleteIfExists(archiveFile(worldName));
+		Files.deleteIfExists(remoteMarker(worldName));
+		deleteReferences(worldName);
+		if (mBlobStore != null) {
+			try {
+				mBlobStore.delete(worldName + ARCHIVE_SUFFIX);
+			} catch (IOException ex) {
+				MMLog.warning("Failed to remove restored world " + worldName + " from " + mBlobStore + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the list of frozen worlds, and cleans up after freezes and restores interrupted by a restart.
+	 */
+	private void recover() {
+		if (!Files.isDirectory(mFolder)) {
+			return;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(mFolder)) {
+			for (Path entry : stream) {
+				String name = entry.getFileName().toString();
+				if (name.endsWith(ARCHIVE_SUFFIX)) {
+					mFrozen.add(name.substring(0, name.length() - ARCHIVE_SUFFIX.length()));
+				} else if (name.endsWith(REMOTE_SUFFIX)) {
+					mFrozen.add(name.substring(0, name.length() - REMOTE_SUFFIX.length()));
+				} else if (name.endsWith(TEMP_SUFFIX)) {
+					Files.deleteIfExists(entry);
+				}
+			}
+		} catch (IOException ex) {
+			MMLog.severe("Failed to scan cold storage folder '" + mFolder + "': " + ex.getMessage());
+		}
+
+		// Restored, but the archive wasn't removed yet
+		for (String worldName : new ArrayList<>(mFrozen)) {
+			if (Files.isDirectory(Paths.get(worldName))) {
+				try {
+					Files.deleteIfExists(archiveFile(worldName));
+					Files.deleteIfExists(remoteMarker(worldName));
+					deleteReferences(worldName);
+					mFrozen.remove(worldName);
+				} catch (IOException ex) {
+					MMLog.warning("Failed to remove archive of restored world " + worldName + ": " + ex.getMessage());
+				}
+			}
+		}
+
+		if (!Files.isDirectory(mStaging)) {
+			return;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(mStaging)) {
+			for (Path entry : stream) {
+				String name = entry.getFileName().toString();
+				if (name.endsWith(RESTORING_SUFFIX) || name.endsWith(DOWNLOAD_SUFFIX)) {
+					// The archive is still there to restore from
+					WorldManagementPlugin.getWorldTrash().moveToTrash(entry, WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE));
+				} else if (mFrozen.contains(name)) {
+					MMLog.info("Finishing interrupted move of world " + name + " to cold storage");
+					WorldManagementPlugin.getWorldTrash().moveToTrash(entry, WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.ARCHIVE));
+				} else if (!Files.exists(Paths.get(name))) {
+					MMLog.info("Putting back world " + name + " whose move to cold storage was interrupted");
+					// Blocks startup, but only after a crash part way through dehydrating a world
+					WorldDelta.materialize(entry, mContentStore, null);
+					Files.move(entry, Paths.get(name), StandardCopyOption.ATOMIC_MOVE);
+					deleteReferences(name);
+				} else {
+					MMLog.warning("Leaving '" + entry + "' in cold storage staging, as world " + name + " exists again");
+				}
+			}
+		} catch (IOException ex) {
+			MMLog.severe("Failed to recover cold storage staging folder '" + mStaging + "': " + ex.getMessage());
+		}
+	}
+
+	private Path archiveFile(String worldName) {
+		return mFolder.resolve(worldName + ARCHIVE_SUFFIX);
+	}
+
+	private Path remoteMarker(String worldName) {
+		return mFolder.resolve(worldName + REMOTE_SUFFIX);
+	}
+
+	private Path referencesFolder(String worldName) {
+		return mFolder.resolve(REFERENCES_FOLDER).resolve(worldName);
+	}
+}
@@ -0,0 +1,201 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.utils.TimingWheel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Unloads worlds that have had no players for unload-inactive-world-after-ticks.
+ * <p>
+ * Rather than polling every world, the listener reports when worlds become empty or occupied, and each empty world's
+ * unload deadline is held in a timing wheel. The periodic task only looks at worlds whose deadlines have passed.
+ * <p>
+ * Empty worlds are also kept in least-recently-used order. If heap use, loaded chunks or loaded worlds cross their
+ * configured eviction watermarks, the coldest empty worlds are unloaded early, before their idle deadline.
+ * <p>
+ * Everything here runs on the main thread.
+ */
+public class IdleWorldTracker {
+	// How often deadlines are checked, and therefore how precise unload timing is
+	private static final long RESOLUTION_TICKS = 20;
+	// How often eviction watermarks are checked
+	private static final long EVICTION_CHECK_TICKS = 100;
+
+	private final WorldManagementPlugin mPlugin;
+	private final int mUnloadAfterTicks;
+	private final TimingWheel<UUID> mDeadlines;
+	// Empty worlds and the tick they became empty, least recently used first
+	private final LinkedHashMap<UUID, Long> mEmptySince = new LinkedHashMap<>();
+	private final BukkitTask mTask;
+	private long mNow = 0;
+
+	/**
+	 * @param unloadAfterTicks Ticks without players after which a world is unloaded; <= 0 to only unload worlds by eviction
+	 */
+	protected IdleWorldTracker(WorldManagementPlugin plugin, int unloadAfterTicks) {
+		mPlugin = plugin;
+		mUnloadAfterTicks = unloadAfterTicks;
+		mDeadlines = new TimingWheel<>(RESOLUTION_TICKS, Math.max(unloadAfterTicks, RESOLUTION_TICKS), mNow);
+
+		// Pick up worlds that are already empty
+		List<World> worlds = Bukkit.getWorlds();
+		for (int i = 1; i < worlds.size(); i++) { // Ignore the primary world
+			refresh(worlds.get(i));
+		}
+
+		mTask = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, RESOLUTION_TICKS, RESOLUTION_TICKS);
+	}
+
+	public void cancel() {
+		mTask.cancel();
+	}
+
+	/**
+	 * Starts or stops the world's idle countdown depending on whether it currently has players.
+	 */
+	public void refresh(@Nullable World world) {
+		if (world == null || isPrimaryWorld(world)) {
+			return;
+		}
+		UUID worldId = world.getUID();
+		if (world.getPlayers().isEmpty()) {
+			if (!mEmptySince.containsKey(worldId)) {
+				mEmptySince.put(worldId, mNow);
+				if (mUnloadAfterTicks > 0) {
+					mDeadlines.schedule(worldId, mNow + mUnloadAfterTicks);
+				}
+			}
+		} else {
+			mEmptySince.remove(worldId);
+			mDeadlines.cancel(worldId);
+		}
+	}
+
+	public void forget(World world) {
+		mEmptySince.remove(world.getUID());
+		mDeadlines.cancel(world.getUID());
+	}
+
+	private void tick() {
+		mNow += RESOLUTION_TICKS;
+		mDeadlines.advance(mNow, this::expire);
+		if (mNow % EVICTION_CHECK_TICKS == 0 && WorldManagementPlugin.isEvictionEnabled()) {
+			evictIfUnderPressure();
+		}
+	}
+
+	private void expire(UUID worldId) {
+		World world = Bukkit.getWorld(worldId);
+		if (world == null) {
+			mEmptySince.remove(worldId);
+			return;
+		}
+		if (isUnloadable(world)) {
+			unload(world, "which has had no players for " + mUnloadAfterTicks + " ticks");
+		}
+	}
+
+	/**
+	 * Unloads the least recently used empty worlds while any eviction watermark is exceeded.
+	 */
+	private void evictIfUnderPressure() {
+		String pressure = getPressure();
+		if (pressure == null) {
+			return;
+		}
+
+		WorldUnloader unloader = mPlugin.getWorldUnloader();
+		int evicted = 0;
+		Iterator<Map.Entry<UUID, Long>> iter = mEmptySince.entrySet().iterator();
+		while (iter.hasNext() && evicted < WorldManagementPlugin.getEvictionMaxPerCheck()) {
+			Map.Entry<UUID, Long> entry = iter.next();
+			if (mNow - entry.getValue() < WorldManagementPlugin.getEvictionMinIdleTicks()) {
+				// Everything after this was emptied even more recently
+				break;
+			}
+			World world = Bukkit.getWorld(entry.getKey());
+			if (world == null) {
+				iter.remove();
+				continue;
+			}
+			if (!isUnloadable(world) || unloader.isUnloading(world)) {
+				continue;
+			}
+			unload(world, "to relieve " + pressure + " (empty for " + (mNow - entry.getValue()) + " ticks)");
+			evicted++;
+		}
+	}
+
+	/**
+	 * Returns a description of which eviction watermark is exceeded, or null if none are.
+	 */
+	private static @Nullable String getPressure() {
+		double heapWatermark = WorldManagementPlugin.getEvictionHeapHighWatermark();
+		if (heapWatermark > 0) {
+			Runtime runtime = Runtime.getRuntime();
+			double heapUsed = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+			if (heapUsed > heapWatermark) {
+				return String.format("heap usage %.0f%%", 100 * heapUsed);
+			}
+		}
+
+		List<World> worlds = Bukkit.getWorlds();
+		int worldWatermark = WorldManagementPlugin.getEvictionLoadedWorldsHighWatermark();
+		if (worldWatermark > 0 && worlds.size() > worldWatermark) {
+			return worlds.size() + " loaded worlds";
+		}
+
+		int chunkWatermark = WorldManagementPlugin.getEvictionLoadedChunksHighWatermark();
+		if (chunkWatermark > 0) {
+			int loadedChunks = 0;
+			for (World world : worlds) {
+				loadedChunks += world.getChunkCount();
+			}
+			if (loadedChunks > chunkWatermark) {
+				return loadedChunks + " loaded chunks";
+			}
+		}
+
+		return null;
+	}
+
+	private boolean isUnloadable(World world) {
+		if (isPrimaryWorld(world)) {
+			return false;
+		}
+		if (!world.getPlayers().isEmpty()) {
+			// A player arrived without an event we track; the countdown restarts once they leave
+			mEmptySince.remove(world.getUID());
+			return false;
+		}
+		return true;
+	}
+
+	private void unload(World world, String reason) {
+		UUID worldId = world.getUID();
+		String worldName = world.getName();
+		MMLog.info("Unloading world '" + worldName + "' " + reason);
+		MonumentaWorldManagementAPI.unloadWorld(worldName).whenComplete((unused, ex) -> {
+			if (ex != null) {
+				MMLog.warning("Failed to unload world '" + worldName + "': " + ex.getMessage());
+				// Try again later if it is still empty
+				mEmptySince.remove(worldId);
+				refresh(Bukkit.getWorld(worldId));
+			} else {
+				MMLog.info("Unloaded world " + worldName);
+			}
+		});
+	}
+
+	private static boolean isPrimaryWorld(World world) {
+		return Bukkit.getWorlds().get(0).equals(world);
+	}
+}
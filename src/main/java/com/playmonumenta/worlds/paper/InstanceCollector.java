@@ -0,0 +1,298 @@
+package com.playmonumenta.worlds.paper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.playmonumenta.worlds.common.MMLog;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.Objective;
+import org.bukkit.scoreboard.Score;
+import org.bukkit.scoreboard.Scoreboard;
+
+/**
+ * Deletes or archives instance worlds that no player's instance-objective score points at any more.
+ * <p>
+ * An instance is referenced while any entry on the main scoreboard has its score, and for instance-gc.retention-days
+ * after a player with that score was last saved. Player saves are when the score is written to RedisSync player data,
+ * and offline players' data can't be listed from here, so the time each instance was last referenced is remembered in
+ * the plugin data folder instead. An instance with no recorded reference - one that existed before collection was
+ * enabled, or whose owners have only been seen on other shards - counts as referenced when it is first seen, so it gets
+ * the full retention period before it can be collected. Its level.dat modification time isn't enough on its own, as
+ * copies keep the template's modification times.
+ * <p>
+ * Instances that are unreferenced, not loaded, and whose level.dat hasn't been written to for the retention period are
+ * collected in batches of instance-gc.max-per-run, only while the server is idle and within the off-peak hours.
+ * Collected instances are renamed into the trash or into {@link ColdStorage}; the rename is done on the main thread so
+ * a player can't start loading the world between the last check and the move. Archived instances are restored if
+ * anyone returns to them.
+ */
+public class InstanceCollector {
+	public enum Action {
+		DELETE,
+		ARCHIVE,
+	}
+
+	private static final String REFERENCES_FILE = "instance_references.json";
+	private static final int FORMAT_VERSION = 1;
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	private final WorldManagementPlugin mPlugin;
+	private final File mFile;
+	// Held while snapshotting and writing, so saves land in order
+	private final Object mSaveLock = new Object();
+	// Instance name to the last time it was referenced; guarded by this
+	private final Map<String, Long> mLastReferenced = new HashMap<>();
+	private @Nullable BukkitTask mTask = null;
+	private boolean mRunning = false;
+
+	protected InstanceCollector(WorldManagementPlugin plugin) {
+		mPlugin = plugin;
+		mFile = new File(plugin.getDataFolder(), REFERENCES_FILE);
+		load();
+	}
+
+	public void reloadConfig() {
+		if (mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+		if (WorldManagementPlugin.isInstanceGcEnabled()) {
+			long intervalTicks = Math.max(1, WorldManagementPlugin.getInstanceGcIntervalMinutes()) * 60L * 20L;
+			mTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::run, intervalTicks, intervalTicks);
+		}
+	}
+
+	public void cancel() {
+		if (mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+
+	/**
+	 * Records that a player currently has the score pointing at worldName.
+	 */
+	public synchronized void recordReference(String worldName) {
+		mLastReferenced.put(worldName, System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts a collection run if the server is idle and within off-peak hours. Must be called on the main thread.
+	 */
+	public void run() {
+		if (mRunning || WorldManagementPlugin.getServerLoad() != ServerLoadMonitor.Load.IDLE || !isOffPeak()) {
+			return;
+		}
+
+		Set<String> live = liveInstances();
+		List<String> candidates = new ArrayList<>();
+		for (String worldName : mPlugin.getWorldFolderIndex().toArray()) {
+			if (isInstanceName(worldName) && !live.contains(worldName) && Bukkit.getWorld(worldName) == null) {
+				candidates.add(worldName);
+			}
+		}
+		long now = System.currentTimeMillis();
+		boolean firstSeen = false;
+		synchronized (this) {
+			for (String worldName : live) {
+				mLastReferenced.put(worldName, now);
+			}
+			for (String worldName : candidates) {
+				if (mLastReferenced.putIfAbsent(worldName, now) == null) {
+					firstSeen = true;
+				}
+			}
+		}
+		if (firstSeen) {
+			// Remembered, so the retention period isn't restarted by the next restart
+			Bukkit.getScheduler().runTaskAsynchronously(mPlugin, this::save);
+		}
+		if (candidates.isEmpty()) {
+			return;
+		}
+
+		mRunning = true;
+		long cutoff = now - WorldManagementPlugin.getInstanceGcRetentionDays() * MILLIS_PER_DAY;
+		Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> {
+			List<String> expired = new ArrayList<>();
+			for (String worldName : candidates) {
+				if (expired.size() >= WorldManagementPlugin.getInstanceGcMaxPerRun()) {
+					break;
+				}
+				if (isExpired(worldName, cutoff)) {
+					expired.add(worldName);
+				}
+			}
+			Bukkit.getScheduler().runTask(mPlugin, () -> collect(expired, cutoff));
+		});
+	}
+
+	private void collect(List<String> expired, long cutoff) {
+		try {
+			Set<String> live = liveInstances();
+			Action action = WorldManagementPlugin.getInstanceGcAction();
+			int collected = 0;
+			for (String worldName : expired) {
+				// Anything could have changed while the folders were being checked
+				if (live.contains(worldName) || Bukkit.getWorld(worldName) != null || wasReferencedSince(worldName, cutoff)
+					|| MonumentaWorldManagementAPI.isLoadPending(worldName) || !mPlugin.getWorldFolderIndex().contains(worldName)) {
+					continue;
+				}
+				if (action == Action.ARCHIVE) {
+					// Packed in the background; the folder is out of the way as soon as this returns
+					mPlugin.getColdStorage().freeze(worldName).whenComplete((unused, ex) -> {
+						if (ex != null) {
+							MMLog.warning("Failed to archive abandoned instance " + worldName + ": " + ex.getMessage());
+						}
+					});
+				} else {
+					// Only the rename happens here on the main thread; a recursive delete would stall the server
+					try {
+						if (!WorldManagementPlugin.getWorldTrash().tryMoveToTrash(Paths.get(worldName))) {
+							MMLog.warning("Skipping abandoned instance " + worldName + ", which can't be moved to the trash atomically");
+							continue;
+						}
+					} catch (IOException ex) {
+						MMLog.warning("Failed to collect abandoned instance " + worldName + ": " + ex.getMessage());
+						continue;
+					}
+					mPlugin.getWorldFolderIndex().remove(worldName);
+				}
+				synchronized (this) {
+					mLastReferenced.remove(worldName);
+				}
+				collected++;
+				MMLog.info((action == Action.ARCHIVE ? "Archived" : "Deleted") + " abandoned instance " + worldName);
+			}
+			if (collected > 0) {
+				Bukkit.getScheduler().runTaskAsynchronously(mPlugin, this::save);
+			}
+		} finally {
+			mRunning = false;
+		}
+	}
+
+	/**
+	 * Whether worldName was last referenced before cutoff and hasn't been written to since. Uses file I/O.
+	 */
+	private boolean isExpired(String worldName, long cutoff) {
+		if (wasReferencedSince(worldName, cutoff)) {
+			return false;
+		}
+		try {
+			return Files.getLastModifiedTime(Paths.get(worldName, "level.dat")).toMillis() < cutoff;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Whether worldName was referenced since cutoff. Instances with no recorded reference haven't been seen by
+	 * {@link #run()} yet, and count as referenced now.
+	 */
+	private synchronized boolean wasReferencedSince(String worldName, long cutoff) {
+		Long lastReferenced = mLastReferenced.get(worldName);
+		return lastReferenced == null || lastReferenced >= cutoff;
+	}
+
+	/**
+	 * Instance names pointed at by any score on the main scoreboard. Must be called on the main thread.
+	 */
+	protected static Set<String> liveInstances() {
+		Set<String> live = new HashSet<>();
+		Scoreboard scoreboard = Bukkit.getScoreboardManager().getMainScoreboard();
+		for (ShardInfo info : WorldManagementPlugin.getShardInfos()) {
+			if (info.getInstanceObjective().isEmpty()) {
+				continue;
+			}
+			Objective objective = scoreboard.getObjective(info.getInstanceObjective());
+			if (objective == null) {
+				continue;
+			}
+			for (String entry : scoreboard.getEntries()) {
+				Score score = objective.getScore(entry);
+				if (score.isScoreSet() && score.getScore() > 0) {
+					live.add(info.getBaseWorldName() + score.getScore());
+				}
+			}
+		}
+		return live;
+	}
+
+	protected static boolean isInstanceName(String worldName) {
+		for (ShardInfo info : WorldManagementPlugin.getShardInfos()) {
+			if (info.isInstanceName(worldName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isOffPeak() {
+		List<Integer> hours = WorldManagementPlugin.getInstanceGcOffPeakHours();
+		return hours.isEmpty() || hours.contains(LocalTime.now().getHour());
+	}
+
+	private synchronized void load() {
+		if (!mFile.isFile()) {
+			return;
+		}
+		try (Reader reader = Files.newBufferedReader(mFile.toPath(), StandardCharsets.UTF_8)) {
+			JsonObject root = new Gson().fromJson(reader, JsonObject.class);
+			if (root == null || !root.has("version") || root.get("version").getAsInt() != FORMAT_VERSION) {
+				MMLog.warning("Ignoring " + mFile + " with unknown format version");
+				return;
+			}
+			mLastReferenced.clear();
+			for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("instances").entrySet()) {
+				mLastReferenced.put(entry.getKey(), entry.getValue().getAsLong());
+			}
+		} catch (Exception ex) {
+			MMLog.severe("Failed to load " + mFile + ": " + ex.getMessage());
+		}
+	}
+
+	public void save() {
+		synchronized (mSaveLock) {
+			JsonObject root = new JsonObject();
+			synchronized (this) {
+				JsonObject instancesJson = new JsonObject();
+				for (Map.Entry<String, Long> entry : mLastReferenced.entrySet()) {
+					instancesJson.addProperty(entry.getKey(), entry.getValue());
+				}
+				root.addProperty("version", FORMAT_VERSION);
+				root.add("instances", instancesJson);
+			}
+
+			Path target = mFile.toPath();
+			Path temp = target.resolveSibling(REFERENCES_FILE + ".tmp");
+			try {
+				Files.createDirectories(target.getParent());
+				try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+					new Gson().toJson(root, writer);
+				}
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException ex) {
+				MMLog.severe("Failed to save " + mFile + ": " + ex.getMessage());
+			}
+		}
+	}
+}
@@ -1,21 +1,19 @@
 package com.playmonumenta.worlds.paper;
 
 import com.playmonumenta.redissync.MonumentaRedisSyncAPI;
+import com.playmonumenta.worlds.common.MMLog;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.bukkit.Bukkit;
-import org.bukkit.Chunk;
 import org.bukkit.World;
 import org.bukkit.World.Environment;
 import org.bukkit.WorldCreator;
@@ -24,18 +22,14 @@ import org.bukkit.entity.Player;
 
 public class MonumentaWorldManagementAPI {
 
-	private static String[] AVAILABLE_WORLDS_CACHE = new String[0];
+	// Loads started by ensureWorldLoadedAsync that haven't finished yet; only accessed on the main thread
+	private static final Map<String, CompletableFuture<World>> IN_FLIGHT_LOADS = new HashMap<>();
 
 	/**
-	 * Checks whether the named world exists and could be loaded, using the cache. Fast and suitable for main thread.
+	 * Checks whether the named world exists and could be loaded, using the cache. Fast and safe from any thread.
 	 */
 	public static boolean isCachedWorldAvailable(String worldName) {
-		for (String name : AVAILABLE_WORLDS_CACHE) {
-			if (name.equals(worldName)) {
-				return true;
-			}
-		}
-		return false;
+		return WorldManagementPlugin.getInstance().getWorldFolderIndex().contains(worldName);
 	}
 
 	/**
@@ -50,10 +44,13 @@ public class MonumentaWorldManagementAPI {
 	}
 
 	/**
-	 * Gets a list of all the named world folders from the cache. Fast and suitable for main thread.
+	 * Gets a list of all the named world folders from the cache. Safe from any thread.
+	 * <p>
+	 * The cache is kept up to date by watching the world container, so this is only briefly out of date.
+	 * Builds a new array each call - use {@link #isCachedWorldAvailable(String)} to check for a single world.
 	 */
 	public static String[] getCachedAvailableWorlds() {
-		return AVAILABLE_WORLDS_CACHE;
+		return WorldManagementPlugin.getInstance().getWorldFolderIndex().toArray();
 	}
 
 	/**
@@ -61,22 +58,16 @@ public class MonumentaWorldManagementAPI {
 	 * <p>
 	 * Note that this uses file I/O and so will be slow - recommend calling this only from an async thread
 	 * <p>
-	 * Updates the available worlds cache, but may take a tick or two before the cache is updated
+	 * Updates the available worlds cache immediately
 	 */
 	public static String[] getAvailableWorlds() {
-		File root = new File(".");
-		String[] directories = root.list((current, name) -> {
-			File test = new File(current, name);
-			// File is a directory - and contains level.dat
-			return test.isDirectory() && new File(test, "level.dat").isFile();
-		});
-		Bukkit.getScheduler().runTask(WorldManagementPlugin.getInstance(), () -> AVAILABLE_WORLDS_CACHE = directories);
-		return directories;
+		return WorldManagementPlugin.getInstance().getWorldFolderIndex().rescan().toArray(new String[0]);
 	}
 
 	/**
 	 * Refreshes the available worlds cache async. Can be called async or sync, does its work async
-	 * Note that the cache may not be updated for several ticks!
+	 * <p>
+	 * Rarely needed, as the cache is kept up to date by watching the world container
 	 */
 	public static void refreshCachedAvailableWorlds() {
 		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), MonumentaWorldManagementAPI::getAvailableWorlds);
@@ -118,6 +109,18 @@ public class MonumentaWorldManagementAPI {
 	 * If world already exists but is not loaded, will load that world (slow, maybe a few ticks on good hardware)
 	 * If world does not exist and templateName is not null, will rename a pregenerated world to that name and load it
 	 * <p>
+	 * If world is in cold storage, throws {@link WorldNotReadyException} without blocking; its future completes once the
+	 * world has been restored
+	 * <p>
+	 * If no pregenerated world is available, throws {@link WorldNotReadyException} without blocking; the world is
+	 * then queued to be created from the next generated instance, and its future completes when it can be loaded
+	 * <p>
+	 * If max-world-loads-per-tick worlds have already been loaded this tick, also throws {@link WorldNotReadyException};
+	 * the world is then queued to be loaded on a later tick, and its future completes once it has been
+	 * <p>
+	 * If the world is already being loaded by {@link #ensureWorldLoadedAsync(String, String)}, also throws
+	 * {@link WorldNotReadyException}, whose future completes along with that load
+	 * <p>
 	 * Must be called from the main thread
 	 */
 	public static World ensureWorldLoaded(String worldName, @Nullable String templateName) throws Exception {
@@ -137,6 +140,13 @@ public class MonumentaWorldManagementAPI {
 
 		logger.fine("ensureWorldLoaded world not loaded: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
 
+		/* Never claim or load a world a second time while ensureWorldLoadedAsync is already doing it */
+		CompletableFuture<World> inFlight = IN_FLIGHT_LOADS.get(worldName);
+		if (inFlight != null) {
+			logger.fine("ensureWorldLoaded joining in-flight load: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
+			throw new WorldNotReadyException("World " + worldName + " is already being loaded", worldName, inFlight.thenApply((world) -> null));
+		}
+
 		//TODO Check redis to make sure world isn't loaded or created elsewhere
 
 		/* Copy world if it doesn't exist */
@@ -144,24 +154,162 @@ public class MonumentaWorldManagementAPI {
 		if (worldFolder.isDirectory()) {
 			logger.fine("ensureWorldLoaded folder exists: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
 		} else {
+			/* Restore from cold storage if it was archived - this takes a while, so never block on it */
+			ColdStorage coldStorage = plugin.getColdStorage();
+			if (coldStorage.isFrozen(worldName)) {
+				CompletableFuture<Void> restored = coldStorage.restore(worldName);
+				logger.fine("ensureWorldLoaded restoring from cold storage: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
+				throw new WorldNotReadyException("World " + worldName + " is being restored from cold storage", worldName, restored);
+			}
+
 			/* Not allowed to create so return null */
 			if (templateName == null) {
 				throw new Exception("World '" + worldName + "' does not exist and templateName is null");
 			}
 
-			/* Create the world using a pregenerated instance - if none are available, throw an exception */
+			/* Create the world using a pregenerated instance - if none are available, throw WorldNotReadyException */
 			plugin.getWorldGenerator().getWorldInstance(worldName, templateName);
 
-			AVAILABLE_WORLDS_CACHE = Arrays.copyOf(AVAILABLE_WORLDS_CACHE, AVAILABLE_WORLDS_CACHE.length + 1);
-			AVAILABLE_WORLDS_CACHE[AVAILABLE_WORLDS_CACHE.length - 1] = worldName;
+			addCachedAvailableWorld(worldName);
 
 			logger.fine("ensureWorldLoaded created new: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
 		}
 
-		logger.fine("ensureWorldLoaded sync loadworld: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
-		newWorld = new WorldCreator(worldName).type(WorldType.NORMAL).generateStructures(false).environment(Environment.NORMAL).createWorld();
+		WorldLoadQueue loadQueue = plugin.getWorldLoadQueue();
+		if (!loadQueue.tryAdmit()) {
+			/* Too many worlds loading this tick - queue it rather than stalling the server */
+			CompletableFuture<Void> loaded = loadQueue.load(worldName).thenApply((world) -> null);
+			logger.fine("ensureWorldLoaded queued load: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
+			throw new WorldNotReadyException("Too many worlds are loading right now; " + worldName + " is queued to load", worldName, loaded);
+		}
+
+		return loadWorldFolder(worldName);
+	}
 
-		logger.fine("ensureWorldLoaded loaded world: worldName=" + worldName + " templateName=" + templateName + " thread=" + Thread.currentThread().getName());
+	/**
+	 * Gets the specified world, loading and optionally creating it if needed, without blocking the main thread.
+	 * <p>
+	 * Behaves like {@link #ensureWorldLoaded(String, String)}, except that checking for the world folder and claiming
+	 * a pregenerated instance happen on an async thread, and only loading the world itself happens on the main thread.
+	 * If no pregenerated instance is available, the future completes once one has been generated. Loading the world
+	 * goes through the world load queue, so the future may complete a few ticks later when many worlds are loading.
+	 * <p>
+	 * Requests for a world that is already being loaded share the same future, so the work is only done once.
+	 * <p>
+	 * Must be called from the main thread. The future is completed on the main thread.
+	 */
+	public static CompletableFuture<World> ensureWorldLoadedAsync(String worldName, @Nullable String templateName) {
+		World world = Bukkit.getWorld(worldName);
+		if (world != null) {
+			return CompletableFuture.completedFuture(world);
+		}
+
+		CompletableFuture<World> inFlight = IN_FLIGHT_LOADS.get(worldName);
+		if (inFlight != null) {
+			MMLog.fine("ensureWorldLoadedAsync joining in-flight load: worldName=" + worldName);
+			return inFlight;
+		}
+
+		WorldManagementPlugin plugin = WorldManagementPlugin.getInstance();
+		CompletableFuture<World> future = new CompletableFuture<>();
+		IN_FLIGHT_LOADS.put(worldName, future);
+		future.whenComplete((unused, ex) -> IN_FLIGHT_LOADS.remove(worldName, future));
+		MMLog.fine("ensureWorldLoadedAsync enter: worldName=" + worldName + " templateName=" + templateName);
+
+		Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+			if (isWorldAvailable(worldName)) {
+				finishAsyncLoad(worldName, future, null);
+			} else if (plugin.getColdStorage().isFrozen(worldName)) {
+				Bukkit.getScheduler().runTask(plugin, () ->
+					plugin.getColdStorage().restore(worldName).whenComplete((unused, ex) ->
+						finishAsyncLoad(worldName, future, ex)));
+			} else if (templateName == null) {
+				finishAsyncLoad(worldName, future, new Exception("World '" + worldName + "' does not exist and templateName is null"));
+			} else {
+				plugin.getWorldGenerator().claimWorldInstance(worldName, templateName).whenComplete((unused, ex) ->
+					finishAsyncLoad(worldName, future, ex));
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Completes an ensureWorldLoadedAsync request on the main thread once its world folder is ready (or failed to be).
+	 */
+	private static void finishAsyncLoad(String worldName, CompletableFuture<World> future, @Nullable Throwable failure) {
+		Runnable finish = () -> {
+			if (failure != null) {
+				future.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+				return;
+			}
+			addCachedAvailableWorld(worldName);
+			World loadedWorld = Bukkit.getWorld(worldName);
+			if (loadedWorld != null) {
+				future.complete(loadedWorld);
+				return;
+			}
+			WorldLoadQueue loadQueue = WorldManagementPlugin.getInstance().getWorldLoadQueue();
+			if (!loadQueue.tryAdmit()) {
+				loadQueue.load(worldName).whenComplete((world, loadEx) -> {
+					if (loadEx != null) {
+						future.completeExceptionally(loadEx);
+					} else {
+						future.complete(world);
+					}
+				});
+				return;
+			}
+			try {
+				future.complete(loadWorldFolder(worldName));
+			} catch (WorldNotReadyException notReadyEx) {
+				notReadyEx.getReadyFuture().whenComplete((unused, readyEx) -> finishAsyncLoad(worldName, future, readyEx));
+			} catch (Exception loadEx) {
+				future.completeExceptionally(loadEx);
+			}
+		};
+		if (Bukkit.isPrimaryThread()) {
+			finish.run();
+		} else {
+			Bukkit.getScheduler().runTask(WorldManagementPlugin.getInstance(), finish);
+		}
+	}
+
+	/**
+	 * Whether anything is about to load worldName: an {@link #ensureWorldLoadedAsync(String, String)} request, a queued
+	 * load, a claim waiting for a pregenerated instance, or a player parked until it is ready. Its folder must not be
+	 * moved away while this is true.
+	 * <p>
+	 * Must be called from the main thread
+	 */
+	protected static boolean isLoadPending(String worldName) {
+		WorldManagementPlugin plugin = WorldManagementPlugin.getInstance();
+		return IN_FLIGHT_LOADS.containsKey(worldName)
+			|| plugin.getWorldLoadQueue().isQueued(worldName)
+			|| plugin.getWorldGenerator().hasPendingClaim(worldName)
+			|| plugin.getListener().isParkedFor(worldName);
+	}
+
+	/**
+	 * Loads an existing world folder, bypassing the world load queue. Must be called from the main thread
+	 * <p>
+	 * If the folder is missing, throws {@link WorldNotReadyException} rather than letting the server generate a new
+	 * world under its name; its future completes once the world is restored from cold storage, or fails if it isn't
+	 * there either
+	 */
+	protected static World loadWorldFolder(String worldName) throws Exception {
+		if (!new File(worldName).isDirectory()) {
+			ColdStorage coldStorage = WorldManagementPlugin.getInstance().getColdStorage();
+			if (coldStorage.isFrozen(worldName)) {
+				throw new WorldNotReadyException("World " + worldName + " is being restored from cold storage", worldName, coldStorage.restore(worldName));
+			}
+			throw new WorldNotReadyException("World " + worldName + " was moved before it could be loaded", worldName,
+				CompletableFuture.failedFuture(new Exception("World '" + worldName + "' no longer exists")));
+		}
+		MMLog.fine("ensureWorldLoaded sync loadworld: worldName=" + worldName + " thread=" + Thread.currentThread().getName());
+		World newWorld = new WorldCreator(worldName).type(WorldType.NORMAL).generateStructures(false).environment(Environment.NORMAL).createWorld();
+
+		MMLog.fine("ensureWorldLoaded loaded world: worldName=" + worldName + " thread=" + Thread.currentThread().getName());
 
 		if (newWorld == null) {
 			throw new Exception("Failed to create world '" + worldName + "' - world is somehow null after creating which should never happen");
@@ -169,6 +317,21 @@ public class MonumentaWorldManagementAPI {
 		return newWorld;
 	}
 
+	/**
+	 * Adds a newly created world to the available worlds cache without waiting for the watcher to notice it
+	 */
+	private static void addCachedAvailableWorld(String worldName) {
+		WorldManagementPlugin.getInstance().getWorldFolderIndex().add(worldName);
+	}
+
+	/**
+	 * Unloads a world, saving it first.
+	 * <p>
+	 * The world's chunks are saved and unloaded over several ticks within unload-tick-budget-ms per tick, shared with
+	 * any other worlds being unloaded. The future completes on the main thread once the world is fully unloaded.
+	 * <p>
+	 * Must be called from the main thread
+	 */
 	public static CompletableFuture<Void> unloadWorld(String worldName) {
 		CompletableFuture<Void> future = new CompletableFuture<>();
 
@@ -190,20 +353,8 @@ public class MonumentaWorldManagementAPI {
 			return future;
 		}
 
-		world.setKeepSpawnInMemory(false);
-		for (Chunk chunk : world.getLoadedChunks()) {
-			world.unloadChunkRequest(chunk.getX(), chunk.getZ());
-		}
-
-		if (Bukkit.unloadWorld(world, true)) {
-			// Success!
-			future.complete(null);
-		} else {
-			// Nope
-			future.completeExceptionally(new Exception("Unloading world '" + worldName + "' failed, unknown reason"));
-		}
-
-		return future;
+		// Chunks are saved and unloaded over several ticks; the future completes once the world is gone
+		return WorldManagementPlugin.getInstance().getWorldUnloader().unload(world);
 	}
 
 	/**
@@ -236,14 +387,9 @@ public class MonumentaWorldManagementAPI {
 		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), () -> {
 			try {
 				// Copy and wait for completion
-				Process process = Runtime.getRuntime().exec(WorldManagementPlugin.getCopyWorldCommand() + " " + fromWorldName + " " + newWorldName);
-				int exitVal = process.waitFor();
-
-				if (exitVal != 0) {
-					throw new Exception("Failed to copy world '" + fromWorldName + "' to '" + newWorldName + "': " + exitVal);
-				}
+				WorldGenerator.copyWorldFolder(fromWorldName, newWorldName, false);
 
-				getAvailableWorlds(); // Update the cache
+				addCachedAvailableWorld(newWorldName); // Update the cache
 
 				Bukkit.getScheduler().runTask(WorldManagementPlugin.getInstance(), () -> future.complete(null));
 			} catch (Exception ex) {
@@ -263,6 +409,9 @@ public class MonumentaWorldManagementAPI {
 	 * Checks that the world is actually a world (has a level.dat file), and will also
 	 * refuse to delete the folder if it contains more than one level of subfolder.
 	 * <p>
+	 * The world is moved to the trash, so its name can be reused as soon as the future completes. Its files are
+	 * deleted in the background afterwards.
+	 * <p>
 	 * Suggest using .whenComplete((unused, ex) -> your code) to do something on the main thread when done
 	 */
 	public static CompletableFuture<Void> deleteWorld(String worldName) {
@@ -281,32 +430,21 @@ public class MonumentaWorldManagementAPI {
 		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), () -> {
 			try {
 				// Make sure the folder's depth is appropriate for a world, and cancel if not so it doesn't delete something else
+				// Only needs to look one level past maxDepth, rather than walking the whole world
 				final int maxDepth = 2;
 				final Path rootPath = Paths.get(worldName);
 				final int rootPathDepth = rootPath.getNameCount();
-				try (Stream<Path> stream = Files.walk(rootPath)) {
+				try (Stream<Path> stream = Files.walk(rootPath, maxDepth + 1)) {
 					boolean tooManyLevels = stream.anyMatch((e) -> e.getNameCount() - rootPathDepth > maxDepth);
 					if (tooManyLevels) {
 						throw new Exception("Can't delete world '" + worldName + "' which has folder depth > " + maxDepth);
 					}
 				}
 
-				// Delete all files recursively but do **not** follow symbolic links
-				Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
-				   @Override
-				   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					   Files.delete(file);
-					   return FileVisitResult.CONTINUE;
-				   }
-
-				   @Override
-				   public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-					   Files.delete(dir);
-					   return FileVisitResult.CONTINUE;
-				   }
-				});
+				// Renaming frees the name immediately; the files are deleted in the background
+				WorldManagementPlugin.getWorldTrash().moveToTrash(rootPath);
 
-				getAvailableWorlds(); // Update the cache
+				WorldManagementPlugin.getInstance().getWorldFolderIndex().remove(worldName); // Update the cache
 
 				Bukkit.getScheduler().runTask(WorldManagementPlugin.getInstance(), () -> future.complete(null));
 			} catch (Exception ex) {
@@ -317,4 +455,33 @@ public class MonumentaWorldManagementAPI {
 
 		return future;
 	}
+
+	/**
+	 * Resets a finished instance of templateName back to the template and returns it to the pregenerated pool, instead
+	 * of deleting it and copying the whole template again later.
+	 * <p>
+	 * Only the files that differ from the template are copied. The instance's name is free to reuse as soon as this
+	 * returns; the future completes on the main thread once the instance is back in the pool. If resetting it fails,
+	 * the instance is moved back to worldName.
+	 * <p>
+	 * Fails without touching the world unless it is an instance copied from templateName that no player's score still
+	 * points at.
+	 * <p>
+	 * Requires copy-world-mode: builtin. Must be called from the main thread
+	 */
+	public static CompletableFuture<Void> recycleWorld(String worldName, String templateName) {
+		if (!isWorldAvailable(worldName)) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which either doesn't exist or is not a world"));
+			return future;
+		}
+
+		if (Bukkit.getWorld(worldName) != null) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which is loaded"));
+			return future;
+		}
+
+		return WorldManagementPlugin.getInstance().getWorldGenerator().recycleWorldInstance(worldName, templateName);
+	}
 }
@@ -0,0 +1,214 @@
+package com.playmonumenta.worlds.paper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.playmonumenta.worlds.common.MMLog;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Learned rate at which each template's instances are claimed, for each hour of the day, so pregenerated pools can be
+ * sized to match demand.
+ * <p>
+ * Claims are counted for the current hour. When the hour ends, its count is folded into that hour of the day's
+ * exponentially weighted moving average, so each hour of the day tracks the last few days of demand at that time.
+ * Hours the server was not running for are left out rather than counted as having no claims.
+ * <p>
+ * Persisted to the plugin data folder, so rates survive restarts. Writes go to a temporary file which is then
+ * atomically moved into place. Thread safe.
+ */
+public class PoolDemand {
+	private static class TemplateDemand {
+		// Smoothed claims per hour for each hour of the day; NaN until that hour has been observed
+		public final double[] mRates = new double[HOURS_PER_DAY];
+		public int mCurrentClaims = 0;
+
+		public TemplateDemand() {
+			Arrays.fill(mRates, Double.NaN);
+		}
+	}
+
+	private static final String DEMAND_FILE = "pool_demand.json";
+	private static final int FORMAT_VERSION = 1;
+	private static final int HOURS_PER_DAY = 24;
+	private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+	private final File mFile;
+	// Held while snapshotting and writing, so saves land in order
+	private final Object mSaveLock = new Object();
+	private final Map<String, TemplateDemand> mTemplates = new HashMap<>();
+	// Templates with a pool; each has an entry so hours without any claims are still folded in
+	private final Set<String> mPoolTemplates = new HashSet<>();
+	// Hours since the epoch of the hour claims are currently being counted for
+	private long mCurrentHour;
+
+	public PoolDemand(File dataFolder) {
+		mFile = new File(dataFolder, DEMAND_FILE);
+		mCurrentHour = System.currentTimeMillis() / MILLIS_PER_HOUR;
+	}
+
+	/**
+	 * Sets the templates that have a pool. Each is tracked from now on, so an hour with no claims counts as a rate of
+	 * zero instead of leaving no history.
+	 */
+	public synchronized void setPoolTemplates(Collection<String> templateNames) {
+		mPoolTemplates.clear();
+		mPoolTemplates.addAll(templateNames);
+		seedPoolTemplates();
+	}
+
+	public synchronized void recordClaim(String templateName) {
+		mTemplates.computeIfAbsent(templateName, (unused) -> new TemplateDemand()).mCurrentClaims++;
+	}
+
+	/**
+	 * Folds the current hour's claims into the averages if it has ended, with smoothing as the weight of the new hour.
+	 * Returns true if the hour changed.
+	 */
+	public synchronized boolean rollOver(long nowMillis, double smoothing) {
+		long hour = nowMillis / MILLIS_PER_HOUR;
+		if (hour == mCurrentHour) {
+			return false;
+		}
+		int hourOfDay = hourOfDay(mCurrentHour);
+		for (TemplateDemand demand : mTemplates.values()) {
+			if (hour == mCurrentHour + 1) {
+				// Only whole hours are folded in; after a gap the last hour was probably cut short
+				double rate = demand.mRates[hourOfDay];
+				demand.mRates[hourOfDay] = Double.isNaN(rate) ? demand.mCurrentClaims
+					: smoothing * demand.mCurrentClaims + (1 - smoothing) * rate;
+			}
+			demand.mCurrentClaims = 0;
+		}
+		mCurrentHour = hour;
+		return true;
+	}
+
+	/**
+	 * Expected claims per hour of templateName over the coming hour, or NaN if there is no history for this time of day.
+	 * <p>
+	 * Takes the higher of this hour and the next so pools fill ahead of a busy hour, and never less than the claims
+	 * already made this hour.
+	 */
+	public synchronized double predictedRate(String templateName, long nowMillis) {
+		TemplateDemand demand = mTemplates.get(templateName);
+		if (demand == null) {
+			return Double.NaN;
+		}
+		int hourOfDay = hourOfDay(nowMillis / MILLIS_PER_HOUR);
+		double thisHour = demand.mRates[hourOfDay];
+		double nextHour = demand.mRates[(hourOfDay + 1) % HOURS_PER_DAY];
+		double rate;
+		if (Double.isNaN(thisHour)) {
+			rate = nextHour;
+		} else if (Double.isNaN(nextHour)) {
+			rate = thisHour;
+		} else {
+			rate = Math.max(thisHour, nextHour);
+		}
+		if (Double.isNaN(rate)) {
+			return Double.NaN;
+		}
+		return Math.max(rate, demand.mCurrentClaims);
+	}
+
+	public synchronized void load() {
+		readFile();
+		seedPoolTemplates();
+	}
+
+	private void readFile() {
+		if (!mFile.isFile()) {
+			return;
+		}
+		try (Reader reader = Files.newBufferedReader(mFile.toPath(), StandardCharsets.UTF_8)) {
+			JsonObject root = new Gson().fromJson(reader, JsonObject.class);
+			if (root == null || !root.has("version") || root.get("version").getAsInt() != FORMAT_VERSION) {
+				MMLog.warning("Ignoring " + mFile + " with unknown format version");
+				return;
+			}
+			// Claims so far this hour are only kept if the server restarted within the same hour
+			boolean sameHour = root.get("current_hour").getAsLong() == mCurrentHour;
+			mTemplates.clear();
+			for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("templates").entrySet()) {
+				JsonObject templateJson = entry.getValue().getAsJsonObject();
+				TemplateDemand demand = new TemplateDemand();
+				JsonArray rates = templateJson.getAsJsonArray("rates");
+				for (int i = 0; i < HOURS_PER_DAY && i < rates.size(); i++) {
+					demand.mRates[i] = rates.get(i).isJsonNull() ? Double.NaN : rates.get(i).getAsDouble();
+				}
+				if (sameHour) {
+					demand.mCurrentClaims = templateJson.get("current_claims").getAsInt();
+				}
+				mTemplates.put(entry.getKey(), demand);
+			}
+		} catch (Exception ex) {
+			MMLog.severe("Failed to load " + mFile + ": " + ex.getMessage());
+		}
+	}
+
+	public void save() {
+		synchronized (mSaveLock) {
+			JsonObject root = new JsonObject();
+			synchronized (this) {
+				JsonObject templatesJson = new JsonObject();
+				for (Map.Entry<String, TemplateDemand> entry : mTemplates.entrySet()) {
+					TemplateDemand demand = entry.getValue();
+					JsonArray rates = new JsonArray();
+					for (double rate : demand.mRates) {
+						if (Double.isNaN(rate)) {
+							rates.add((JsonElement) null);
+						} else {
+							rates.add(rate);
+						}
+					}
+					JsonObject templateJson = new JsonObject();
+					templateJson.add("rates", rates);
+					templateJson.addProperty("current_claims", demand.mCurrentClaims);
+					templatesJson.add(entry.getKey(), templateJson);
+				}
+				root.addProperty("version", FORMAT_VERSION);
+				root.addProperty("current_hour", mCurrentHour);
+				root.add("templates", templatesJson);
+			}
+
+			Path target = mFile.toPath();
+			Path temp = target.resolveSibling(DEMAND_FILE + ".tmp");
+			try {
+				Files.createDirectories(target.getParent());
+				try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+					new Gson().toJson(root, writer);
+				}
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException ex) {
+				MMLog.severe("Failed to save " + mFile + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	private void seedPoolTemplates() {
+		for (String templateName : mPoolTemplates) {
+			mTemplates.computeIfAbsent(templateName, (unused) -> new TemplateDemand());
+		}
+	}
+
+	private static int hourOfDay(long epochHour) {
+		return Instant.ofEpochMilli(epochHour * MILLIS_PER_HOUR).atZone(ZoneId.systemDefault()).getHour();
+	}
+}
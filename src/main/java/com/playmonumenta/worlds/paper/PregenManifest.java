@@ -0,0 +1,128 @@
+package com.playmonumenta.worlds.paper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.playmonumenta.worlds.common.MMLog;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * On-disk record of the pregenerated world pool, so startup doesn't need to scan the whole world container for it.
+ * <p>
+ * For each template this records the template's level.dat modify time when the manifest was written (its version),
+ * the completed pool entries (up to date and outdated), and the entries that were still being generated.
+ * <p>
+ * Writes go to a temporary file which is then atomically moved into place, so a crash never leaves a partial manifest.
+ */
+public class PregenManifest {
+	public static class TemplateEntry {
+		public final long mTemplateTimestamp;
+		public final List<String> mPregenerated;
+		public final List<String> mOutdated;
+		public final List<String> mGenerating;
+
+		public TemplateEntry(long templateTimestamp, List<String> pregenerated, List<String> outdated, List<String> generating) {
+			mTemplateTimestamp = templateTimestamp;
+			mPregenerated = pregenerated;
+			mOutdated = outdated;
+			mGenerating = generating;
+		}
+	}
+
+	private static final String MANIFEST_FILE = "pregen_manifest.json";
+	private static final int FORMAT_VERSION = 1;
+
+	private final File mFile;
+
+	public PregenManifest(File dataFolder) {
+		mFile = new File(dataFolder, MANIFEST_FILE);
+	}
+
+	/**
+	 * Loads the manifest, returning null if there isn't a usable one.
+	 */
+	public @Nullable Map<String, TemplateEntry> load() {
+		if (!mFile.isFile()) {
+			return null;
+		}
+		try (Reader reader = Files.newBufferedReader(mFile.toPath(), StandardCharsets.UTF_8)) {
+			JsonObject root = new Gson().fromJson(reader, JsonObject.class);
+			if (root == null || !root.has("version") || root.get("version").getAsInt() != FORMAT_VERSION) {
+				MMLog.warning("Ignoring " + mFile + " with unknown format version");
+				return null;
+			}
+			Map<String, TemplateEntry> templates = new HashMap<>();
+			for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("templates").entrySet()) {
+				JsonObject template = entry.getValue().getAsJsonObject();
+				templates.put(entry.getKey(), new TemplateEntry(
+					template.get("template_timestamp").getAsLong(),
+					toList(template.getAsJsonArray("pregenerated")),
+					toList(template.getAsJsonArray("outdated")),
+					toList(template.getAsJsonArray("generating"))));
+			}
+			return templates;
+		} catch (Exception ex) {
+			MMLog.severe("Failed to load " + mFile + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	public void save(Map<String, TemplateEntry> templates) {
+		JsonObject templatesJson = new JsonObject();
+		for (Map.Entry<String, TemplateEntry> entry : templates.entrySet()) {
+			TemplateEntry template = entry.getValue();
+			JsonObject templateJson = new JsonObject();
+			templateJson.addProperty("template_timestamp", template.mTemplateTimestamp);
+			templateJson.add("pregenerated", toJson(template.mPregenerated));
+			templateJson.add("outdated", toJson(template.mOutdated));
+			templateJson.add("generating", toJson(template.mGenerating));
+			templatesJson.add(entry.getKey(), templateJson);
+		}
+		JsonObject root = new JsonObject();
+		root.addProperty("version", FORMAT_VERSION);
+		root.add("templates", templatesJson);
+
+		Path target = mFile.toPath();
+		Path temp = target.resolveSibling(MANIFEST_FILE + ".tmp");
+		try {
+			Files.createDirectories(target.getParent());
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				new Gson().toJson(root, writer);
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			MMLog.severe("Failed to save " + mFile + ": " + ex.getMessage());
+		}
+	}
+
+	private static List<String> toList(@Nullable JsonArray array) {
+		List<String> list = new ArrayList<>();
+		if (array != null) {
+			for (JsonElement element : array) {
+				list.add(element.getAsString());
+			}
+		}
+		return list;
+	}
+
+	private static JsonArray toJson(List<String> list) {
+		JsonArray array = new JsonArray();
+		for (String value : list) {
+			array.add(value);
+		}
+		return array;
+	}
+}
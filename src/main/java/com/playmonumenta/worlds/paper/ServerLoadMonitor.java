@@ -0,0 +1,110 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import java.util.ArrayDeque;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Tracks how busy the server is, so disk-heavy background work like pregeneration can stay out of its way.
+ * <p>
+ * Every second the average tick time, the joins in the last minute and the online player count are compared against
+ * the pregen-scheduling thresholds. Load rises as soon as any threshold is crossed, but only falls once the server has
+ * stayed below it for calm-seconds, so generation doesn't flap on and off. When load falls, pregeneration is
+ * rescheduled to catch up.
+ * <p>
+ * Sampling runs on the main thread; {@link #getLoad()} is safe from any thread.
+ */
+public class ServerLoadMonitor implements Listener {
+	public enum Load {
+		// Background work runs at full speed
+		IDLE,
+		// Background work is slowed down
+		BUSY,
+		// Background work is paused, except for emergencies
+		OVERLOADED,
+	}
+
+	private static final long SAMPLE_TICKS = 20;
+	private static final long JOIN_WINDOW_TICKS = 60 * 20;
+
+	// Tick of each join within the last JOIN_WINDOW_TICKS, oldest first
+	private final ArrayDeque<Integer> mJoinTicks = new ArrayDeque<>();
+	private final BukkitTask mTask;
+	private volatile Load mLoad = Load.IDLE;
+	// Consecutive samples measuring lower than the current load
+	private int mCalmSamples = 0;
+
+	protected ServerLoadMonitor(WorldManagementPlugin plugin) {
+		mTask = Bukkit.getScheduler().runTaskTimer(plugin, this::sample, SAMPLE_TICKS, SAMPLE_TICKS);
+	}
+
+	public void cancel() {
+		mTask.cancel();
+	}
+
+	public Load getLoad() {
+		return mLoad;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = false)
+	public void playerJoinEvent(PlayerJoinEvent event) {
+		mJoinTicks.addLast(Bukkit.getCurrentTick());
+	}
+
+	private void sample() {
+		double mspt = Bukkit.getAverageTickTime();
+		pruneJoins();
+		int joinsPerMinute = mJoinTicks.size();
+		int players = Bukkit.getOnlinePlayers().size();
+
+		Load measured = Load.IDLE;
+		if (exceeds(mspt, WorldManagementPlugin.getPregenPauseMspt())
+			|| exceeds(joinsPerMinute, WorldManagementPlugin.getPregenPauseJoinsPerMinute())
+			|| exceeds(players, WorldManagementPlugin.getPregenPausePlayers())) {
+			measured = Load.OVERLOADED;
+		} else if (exceeds(mspt, WorldManagementPlugin.getPregenSlowMspt())
+			|| exceeds(joinsPerMinute, WorldManagementPlugin.getPregenSlowJoinsPerMinute())
+			|| exceeds(players, WorldManagementPlugin.getPregenSlowPlayers())) {
+			measured = Load.BUSY;
+		}
+
+		Load load = mLoad;
+		if (measured.compareTo(load) >= 0) {
+			mCalmSamples = 0;
+			if (measured != load) {
+				MMLog.fine(String.format("Server load is now %s (%.1f mspt, %d joins/min, %d players), adjusting pregeneration",
+					measured, mspt, joinsPerMinute, players));
+				mLoad = measured;
+			}
+			return;
+		}
+
+		mCalmSamples++;
+		if (mCalmSamples * SAMPLE_TICKS >= WorldManagementPlugin.getPregenCalmSeconds() * 20L) {
+			mCalmSamples = 0;
+			MMLog.fine(String.format("Server load is now %s (%.1f mspt, %d joins/min, %d players), resuming pregeneration",
+				measured, mspt, joinsPerMinute, players));
+			mLoad = measured;
+			WorldGenerator.getInstance().schedulePregeneration();
+		}
+	}
+
+	private void pruneJoins() {
+		int cutoff = Bukkit.getCurrentTick() - (int) JOIN_WINDOW_TICKS;
+		while (!mJoinTicks.isEmpty() && mJoinTicks.peekFirst() < cutoff) {
+			mJoinTicks.removeFirst();
+		}
+	}
+
+	/**
+	 * Whether value crosses threshold, where thresholds <= 0 are disabled.
+	 */
+	private static boolean exceeds(double value, double threshold) {
+		return threshold > 0 && value >= threshold;
+	}
+}
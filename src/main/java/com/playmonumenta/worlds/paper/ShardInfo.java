@@ -16,6 +16,8 @@ public class ShardInfo {
 	private final @Nullable String mRejoinInstanceCommand;
 	private final @Nullable String mRespawnInstanceCommand;
 	private final int mPregeneratedInstances;
+	private final int mPregeneratedInstancesMin;
+	private final int mPrefetchSpawnRegions;
 	private final @Nullable String mVariantObjective;
 	private final Map<Integer, String> mVariantTemplates = new HashMap<>();
 
@@ -38,6 +40,14 @@ public class ShardInfo {
 		mPregeneratedInstances = config.getInt("pregenerated-instances", 0);
 		plugin.printConfig("    pregenerated-instances", mPregeneratedInstances);
 
+		int pregeneratedInstancesMin = config.getInt("pregenerated-instances-min", mPregeneratedInstances);
+		// Between 1 and pregenerated-instances, so an adaptive pool never shrinks to nothing
+		mPregeneratedInstancesMin = mPregeneratedInstances <= 0 ? 0 : Math.max(1, Math.min(pregeneratedInstancesMin, mPregeneratedInstances));
+		plugin.printConfig("    pregenerated-instances-min", mPregeneratedInstancesMin);
+
+		mPrefetchSpawnRegions = config.getInt("prefetch-spawn-regions", 0);
+		plugin.printConfig("    prefetch-spawn-regions", mPrefetchSpawnRegions);
+
 		mVariantObjective = config.getString("variant-objective", null);
 		plugin.printConfig("    variant-objective", mVariantObjective);
 
@@ -82,6 +92,31 @@ public class ShardInfo {
 		return mPregeneratedInstances;
 	}
 
+	public int getPregeneratedInstancesMin() {
+		return mPregeneratedInstancesMin;
+	}
+
+	/**
+	 * Whether worldName is the base world name followed by a positive instance number, and isn't a variant template.
+	 */
+	public boolean isInstanceName(String worldName) {
+		int baseLength = mBaseWorldName.length();
+		if (worldName.length() <= baseLength || !worldName.startsWith(mBaseWorldName) || worldName.charAt(baseLength) == '0') {
+			return false;
+		}
+		for (int i = baseLength; i < worldName.length(); i++) {
+			char c = worldName.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return !mVariantTemplates.containsValue(worldName);
+	}
+
+	public int getPrefetchSpawnRegions() {
+		return mPrefetchSpawnRegions;
+	}
+
 	public Set<String> getVariantTemplates() {
 		return new HashSet<>(mVariantTemplates.values());
 	}
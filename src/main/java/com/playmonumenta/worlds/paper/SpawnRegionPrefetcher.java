@@ -0,0 +1,140 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.nbt.NbtCompound;
+import com.playmonumenta.worlds.common.nbt.NbtIo;
+import com.playmonumenta.worlds.common.utils.IoThrottle;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Prefetches the spawn area of the next few pregenerated worlds of each template into the OS page cache, so loading a
+ * newly claimed instance reads less from disk.
+ * <p>
+ * Only files are read; worlds are not loaded ahead of time. Bukkit can't rename a loaded world, and player data is keyed
+ * by world name, so a claimed world is renamed to its instance name first and only then loaded, as usual. Prefetching
+ * reads level.dat and the region, entity and POI files around the world spawn, which are what loading the world reads
+ * first. Prefetched worlds stay in the pregenerated pool, which is claimed in order, so whichever worlds are next in
+ * line are prefetched.
+ * <p>
+ * Prefetching runs on an async thread, one world per run.
+ */
+public class SpawnRegionPrefetcher {
+	// Worlds are prefetched at most once per this many ticks to spread the I/O out
+	private static final long PREFETCH_INTERVAL_TICKS = 20;
+	// Regions read around the spawn region in each direction
+	private static final int SPAWN_REGION_RADIUS = 1;
+	private static final String[] REGION_FOLDERS = {"region", "entities", "poi"};
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	private final WorldManagementPlugin mPlugin;
+	// Pregen world names already read into the page cache; guarded by this
+	private final Set<String> mPrefetchedWorlds = new HashSet<>();
+	private volatile Map<String, Integer> mLimits = new HashMap<>();
+	private @Nullable BukkitTask mPrefetchTask = null;
+
+	protected SpawnRegionPrefetcher(WorldManagementPlugin plugin) {
+		mPlugin = plugin;
+	}
+
+	public void reloadConfig() {
+		if (mPrefetchTask != null) {
+			mPrefetchTask.cancel();
+			mPrefetchTask = null;
+		}
+
+		mLimits = WorldManagementPlugin.getSpawnRegionPrefetchLimits();
+		if (mLimits.isEmpty()) {
+			return;
+		}
+		mPrefetchTask = Bukkit.getScheduler().runTaskTimerAsynchronously(mPlugin, this::prefetchOne, PREFETCH_INTERVAL_TICKS, PREFETCH_INTERVAL_TICKS);
+	}
+
+	private synchronized void prefetchOne() {
+		Set<String> nextInLine = new HashSet<>();
+		for (Map.Entry<String, Integer> entry : mLimits.entrySet()) {
+			nextInLine.addAll(mPlugin.getWorldGenerator().peekPregeneratedWorlds(entry.getKey(), entry.getValue()));
+		}
+		// Forget worlds that have been claimed, so the set doesn't grow
+		mPrefetchedWorlds.retainAll(nextInLine);
+
+		for (String pregenName : nextInLine) {
+			if (mPrefetchedWorlds.add(pregenName)) {
+				try {
+					long bytes = prefetch(Paths.get(pregenName));
+					MMLog.fine("Prefetched " + pregenName + " (" + bytes / 1024 + " KiB read)");
+				} catch (IOException ex) {
+					// Only an optimization; the world is loaded from disk instead
+					MMLog.warning("Failed to prefetch " + pregenName + ": " + ex.getMessage());
+				}
+				// One world per run
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads the files loading world will need first, discarding their contents. Returns the number of bytes read.
+	 */
+	private static long prefetch(Path world) throws IOException {
+		Path levelDat = world.resolve("level.dat");
+		int spawnX = 0;
+		int spawnZ = 0;
+		try (InputStream in = Files.newInputStream(levelDat);
+			DataInputStream dataIn = new DataInputStream(new GZIPInputStream(in))) {
+			NbtCompound data = NbtIo.readRoot(dataIn).getCompound("Data");
+			if (data != null && data.get("SpawnX") instanceof Integer x && data.get("SpawnZ") instanceof Integer z) {
+				spawnX = x;
+				spawnZ = z;
+			}
+		}
+
+		IoThrottle throttle = WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.PREGEN);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		long bytes = Files.size(levelDat);
+		int spawnRegionX = Math.floorDiv(spawnX, 512);
+		int spawnRegionZ = Math.floorDiv(spawnZ, 512);
+		for (String folder : REGION_FOLDERS) {
+			for (int regionX = spawnRegionX - SPAWN_REGION_RADIUS; regionX <= spawnRegionX + SPAWN_REGION_RADIUS; regionX++) {
+				for (int regionZ = spawnRegionZ - SPAWN_REGION_RADIUS; regionZ <= spawnRegionZ + SPAWN_REGION_RADIUS; regionZ++) {
+					Path regionFile = world.resolve(folder).resolve("r." + regionX + "." + regionZ + ".mca");
+					if (Files.isRegularFile(regionFile)) {
+						bytes += read(regionFile, buffer, throttle);
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static long read(Path file, ByteBuffer buffer, IoThrottle throttle) throws IOException {
+		long bytes = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			throttle.acquire(0, 1);
+			while (true) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read < 0) {
+					return bytes;
+				}
+				throttle.acquire(read, 0);
+				bytes += read;
+			}
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package com.playmonumenta.worlds.paper;
 
 import com.playmonumenta.redissync.MonumentaRedisSyncAPI;
+import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.utils.IoThrottle;
 import dev.jorel.commandapi.CommandAPI;
 import dev.jorel.commandapi.CommandAPICommand;
 import dev.jorel.commandapi.CommandPermission;
 import dev.jorel.commandapi.arguments.Argument;
 import dev.jorel.commandapi.arguments.ArgumentSuggestions;
+import dev.jorel.commandapi.arguments.DoubleArgument;
 import dev.jorel.commandapi.arguments.EntitySelectorArgument;
 import dev.jorel.commandapi.arguments.FloatArgument;
 import dev.jorel.commandapi.arguments.IntegerArgument;
@@ -54,6 +57,28 @@ public class WorldCommands {
 		EntitySelectorArgument.ManyPlayers targetsArg = new EntitySelectorArgument.ManyPlayers("targets");
 		FloatArgument yawArg = new FloatArgument("yaw");
 		FloatArgument pitchArg = new FloatArgument("pitch");
+		DoubleArgument mibPerSecondArg = new DoubleArgument("mibPerSecond", 0);
+		DoubleArgument opsPerSecondArg = new DoubleArgument("opsPerSecond", 0);
+
+		// Live adjustment of io-throttle; lasts until the config is reloaded
+		CommandAPICommand ioThrottleCommand = new CommandAPICommand("iothrottle")
+			.withPermission(CommandPermission.fromString("monumenta.worldmanagement.iothrottle"))
+			.executes((sender, args) -> {
+				sender.sendMessage("I/O throttles (0 is unlimited):");
+				for (WorldManagementPlugin.IoClass ioClass : WorldManagementPlugin.IoClass.values()) {
+					sender.sendMessage("  " + ioClass.name().toLowerCase() + ": " + WorldManagementPlugin.getIoThrottle(ioClass));
+				}
+			});
+		for (WorldManagementPlugin.IoClass ioClass : WorldManagementPlugin.IoClass.values()) {
+			ioThrottleCommand.withSubcommand(new CommandAPICommand(ioClass.name().toLowerCase())
+				.withArguments(mibPerSecondArg)
+				.withArguments(opsPerSecondArg)
+				.executes((sender, args) -> {
+					IoThrottle throttle = WorldManagementPlugin.getIoThrottle(ioClass);
+					throttle.setLimits(args.getByArgument(mibPerSecondArg) * 1048576.0, args.getByArgument(opsPerSecondArg));
+					sender.sendMessage("I/O throttle for " + ioClass.name().toLowerCase() + " set to " + throttle);
+				}));
+		}
 
 		new CommandAPICommand("monumenta")
 			.withSubcommand(new CommandAPICommand("worldmanagement")
@@ -118,13 +143,13 @@ public class WorldCommands {
 					.executes((sender, args) -> {
 						String worldName = args.getByArgument(cachedWorldNameArg);
 
-						try {
-							MonumentaWorldManagementAPI.ensureWorldLoaded(worldName, null);
-						} catch (Exception ex) {
-							throw CommandAPI.failWithString(ex.getMessage());
-						}
-
-						sender.sendMessage("Loaded world: " + worldName);
+						MonumentaWorldManagementAPI.ensureWorldLoadedAsync(worldName, null).whenComplete((world, ex) -> {
+							if (ex != null) {
+								sender.sendMessage("Failed to load world '" + worldName + "': " + ex.getMessage());
+							} else {
+								sender.sendMessage("Loaded world: " + worldName);
+							}
+						});
 					}))
 				.withSubcommand(new CommandAPICommand("unloadworld")
 					.withPermission(CommandPermission.fromString("monumenta.worldmanagement.unloadworld"))
@@ -190,12 +215,13 @@ public class WorldCommands {
 						}
 
 						sender.sendMessage("Started creating world '" + worldName + "' from template");
-						try {
-							MonumentaWorldManagementAPI.ensureWorldLoaded(worldName, templateName);
-							sender.sendMessage("Created and loaded world '" + worldName + "' from master copy");
-						} catch (Exception ex) {
-							sender.sendMessage("Failed to create world '" + worldName + "': " + ex.getMessage());
-						}
+						MonumentaWorldManagementAPI.ensureWorldLoadedAsync(worldName, templateName).whenComplete((world, ex) -> {
+							if (ex != null) {
+								sender.sendMessage("Failed to create world '" + worldName + "': " + ex.getMessage());
+							} else {
+								sender.sendMessage("Created and loaded world '" + worldName + "' from master copy");
+							}
+						});
 					}))
 				.withSubcommand(new CommandAPICommand("copyworld")
 					.withPermission(CommandPermission.fromString("monumenta.worldmanagement.copyworld"))
@@ -228,6 +254,22 @@ public class WorldCommands {
 							}
 						});
 					}))
+				.withSubcommand(new CommandAPICommand("recycleworld")
+					.withPermission(CommandPermission.fromString("monumenta.worldmanagement.recycleworld"))
+					.withArguments(cachedWorldNameArg)
+					.withArguments(templateNameArg)
+					.executes((sender, args) -> {
+						String worldName = args.getByArgument(cachedWorldNameArg);
+						String templateName = args.getByArgument(templateNameArg);
+
+						MonumentaWorldManagementAPI.recycleWorld(worldName, templateName).whenComplete((unused, ex) -> {
+							if (ex != null) {
+								sender.sendMessage("Failed to recycle world '" + worldName + "': " + ex.getMessage());
+							} else {
+								sender.sendMessage("Recycled world '" + worldName + "' into the " + templateName + " pool");
+							}
+						});
+					}))
 				// Upgrade all worlds, no arguments
 				.withSubcommand(new CommandAPICommand("upgradeallworlds")
 					.withPermission(CommandPermission.fromString("monumenta.worldmanagement.upgradeworlds"))
@@ -278,6 +320,7 @@ public class WorldCommands {
 						// Upgrade
 						upgradeWorlds(List.of(worldName));
 					}))
+				.withSubcommand(ioThrottleCommand)
 				.withSubcommand(new CommandAPICommand("reload")
 					.withPermission(CommandPermission.fromString("monumenta.worldmanagement.reload"))
 					.executes((sender, args) -> {
@@ -346,17 +389,28 @@ public class WorldCommands {
 		// Important - need to save the player's location data on the existing world
 		player.saveData();
 		Bukkit.getScheduler().runTaskLater(WorldManagementPlugin.getInstance(), () -> {
-			try {
-				World newWorld = MonumentaWorldManagementAPI.ensureWorldLoaded(worldName, null);
-
-				MonumentaRedisSyncAPI.getPlayerWorldData(player, newWorld).applyToPlayer(player);
-			} catch (Exception ex) {
-				sender.sendMessage(Component.text(ex.getMessage(), NamedTextColor.RED));
-				ex.printStackTrace();
-			}
-		}, 1);
+			MonumentaWorldManagementAPI.ensureWorldLoadedAsync(worldName, null).whenComplete((newWorld, ex) -> {
+				if (ex != null) {
+					sender.sendMessage(Component.text(ex.getMessage(), NamedTextColor.RED));
+					ex.printStackTrace();
+					return;
+				}
+				if (!player.isOnline()) {
+					return;
+				}
 
-		player.sendMessage("Loaded world '" + worldName + "' and moved to it");
+				// Exceptions thrown in here would be swallowed by the future
+				try {
+					MonumentaRedisSyncAPI.getPlayerWorldData(player, newWorld).applyToPlayer(player);
+				} catch (Exception applyEx) {
+					MMLog.warning("Failed to move " + player.getName() + " to world '" + worldName + "': " + applyEx.getMessage());
+					applyEx.printStackTrace();
+					sender.sendMessage(Component.text("Failed to move " + player.getName() + " to world '" + worldName + "': " + applyEx.getMessage(), NamedTextColor.RED));
+					return;
+				}
+				player.sendMessage("Loaded world '" + worldName + "' and moved to it");
+			});
+		}, 1);
 	}
 
 	/**
@@ -0,0 +1,373 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Index of the world folders (directories containing level.dat) in the world container.
+ * <p>
+ * Kept up to date by a {@link WatchService} on the world container. Directories that appear without a level.dat yet
+ * (such as a world still being copied) are watched until one appears, for up to PENDING_WATCH_MILLIS; after that they
+ * are left to the periodic rescan. Watch events can be missed (for example if the
+ * watch service overflows), so the whole container is also rescanned every world-index-reconcile-seconds.
+ * <p>
+ * Individual worlds can also be watched for changes to their level.dat, such as templates being updated.
+ * <p>
+ * Lookups are safe from any thread.
+ */
+public class WorldFolderIndex {
+	/**
+	 * Notified when world folders are added to or removed from the index. May be called from any thread.
+	 */
+	public interface Listener {
+		void worldAdded(String worldName);
+
+		void worldRemoved(String worldName);
+
+		/**
+		 * Called when the level.dat of a world registered with {@link #watchLevelDat(String)} is written.
+		 */
+		default void levelDatModified(String worldName) {
+		}
+	}
+
+	private static class PendingDir {
+		public final String mName;
+		public final long mExpiresAt;
+
+		public PendingDir(String name, long expiresAt) {
+			mName = name;
+			mExpiresAt = expiresAt;
+		}
+	}
+
+	private static final String LEVEL_DAT = "level.dat";
+	// How long a new directory is watched for a level.dat before assuming it isn't a world
+	private static final long PENDING_WATCH_MILLIS = 10 * 60 * 1000;
+
+	private final WorldManagementPlugin mPlugin;
+	private final Path mRoot = Paths.get(".");
+	private final Set<String> mWorlds = ConcurrentHashMap.newKeySet();
+	private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+	// Directories without a level.dat yet, watched until one is created or they expire
+	private final Map<WatchKey, PendingDir> mPendingKeys = new ConcurrentHashMap<>();
+	// Worlds whose level.dat is watched for changes, and their watch keys while their folder exists
+	private final Set<String> mLevelDatWatched = ConcurrentHashMap.newKeySet();
+	private final Map<WatchKey, String> mLevelDatKeys = new ConcurrentHashMap<>();
+	private volatile @Nullable WatchService mWatchService = null;
+	private volatile @Nullable WatchKey mRootKey = null;
+	private @Nullable Thread mWatchThread = null;
+	private @Nullable BukkitTask mReconcileTask = null;
+
+	protected WorldFolderIndex(WorldManagementPlugin plugin) {
+		mPlugin = plugin;
+	}
+
+	/**
+	 * Starts watching the world container. Rescans it immediately on an async thread.
+	 */
+	public synchronized void start() {
+		if (mWatchService == null) {
+			try {
+				WatchService watchService = mRoot.getFileSystem().newWatchService();
+				mRootKey = mRoot.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+				mWatchService = watchService;
+				for (String worldName : mLevelDatWatched) {
+					registerLevelDatWatch(watchService, worldName);
+				}
+				Thread thread = new Thread(() -> watch(watchService), "MonumentaWorldManagement-WorldIndex");
+				thread.setDaemon(true);
+				thread.start();
+				mWatchThread = thread;
+			} catch (IOException ex) {
+				MMLog.warning("Failed to watch world container for changes, relying on periodic rescans only: " + ex.getMessage());
+			}
+		}
+		reloadConfig();
+	}
+
+	public synchronized void stop() {
+		if (mReconcileTask != null) {
+			mReconcileTask.cancel();
+			mReconcileTask = null;
+		}
+		if (mWatchService != null) {
+			try {
+				mWatchService.close();
+			} catch (IOException ex) {
+				MMLog.warning("Failed to close world container watch service: " + ex.getMessage());
+			}
+			mWatchService = null;
+			mRootKey = null;
+		}
+		if (mWatchThread != null) {
+			mWatchThread.interrupt();
+			mWatchThread = null;
+		}
+		mPendingKeys.clear();
+		mLevelDatKeys.clear();
+	}
+
+	/**
+	 * Restarts the periodic rescan, and rescans now.
+	 */
+	public synchronized void reloadConfig() {
+		if (mReconcileTask != null) {
+			mReconcileTask.cancel();
+			mReconcileTask = null;
+		}
+		long periodTicks = WorldManagementPlugin.getWorldIndexReconcileSeconds() * 20L;
+		if (periodTicks > 0) {
+			mReconcileTask = Bukkit.getScheduler().runTaskTimerAsynchronously(mPlugin, this::rescan, 0, periodTicks);
+		} else {
+			Bukkit.getScheduler().runTaskAsynchronously(mPlugin, this::rescan);
+		}
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Notifies listeners whenever worldName's level.dat is created or modified, including if the world is recreated.
+	 */
+	public void watchLevelDat(String worldName) {
+		if (mLevelDatWatched.add(worldName)) {
+			WatchService watchService = mWatchService;
+			if (watchService != null) {
+				registerLevelDatWatch(watchService, worldName);
+			}
+		}
+	}
+
+	public void unwatchLevelDat(String worldName) {
+		if (mLevelDatWatched.remove(worldName)) {
+			mLevelDatKeys.entrySet().removeIf((entry) -> {
+				if (entry.getValue().equals(worldName)) {
+					entry.getKey().cancel();
+					return true;
+				}
+				return false;
+			});
+		}
+	}
+
+	public boolean contains(String worldName) {
+		return mWorlds.contains(worldName);
+	}
+
+	public String[] toArray() {
+		return mWorlds.toArray(new String[0]);
+	}
+
+	/**
+	 * Records a world folder that was just created, without waiting for the watcher to notice it.
+	 */
+	public void add(String worldName) {
+		if (mWorlds.add(worldName)) {
+			WatchService watchService = mWatchService;
+			if (watchService != null && mLevelDatWatched.contains(worldName)) {
+				// The folder was recreated, so the old watch (if any) is gone
+				registerLevelDatWatch(watchService, worldName);
+			}
+			for (Listener listener : mListeners) {
+				listener.worldAdded(worldName);
+			}
+		}
+	}
+
+	/**
+	 * Records a world folder that was just deleted or moved, without waiting for the watcher to notice it.
+	 */
+	public void remove(String worldName) {
+		if (mWorlds.remove(worldName)) {
+			for (Listener listener : mListeners) {
+				listener.worldRemoved(worldName);
+			}
+		}
+	}
+
+	/**
+	 * Scans the whole world container and brings the index in line with it, returning the world folders found.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	public Set<String> rescan() {
+		expirePendingKeys();
+		Set<String> found = new HashSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(mRoot)) {
+			for (Path entry : stream) {
+				// level.dat can only be a regular file if entry is a directory, so this is the only check needed
+				if (Files.isRegularFile(entry.resolve(LEVEL_DAT))) {
+					found.add(entry.getFileName().toString());
+				}
+			}
+		} catch (IOException ex) {
+			MMLog.warning("Failed to scan world container: " + ex.getMessage());
+			return new HashSet<>(mWorlds);
+		}
+
+		for (String worldName : mWorlds) {
+			if (!found.contains(worldName)) {
+				MMLog.fine("World index reconcile: removing missing world " + worldName);
+				remove(worldName);
+			}
+		}
+		for (String worldName : found) {
+			add(worldName);
+		}
+		return found;
+	}
+
+	private void watch(WatchService watchService) {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException ex) {
+				return;
+			}
+
+			PendingDir pendingDir = mPendingKeys.get(key);
+			String pendingWorld = pendingDir == null ? null : pendingDir.mName;
+			String levelDatWorld = mLevelDatKeys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					MMLog.fine("World index watch overflowed, rescanning");
+					rescan();
+					continue;
+				}
+				Path name = (Path) event.context();
+				if (pendingWorld == null && levelDatWorld == null) {
+					// Otherwise an event left over from a key that has since been cancelled
+					if (key == mRootKey) {
+						handleRootEvent(watchService, event.kind(), name.toString());
+					}
+					continue;
+				}
+				if (!LEVEL_DAT.equals(name.toString())) {
+					continue;
+				}
+				if (pendingWorld != null && isWorldFolder(pendingWorld)) {
+					add(pendingWorld);
+					cancelPendingKey(key);
+				}
+				if (levelDatWorld != null) {
+					for (Listener listener : mListeners) {
+						listener.levelDatModified(levelDatWorld);
+					}
+				}
+			}
+
+			if (!key.reset()) {
+				// Directory was deleted
+				mPendingKeys.remove(key);
+				mLevelDatKeys.remove(key);
+			}
+		}
+	}
+
+	private void handleRootEvent(WatchService watchService, WatchEvent.Kind<?> kind, String name) {
+		if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			remove(name);
+			mPendingKeys.entrySet().removeIf((entry) -> {
+				if (entry.getValue().mName.equals(name)) {
+					cancelUnlessLevelDatWatched(entry.getKey());
+					return true;
+				}
+				return false;
+			});
+			return;
+		}
+
+		if (isWorldFolder(name)) {
+			add(name);
+			return;
+		}
+
+		Path dir = mRoot.resolve(name);
+		if (Files.isDirectory(dir)) {
+			// Keeps the number of watched directories bounded even with periodic rescans turned off
+			expirePendingKeys();
+			try {
+				// Registering a directory again replaces its watched events, so these must match registerLevelDatWatch()
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+				mPendingKeys.put(key, new PendingDir(name, System.currentTimeMillis() + PENDING_WATCH_MILLIS));
+			} catch (IOException ex) {
+				MMLog.fine("Failed to watch new directory " + name + ": " + ex.getMessage());
+			}
+			// level.dat may have been created before the watch was registered
+			if (isWorldFolder(name)) {
+				add(name);
+			}
+		}
+	}
+
+	/**
+	 * Stops watching pending directories that have been deleted, or that still have no level.dat after
+	 * PENDING_WATCH_MILLIS. If either later becomes a world, the next rescan finds it.
+	 */
+	private void expirePendingKeys() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<WatchKey, PendingDir> entry : mPendingKeys.entrySet()) {
+			PendingDir pendingDir = entry.getValue();
+			if (now >= pendingDir.mExpiresAt || !Files.isDirectory(mRoot.resolve(pendingDir.mName))) {
+				MMLog.fine("No longer watching " + pendingDir.mName + " for a level.dat");
+				cancelPendingKey(entry.getKey());
+			}
+		}
+	}
+
+	private void cancelPendingKey(WatchKey key) {
+		if (mPendingKeys.remove(key) != null) {
+			cancelUnlessLevelDatWatched(key);
+		}
+	}
+
+	// Watching the same directory twice gives the same key, so it may still be needed for its level.dat
+	private void cancelUnlessLevelDatWatched(WatchKey key) {
+		if (!mLevelDatKeys.containsKey(key)) {
+			key.cancel();
+		}
+	}
+
+	private void registerLevelDatWatch(WatchService watchService, String worldName) {
+		Path dir = mRoot.resolve(worldName);
+		if (!Files.isDirectory(dir)) {
+			// Registered once the folder is created
+			return;
+		}
+		try {
+			WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			mLevelDatKeys.put(key, worldName);
+		} catch (IOException ex) {
+			MMLog.warning("Failed to watch level.dat of " + worldName + ": " + ex.getMessage());
+		}
+	}
+
+	private boolean isWorldFolder(String name) {
+		return Files.isRegularFile(mRoot.resolve(name).resolve(LEVEL_DAT));
+	}
+}
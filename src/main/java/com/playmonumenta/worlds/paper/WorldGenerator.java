@@ -1,40 +1,90 @@
 package com.playmonumenta.worlds.paper;
 
 import com.playmonumenta.worlds.common.MMLog;
-import com.playmonumenta.worlds.common.utils.FileUtils;
+import com.playmonumenta.worlds.common.utils.ContentManifest;
+import com.playmonumenta.worlds.common.utils.CopyJournal;
+import com.playmonumenta.worlds.common.utils.CopyRules;
+import com.playmonumenta.worlds.common.utils.EntityUuidRewriter;
+import com.playmonumenta.worlds.common.utils.TemplateCache;
+import com.playmonumenta.worlds.common.utils.WorldCopier;
+import com.playmonumenta.worlds.common.utils.WorldDelta;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 
-public class WorldGenerator {
+public class WorldGenerator implements WorldFolderIndex.Listener {
 	private static class TemplatePregenState {
 		public final String mName;
-		public final int mLimit;
+		// Target pool size, adjusted between mMinLimit and mMaxLimit by demand
+		public volatile int mLimit;
+		public final int mMinLimit;
+		public final int mMaxLimit;
 		public final Pattern mRegex;
+		// Which template files are copied into instances; fixed until the config is reloaded
+		public final CopyRules mCopyRules;
 		public final LinkedBlockingQueue<String> mPregenerated = new LinkedBlockingQueue<>();
 		public final LinkedBlockingQueue<String> mOutdatedPregen = new LinkedBlockingQueue<>();
+		// Pregen world names currently being generated by a worker
+		public final Set<String> mGenerating = ConcurrentHashMap.newKeySet();
+		// Pregen world names whose generation was interrupted by a restart, to be resumed first
+		public final Queue<String> mInterrupted = new ConcurrentLinkedQueue<>();
+		// Claims waiting for the next instance of this template, oldest first; guarded by the generator
+		public final Queue<PendingClaim> mWaiters = new ArrayDeque<>();
 		public int mRetryCount = 0;
 		public boolean mError = false;
+		// Incremented when the template is modified, so instances copied from the old template are known to be outdated
+		public int mTemplateVersion = 0;
+		public long mTemplateTimestamp;
+		// Content manifest of the template, and the template timestamp it was built for; guarded by this state
+		public @Nullable ContentManifest mTemplateManifest = null;
+		public long mTemplateManifestTimestamp = 0;
 
-		public TemplatePregenState(String name, int limit) {
+		public TemplatePregenState(String name, int minLimit, int maxLimit, long templateTimestamp) {
 			mName = name;
-			mLimit = limit;
+			mLimit = maxLimit;
+			mMinLimit = minLimit;
+			mMaxLimit = maxLimit;
+			mTemplateTimestamp = templateTimestamp;
+			mCopyRules = WorldManagementPlugin.getPregenCopyRules(name);
 			mRegex = Pattern.compile(String.format("%s%s(\\d+)", PREGEN_PREFIX, name));
 		}
 
+		/**
+		 * Whether the pool has run dry or a claim is waiting, so this template should be generated however busy the
+		 * server is. Must be called while holding the generator lock.
+		 */
+		public boolean isUrgent() {
+			return mPregenerated.isEmpty() || !mWaiters.isEmpty();
+		}
+
 		public float fractionDone() {
 			// 0.0 means all work done, 1.0 means no work done
-			float remainingWork = 1.0f - (float) mPregenerated.size() / mLimit;
+			float remainingWork = 1.0f - (float) (mPregenerated.size() + mGenerating.size()) / mLimit;
 			// 0.0 means max errors reached, 1.0 means no errors found;
 			// this allows other templates to generate if one is failing to generate
 			float errorDelayFactor = 1.0f - (float) mRetryCount / MAX_PREGEN_SEQUENTIAL_FAILURES;
@@ -43,13 +93,47 @@ public class WorldGenerator {
 		}
 	}
 
+	private static class PendingClaim {
+		public final String mWorldName;
+		public final CompletableFuture<Void> mFuture = new CompletableFuture<>();
+
+		public PendingClaim(String worldName) {
+			mWorldName = worldName;
+		}
+	}
+
 	private static @Nullable WorldGenerator INSTANCE = null;
 	private static final String PREGEN_PREFIX = "pregen_";
 	private static final String GENERATING_SUFFIX = ".generating";
+	private static final String COPY_JOURNAL_FOLDER = "copy_journals";
+	private static final String TEMPLATE_MANIFEST_FOLDER = "template_manifests";
 	private static final int MAX_PREGEN_SEQUENTIAL_FAILURES = 5;
+	// Templates are usually updated by copying many files, so wait for writes to settle before reacting
+	private static final long TEMPLATE_MODIFIED_DELAY_TICKS = 100;
+	// How often pool targets are recalculated from demand
+	private static final long POOL_SIZING_PERIOD_TICKS = 60 * 20;
 	private final ConcurrentMap<String, TemplatePregenState> mPregenStates = new ConcurrentSkipListMap<>();
-	private @Nullable BukkitRunnable mPregenScheduler = null;
-	private boolean mStopped = true;
+	// Guarded by this
+	private final List<BukkitRunnable> mPregenWorkers = new ArrayList<>();
+	// Guarded by this
+	private final Map<String, PendingClaim> mPendingClaims = new HashMap<>();
+	private volatile boolean mStopped = true;
+	// Incremented by cancelGeneration(); workers exit once it no longer matches the value they were started with
+	private volatile long mGenerationEpoch = 0;
+	// Workers whose task hasn't returned yet, including ones from earlier epochs; guarded by this
+	private int mActiveWorkers = 0;
+	// Templates whose level.dat is watched; guarded by this
+	private final Set<String> mWatchedTemplates = new HashSet<>();
+	// Templates modified recently, waiting for TEMPLATE_MODIFIED_DELAY_TICKS before being handled
+	private final Set<String> mModifiedTemplates = ConcurrentHashMap.newKeySet();
+	private boolean mListening = false;
+	private @Nullable PregenManifest mManifest = null;
+	private @Nullable PoolDemand mPoolDemand = null;
+	private @Nullable BukkitTask mPoolSizingTask = null;
+	// Guarded by this
+	private boolean mManifestSaveScheduled = false;
+	// Held while snapshotting and writing the manifest, so saves land in order
+	private final Object mManifestSaveLock = new Object();
 
 	private WorldGenerator() {
 		INSTANCE = this;
@@ -63,14 +147,41 @@ public class WorldGenerator {
 	}
 
 	public void reloadConfig() {
-		mStopped = true;
-		if (mPregenScheduler != null) {
-			cancelGeneration(true);
+		long epoch = cancelGeneration(true);
+		if (mPoolSizingTask != null) {
+			mPoolSizingTask.cancel();
+			mPoolSizingTask = null;
 		}
+		startWhenDrained(epoch);
+	}
+
+	/**
+	 * Starts generation from scratch once every worker from before epoch has returned, so old workers never run
+	 * alongside new ones or write into folders that the startup scan is looking at.
+	 * <p>
+	 * Must be called on the main thread. Does nothing if generation was cancelled again in the meantime.
+	 */
+	private void startWhenDrained(long epoch) {
+		synchronized (this) {
+			if (epoch != mGenerationEpoch) {
+				return;
+			}
+			if (mActiveWorkers > 0) {
+				MMLog.fine("Waiting for " + mActiveWorkers + " pregeneration workers to stop before restarting generation");
+				Bukkit.getScheduler().runTaskLater(WorldManagementPlugin.getInstance(), () -> startWhenDrained(epoch), 20);
+				return;
+			}
+		}
+		startGeneration();
+	}
+
+	private void startGeneration() {
 		mPregenStates.clear();
+		updateTemplateWatches();
 
 		Map<String, Long> templateModifiedTimestamp = new HashMap<>();
 		Map<String, Integer> templatePregenLimits = WorldManagementPlugin.getPregeneratedInstanceLimits();
+		Map<String, Integer> templatePregenMinimums = WorldManagementPlugin.getPregeneratedInstanceMinimums();
 		if (templatePregenLimits.isEmpty()) {
 			MMLog.info("No template pregeneration specified, shutting down world generator.");
 			return;
@@ -97,33 +208,63 @@ public class WorldGenerator {
 
 			templateModifiedTimestamp.put(templateName, templateLevelDat.lastModified());
 
-			mPregenStates.put(templateName, new TemplatePregenState(templateName, pregenLimit));
+			int pregenMin = templatePregenMinimums.getOrDefault(templateName, pregenLimit);
+			mPregenStates.put(templateName, new TemplatePregenState(templateName, pregenMin, pregenLimit, templateLevelDat.lastModified()));
 		}
 		if (mPregenStates.isEmpty()) {
 			MMLog.info("No valid templates, shutting down world generator.");
 			return;
 		}
+		updateTemplateWatches();
+
+		// Startup cost should scale with the pool, not the number of worlds, so only scan if the manifest can't be used
+		Map<String, PregenManifest.TemplateEntry> manifest = getManifest().load();
+		if (manifest != null && manifest.keySet().containsAll(mPregenStates.keySet())) {
+			loadPoolFromManifest(manifest);
+		} else {
+			MMLog.info("Pregen manifest missing or doesn't cover every template, scanning for pregenerated worlds");
+			if (!scanForPregeneratedWorlds(templateModifiedTimestamp)) {
+				return;
+			}
+		}
+		getPoolDemand().setPoolTemplates(mPregenStates.keySet());
+		updatePoolTargets();
+		mPoolSizingTask = Bukkit.getScheduler().runTaskTimer(WorldManagementPlugin.getInstance(), this::updatePoolTargets,
+			POOL_SIZING_PERIOD_TICKS, POOL_SIZING_PERIOD_TICKS);
+		discardUnneededInterrupted();
+		scheduleManifestSave();
+
+		// Start generating instances
+		mStopped = false;
+		schedulePregeneration();
+	}
 
+	/**
+	 * Finds pregenerated worlds by listing the whole world container, including partial copies left by a restart.
+	 * <p>
+	 * Returns false if the world container couldn't be listed.
+	 */
+	private boolean scanForPregeneratedWorlds(Map<String, Long> templateModifiedTimestamp) {
 		// Get list of pregenerated/pregenerating worlds
 		File root = new File(".");
 		String[] childPaths = root.list();
 		if (childPaths == null) {
 			// What
 			MMLog.severe("Failed to list pregenerated worlds");
-			return;
+			return false;
 		}
 		for (String name : childPaths) {
 			if (!name.startsWith(PREGEN_PREFIX)) {
 				continue;
 			}
 			if (name.endsWith(GENERATING_SUFFIX)) {
-				File failedGeneratedInstance = new File(root, name);
-				MMLog.info("Deleting failed generating world " + name);
-
-				try {
-					FileUtils.deleteRecursively(failedGeneratedInstance.toPath());
-				} catch (IOException ex) {
-					MMLog.severe("Failed to delete failed generating instance " + name + ": " + ex.getMessage());
+				String pregenName = name.substring(0, name.length() - GENERATING_SUFFIX.length());
+				TemplatePregenState pregenState = getPregenStateForWorld(pregenName);
+				if (pregenState == null) {
+					deleteInterruptedAsync(List.of(pregenName));
+				} else {
+					MMLog.info("Detected interrupted pregeneration of " + pregenName + ", will resume it");
+					pregenState.mInterrupted.add(pregenName);
 				}
 				continue;
 			}
@@ -152,12 +293,339 @@ public class WorldGenerator {
 				}
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Restores the pool from the manifest without listing the world container.
+	 * <p>
+	 * Entries are trusted at first; they are checked on an async thread afterwards, and again when claimed.
+	 */
+	private void loadPoolFromManifest(Map<String, PregenManifest.TemplateEntry> manifest) {
+		for (TemplatePregenState pregenState : mPregenStates.values()) {
+			PregenManifest.TemplateEntry entry = manifest.get(pregenState.mName);
+			if (entry == null) {
+				continue;
+			}
+			for (String generating : entry.mGenerating) {
+				if (worldExists(generating) && !new File(generating + GENERATING_SUFFIX).exists()) {
+					// Finished and renamed into place just before the restart, before the manifest caught up
+					MMLog.info("Pregeneration of " + generating + " finished before the restart");
+					if (entry.mTemplateTimestamp == pregenState.mTemplateTimestamp) {
+						pregenState.mPregenerated.add(generating);
+					} else {
+						pregenState.mOutdatedPregen.add(generating);
+					}
+				} else {
+					// Whether their partial copies still exist is checked when they are resumed
+					pregenState.mInterrupted.add(generating);
+				}
+			}
+			if (entry.mTemplateTimestamp == pregenState.mTemplateTimestamp) {
+				pregenState.mPregenerated.addAll(entry.mPregenerated);
+			} else {
+				MMLog.info("Template " + pregenState.mName + " changed since the pregen manifest was saved; "
+					+ "pregenerated worlds will be used as fallback while generating more instances");
+				pregenState.mOutdatedPregen.addAll(entry.mPregenerated);
+			}
+			pregenState.mOutdatedPregen.addAll(entry.mOutdated);
+			MMLog.info("Loaded " + pregenState.mPregenerated.size() + " up to date and " + pregenState.mOutdatedPregen.size()
+				+ " outdated pregenerated " + pregenState.mName + " worlds from the pregen manifest");
+		}
 
-		// TODO File watcher to restart generation if pregenerated world is deleted? Command to regenerate pregenerated instances?
+		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), this::verifyPool);
+	}
 
-		// Start generating instances
-		mStopped = false;
-		schedulePregeneration();
+	/**
+	 * Deletes partial copies left by a restart for templates whose pools are already full, as they won't be resumed.
+	 */
+	private void discardUnneededInterrupted() {
+		List<String> unneeded = new ArrayList<>();
+		for (TemplatePregenState pregenState : mPregenStates.values()) {
+			if (pregenState.mPregenerated.size() >= pregenState.mLimit) {
+				String name;
+				while ((name = pregenState.mInterrupted.poll()) != null) {
+					unneeded.add(name);
+				}
+			}
+		}
+		if (!unneeded.isEmpty()) {
+			deleteInterruptedAsync(unneeded);
+		}
+	}
+
+	/**
+	 * Deletes the partial copies and copy journals of interrupted pregenerations, off the main thread.
+	 */
+	private static void deleteInterruptedAsync(List<String> pregenNames) {
+		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), () -> {
+			for (String pregenName : pregenNames) {
+				String generatingWorldName = pregenName + GENERATING_SUFFIX;
+				Path generatingWorld = Paths.get(generatingWorldName);
+				try {
+					if (Files.exists(generatingWorld)) {
+						MMLog.info("Deleting interrupted generating world " + generatingWorldName);
+						WorldManagementPlugin.getWorldTrash().moveToTrash(generatingWorld, WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.PREGEN));
+					}
+					Files.deleteIfExists(getCopyJournalFile(generatingWorldName));
+				} catch (IOException ex) {
+					MMLog.severe("Failed to delete interrupted generating instance " + generatingWorldName + ": " + ex.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the content manifest of a template, rebuilding it if the template changed since it was last built.
+	 * <p>
+	 * The manifest only lists the files accepted by the template's pregen-copy-rules, and pregenerated instances are
+	 * copied from it rather than from a walk of the template. Its version ID identifies the template version.
+	 * <p>
+	 * The manifest is cached on disk, so after a restart only files whose size or modify time changed are hashed again.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	private static ContentManifest getTemplateManifest(TemplatePregenState pregenState) throws IOException {
+		synchronized (pregenState) {
+			long templateTimestamp = pregenState.mTemplateTimestamp;
+			if (pregenState.mTemplateManifest != null && pregenState.mTemplateManifestTimestamp == templateTimestamp) {
+				return pregenState.mTemplateManifest;
+			}
+
+			Path cacheFile = WorldManagementPlugin.getInstance().getDataFolder().toPath()
+				.resolve(TEMPLATE_MANIFEST_FOLDER).resolve(pregenState.mName + ".manifest");
+			ContentManifest previous = pregenState.mTemplateManifest;
+			if (previous == null) {
+				previous = ContentManifest.load(cacheFile);
+			}
+			ContentManifest manifest = ContentManifest.build(Paths.get(pregenState.mName), previous, pregenState.mCopyRules);
+			manifest.save(cacheFile);
+			// Kept for every version instances were copied from, so they can later be stored as deltas against it
+			Path versionFile = getTemplateManifestVersionFile(manifest.getVersionId());
+			if (!Files.isRegularFile(versionFile)) {
+				manifest.save(versionFile);
+			}
+			if (previous == null || !previous.getVersionId().equals(manifest.getVersionId())) {
+				MMLog.info("Template " + pregenState.mName + " is version " + manifest.getVersionId().substring(0, 12)
+					+ " (" + manifest.getEntries().size() + " files)");
+			}
+
+			pregenState.mTemplateManifest = manifest;
+			pregenState.mTemplateManifestTimestamp = templateTimestamp;
+			return manifest;
+		}
+	}
+
+	private static Path getTemplateManifestVersionFile(String versionId) {
+		return WorldManagementPlugin.getInstance().getDataFolder().toPath()
+			.resolve(TEMPLATE_MANIFEST_FOLDER).resolve("versions").resolve(versionId + ".manifest");
+	}
+
+	/**
+	 * The manifest of a template version instances have been copied from, or null if it isn't known.
+	 */
+	protected static @Nullable ContentManifest getTemplateManifestVersion(String versionId) {
+		return ContentManifest.load(getTemplateManifestVersionFile(versionId));
+	}
+
+	/**
+	 * Deletes saved template manifest versions that aren't in referenced and aren't the latest version of any template.
+	 * Versions saved within the last day are kept too, as instances may be being copied from them. Returns the number
+	 * deleted.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	protected static int pruneTemplateManifestVersions(Set<String> referenced) throws IOException {
+		Path folder = WorldManagementPlugin.getInstance().getDataFolder().toPath().resolve(TEMPLATE_MANIFEST_FOLDER);
+		Path versionsFolder = folder.resolve("versions");
+		if (!Files.isDirectory(versionsFolder)) {
+			return 0;
+		}
+		Set<String> keep = new HashSet<>(referenced);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.manifest")) {
+			for (Path latestFile : stream) {
+				ContentManifest latest = ContentManifest.load(latestFile);
+				if (latest != null) {
+					keep.add(latest.getVersionId());
+				}
+			}
+		}
+
+		long cutoff = System.currentTimeMillis() - 24 * 60 * 60 * 1000;
+		int pruned = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(versionsFolder, "*.manifest")) {
+			for (Path versionFile : stream) {
+				String fileName = versionFile.getFileName().toString();
+				String versionId = fileName.substring(0, fileName.length() - ".manifest".length());
+				if (!keep.contains(versionId) && Files.getLastModifiedTime(versionFile).toMillis() < cutoff) {
+					Files.deleteIfExists(versionFile);
+					pruned++;
+				}
+			}
+		}
+		return pruned;
+	}
+
+	private static Path getCopyJournalFile(String worldName) {
+		return WorldManagementPlugin.getInstance().getDataFolder().toPath().resolve(COPY_JOURNAL_FOLDER).resolve(worldName + ".journal");
+	}
+
+	/**
+	 * Drops pool entries whose folders no longer exist, generating replacements.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	private void verifyPool() {
+		List<String> names = new ArrayList<>();
+		synchronized (this) {
+			for (TemplatePregenState pregenState : mPregenStates.values()) {
+				names.addAll(pregenState.mPregenerated);
+				names.addAll(pregenState.mOutdatedPregen);
+			}
+		}
+		for (String name : names) {
+			if (!worldExists(name)) {
+				worldRemoved(name);
+			}
+		}
+	}
+
+	/**
+	 * Takes the next pool entry whose folder still exists, dropping any that have gone missing.
+	 */
+	private static @Nullable String pollExisting(Queue<String> pool) {
+		String name;
+		while ((name = pool.poll()) != null) {
+			if (worldExists(name)) {
+				return name;
+			}
+			MMLog.warning("Pregenerated world " + name + " is missing, skipping it");
+		}
+		return null;
+	}
+
+	private synchronized PoolDemand getPoolDemand() {
+		if (mPoolDemand == null) {
+			mPoolDemand = new PoolDemand(WorldManagementPlugin.getInstance().getDataFolder());
+			mPoolDemand.load();
+		}
+		return mPoolDemand;
+	}
+
+	/**
+	 * Records that an instance of templateName was claimed, for sizing its pool.
+	 */
+	private void recordClaim(String templateName) {
+		if (mPregenStates.containsKey(templateName)) {
+			getPoolDemand().recordClaim(templateName);
+		}
+	}
+
+	/**
+	 * Sets each adaptive template's pool target to cover its predicted claims over pool-sizing.horizon-minutes,
+	 * within its pregenerated-instances-min and pregenerated-instances bounds. Templates with no history for this
+	 * time of day get their maximum.
+	 * <p>
+	 * Runs on the main thread every POOL_SIZING_PERIOD_TICKS. Demand is saved whenever an hour is folded in.
+	 */
+	private void updatePoolTargets() {
+		long now = System.currentTimeMillis();
+		PoolDemand demand = getPoolDemand();
+		if (demand.rollOver(now, WorldManagementPlugin.getPoolSizingSmoothing())) {
+			Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), demand::save);
+		}
+
+		boolean grew = false;
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (state.mMinLimit >= state.mMaxLimit) {
+				continue;
+			}
+			double rate = demand.predictedRate(state.mName, now);
+			int target = state.mMaxLimit;
+			if (!Double.isNaN(rate)) {
+				target = (int) Math.ceil(rate * WorldManagementPlugin.getPoolSizingHorizonMinutes() / 60.0);
+				target = Math.max(state.mMinLimit, Math.min(state.mMaxLimit, target));
+			}
+			if (target != state.mLimit) {
+				MMLog.info("Pregenerated pool target for " + state.mName + " is now " + target + " (was " + state.mLimit
+					+ (Double.isNaN(rate) ? ", no demand history for this time of day)" : String.format(", %.1f claims/hour predicted)", rate)));
+				grew |= target > state.mLimit;
+				state.mLimit = target;
+			}
+		}
+		if (grew) {
+			schedulePregeneration();
+		}
+	}
+
+	public void savePoolDemand() {
+		if (mPoolDemand != null) {
+			mPoolDemand.save();
+		}
+	}
+
+	private PregenManifest getManifest() {
+		if (mManifest == null) {
+			mManifest = new PregenManifest(WorldManagementPlugin.getInstance().getDataFolder());
+		}
+		return mManifest;
+	}
+
+	/**
+	 * Saves the manifest on an async thread soon, coalescing with any save already scheduled.
+	 */
+	private void scheduleManifestSave() {
+		synchronized (this) {
+			if (mManifestSaveScheduled) {
+				return;
+			}
+			mManifestSaveScheduled = true;
+		}
+		WorldManagementPlugin plugin = WorldManagementPlugin.getInstance();
+		if (plugin.isEnabled()) {
+			Bukkit.getScheduler().runTaskAsynchronously(plugin, this::saveManifest);
+		} else {
+			saveManifest();
+		}
+	}
+
+	/**
+	 * Saves the manifest before returning when called off the main thread, or schedules the save on the main thread.
+	 * <p>
+	 * Used whenever an instance starts or finishes generating, so the manifest is never missing a pool entry or a
+	 * partial copy and startup never needs to list the world container. A finished instance is renamed into place
+	 * before it is recorded in the pool, so it is still listed as generating if the server stops in between; startup
+	 * checks for that.
+	 */
+	private void commitManifest() {
+		if (Bukkit.isPrimaryThread()) {
+			scheduleManifestSave();
+		} else {
+			saveManifest();
+		}
+	}
+
+	/**
+	 * Saves the current pool state to the manifest immediately.
+	 */
+	public void saveManifest() {
+		synchronized (mManifestSaveLock) {
+			Map<String, PregenManifest.TemplateEntry> templates = new HashMap<>();
+			synchronized (this) {
+				mManifestSaveScheduled = false;
+				if (mPregenStates.isEmpty()) {
+					// Keep the last manifest rather than forgetting the pool while pregeneration is disabled
+					return;
+				}
+				for (TemplatePregenState pregenState : mPregenStates.values()) {
+					templates.put(pregenState.mName, new PregenManifest.TemplateEntry(pregenState.mTemplateTimestamp,
+						new ArrayList<>(pregenState.mPregenerated),
+						new ArrayList<>(pregenState.mOutdatedPregen),
+						new ArrayList<>(pregenState.mGenerating)));
+				}
+			}
+			getManifest().save(templates);
+		}
 	}
 
 	public float progress() {
@@ -191,35 +659,366 @@ public class WorldGenerator {
 		return target.isDirectory() && new File(target, "level.dat").isFile();
 	}
 
+	/**
+	 * Watches the current templates for changes, and pregenerated worlds for being added or removed by something else.
+	 */
+	private synchronized void updateTemplateWatches() {
+		WorldFolderIndex index = WorldManagementPlugin.getInstance().getWorldFolderIndex();
+		if (!mListening) {
+			index.addListener(this);
+			mListening = true;
+		}
+		Iterator<String> iter = mWatchedTemplates.iterator();
+		while (iter.hasNext()) {
+			String templateName = iter.next();
+			if (!mPregenStates.containsKey(templateName)) {
+				index.unwatchLevelDat(templateName);
+				iter.remove();
+			}
+		}
+		for (String templateName : mPregenStates.keySet()) {
+			if (mWatchedTemplates.add(templateName)) {
+				index.watchLevelDat(templateName);
+			}
+		}
+	}
+
+	private @Nullable TemplatePregenState getPregenStateForWorld(String worldName) {
+		if (!worldName.startsWith(PREGEN_PREFIX)) {
+			return null;
+		}
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (state.mRegex.matcher(worldName).matches()) {
+				return state;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void worldAdded(String worldName) {
+		if (mPregenStates.containsKey(worldName)) {
+			// Template folder was replaced
+			levelDatModified(worldName);
+			return;
+		}
+
+		TemplatePregenState pregenState = getPregenStateForWorld(worldName);
+		if (pregenState == null) {
+			return;
+		}
+		synchronized (this) {
+			if (pregenState.mPregenerated.contains(worldName)
+				|| pregenState.mOutdatedPregen.contains(worldName)
+				|| pregenState.mGenerating.contains(worldName)) {
+				// Already known, or being created by a worker
+				return;
+			}
+			if (isPregenUpToDate(pregenState.mName, worldName)) {
+				MMLog.info("Detected new pregenerated world " + worldName);
+				pregenState.mPregenerated.add(worldName);
+			} else {
+				MMLog.info("Detected new pregenerated world " + worldName + ", which is out of date according to level.dat modify time");
+				pregenState.mOutdatedPregen.add(worldName);
+			}
+		}
+		scheduleManifestSave();
+	}
+
+	@Override
+	public void worldRemoved(String worldName) {
+		TemplatePregenState pregenState = getPregenStateForWorld(worldName);
+		if (pregenState == null) {
+			return;
+		}
+		synchronized (this) {
+			if (pregenState.mGenerating.contains(worldName)) {
+				// Being replaced by a worker
+				return;
+			}
+			if (!pregenState.mPregenerated.remove(worldName) && !pregenState.mOutdatedPregen.remove(worldName)) {
+				// Already taken from the pool
+				return;
+			}
+			MMLog.info("Pregenerated world " + worldName + " was removed, generating a replacement");
+		}
+		scheduleManifestSave();
+		schedulePregeneration();
+	}
+
+	@Override
+	public void levelDatModified(String templateName) {
+		if (!mPregenStates.containsKey(templateName) || !mModifiedTemplates.add(templateName)) {
+			return;
+		}
+		Bukkit.getScheduler().runTaskLaterAsynchronously(WorldManagementPlugin.getInstance(), () -> {
+			mModifiedTemplates.remove(templateName);
+			templateModified(templateName);
+		}, TEMPLATE_MODIFIED_DELAY_TICKS);
+	}
+
+	/**
+	 * Marks every pregenerated instance of a modified template as outdated, and starts generating fresh ones.
+	 * <p>
+	 * Outdated instances are still used as a fallback until they have been replaced.
+	 */
+	private void templateModified(String templateName) {
+		long templateTimestamp = new File(templateName, "level.dat").lastModified();
+		synchronized (this) {
+			TemplatePregenState pregenState = mPregenStates.get(templateName);
+			if (pregenState == null || templateTimestamp == 0 || templateTimestamp == pregenState.mTemplateTimestamp) {
+				// Gone (generation will fail until it is back), or not actually changed
+				return;
+			}
+			pregenState.mTemplateTimestamp = templateTimestamp;
+			pregenState.mTemplateVersion++;
+			int outdated = pregenState.mPregenerated.drainTo(pregenState.mOutdatedPregen);
+			// The template may have been fixed, so give it another chance
+			pregenState.mError = false;
+			pregenState.mRetryCount = 0;
+			MMLog.info("Template " + templateName + " was modified; marked " + outdated + " pregenerated worlds as outdated");
+		}
+		scheduleManifestSave();
+		schedulePregeneration();
+	}
+
+	private static boolean isPregenUpToDate(String templateName, String pregenName) {
+		long templateTimestamp = new File(templateName, "level.dat").lastModified();
+		return new File(pregenName, "level.dat").lastModified() >= templateTimestamp;
+	}
+
+	/**
+	 * Moves a pregenerated world into place as worldName, without blocking.
+	 * <p>
+	 * Throws {@link WorldNotReadyException} if no pregenerated world is available yet; the world has then been
+	 * queued, and will be moved into place as soon as the next instance of this template finishes generating.
+	 * <p>
+	 * Uses file I/O, but only a rename, so is acceptable to call from the main thread
+	 */
 	public void getWorldInstance(String worldName, String templateName) throws Exception {
+		CompletableFuture<Void> future = claimWorldInstance(worldName, templateName);
+		if (!future.isDone()) {
+			throw new WorldNotReadyException("No pregenerated worlds are currently available; "
+				+ worldName + " will be created once one has been generated", worldName, future);
+		}
+		try {
+			future.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception causeEx) {
+				throw causeEx;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Claims a pregenerated instance of templateName as worldName, without blocking.
+	 * <p>
+	 * The returned future is already complete if the world exists or a pregenerated world was available.
+	 * Otherwise the claim is queued in order behind any others for the same template, and the future
+	 * completes on the main thread once the next instance finishes generating and has been moved into place.
+	 * Claiming a world that is already queued returns the existing claim.
+	 * <p>
+	 * May be called from any thread
+	 */
+	/**
+	 * Whether a claim for worldName is waiting for a pregenerated instance.
+	 */
+	public synchronized boolean hasPendingClaim(String worldName) {
+		return mPendingClaims.containsKey(worldName);
+	}
+
+	public CompletableFuture<Void> claimWorldInstance(String worldName, String templateName) {
 		MMLog.fine("Preparing world " + worldName);
-		if (worldExists(worldName)) {
-			MMLog.fine("World already exists: " + worldName);
-			return;
+		TemplatePregenState pregenState;
+		String pregeneratedWorldName;
+		PendingClaim claim = null;
+		synchronized (this) {
+			PendingClaim existingClaim = mPendingClaims.get(worldName);
+			if (existingClaim != null) {
+				return existingClaim.mFuture;
+			}
+
+			if (worldExists(worldName)) {
+				MMLog.fine("World already exists: " + worldName);
+				return CompletableFuture.completedFuture(null);
+			}
+
+			pregenState = mPregenStates.get(templateName);
+			if (pregenState == null) {
+				return CompletableFuture.failedFuture(new Exception("No such template world " + templateName));
+			}
+			recordClaim(templateName);
+
+			// Try to get the next pregenerated world
+			// If one is not available, queue the claim to be given the next one that finishes generating
+			pregeneratedWorldName = pollExisting(pregenState.mPregenerated);
+			if (pregeneratedWorldName == null) {
+				if (pregenState.mError) {
+					return CompletableFuture.failedFuture(new Exception("Unable to generate a new world of this type"));
+				}
+				pregeneratedWorldName = pollExisting(pregenState.mOutdatedPregen);
+				if (pregeneratedWorldName == null) {
+					if (mStopped) {
+						return CompletableFuture.failedFuture(new Exception("No pregenerated worlds are currently available and generation is stopped"));
+					}
+					claim = new PendingClaim(worldName);
+					pregenState.mWaiters.add(claim);
+					mPendingClaims.put(worldName, claim);
+					MMLog.info("No pregenerated " + templateName + " worlds available, " + worldName
+						+ " is waiting for the next one (" + pregenState.mWaiters.size() + " waiting)");
+				} else {
+					MMLog.warning("Using outdated pregenerated world " + pregeneratedWorldName
+						+ " due to lack of updated instances");
+				}
+			}
 		}
 
+		schedulePregeneration();
+		if (claim != null) {
+			return claim.mFuture;
+		}
+
+		try {
+			moveIntoPlace(pregenState, pregeneratedWorldName, worldName);
+		} catch (Exception ex) {
+			return CompletableFuture.failedFuture(ex);
+		} finally {
+			scheduleManifestSave();
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * The next count up to date pregenerated worlds of templateName, in the order claims will be given them.
+	 * <p>
+	 * The worlds stay in the pool. May be called from any thread.
+	 */
+	public List<String> peekPregeneratedWorlds(String templateName, int count) {
+		List<String> next = new ArrayList<>();
+		TemplatePregenState pregenState = mPregenStates.get(templateName);
+		if (pregenState == null) {
+			return next;
+		}
+		Iterator<String> iter = pregenState.mPregenerated.iterator();
+		while (next.size() < count && iter.hasNext()) {
+			next.add(iter.next());
+		}
+		return next;
+	}
+
+	/**
+	 * Resets an unloaded, finished instance of templateName to the current template and adds it to the pregenerated
+	 * pool, or gives it to the oldest waiting claim.
+	 * <p>
+	 * The instance is renamed to a newly reserved pregen name straight away, freeing its own name, and is then synced to
+	 * the template manifest on an async thread, so only the files that were modified are copied again. It is added even
+	 * if the pool is already full, saving a full copy for a later claim. If the reset fails, the instance is moved back
+	 * to its own name. A recycle interrupted by a restart is finished like any interrupted pregeneration.
+	 * <p>
+	 * Only instances stamped as copied from templateName, that no score on the scoreboard points at, and that aren't
+	 * loaded or about to be, are recycled. A load that starts after the rename finds the folder missing and fails
+	 * rather than generating a new world.
+	 * <p>
+	 * Requires copy-world-mode: builtin. Must be called from the main thread; the future completes on the main thread.
+	 */
+	public CompletableFuture<Void> recycleWorldInstance(String worldName, String templateName) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
 		TemplatePregenState pregenState = mPregenStates.get(templateName);
 		if (pregenState == null) {
-			throw new Exception("No such template world " + templateName);
+			future.completeExceptionally(new Exception("Template '" + templateName + "' has no pregenerated instances to recycle into"));
+			return future;
+		}
+		if (WorldManagementPlugin.getCopyWorldMode() != WorldManagementPlugin.CopyWorldMode.BUILTIN) {
+			future.completeExceptionally(new Exception("Recycling instances requires copy-world-mode: builtin"));
+			return future;
+		}
+		if (!InstanceCollector.isInstanceName(worldName)) {
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which is not an instance"));
+			return future;
+		}
+		WorldDelta.Origin origin = WorldDelta.readOrigin(Paths.get(worldName));
+		if (origin == null || !origin.mTemplateName.equals(templateName)) {
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which was not copied from " + templateName));
+			return future;
+		}
+		if (InstanceCollector.liveInstances().contains(worldName)) {
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which a player's score still points at"));
+			return future;
+		}
+		if (Bukkit.getWorld(worldName) != null || MonumentaWorldManagementAPI.isLoadPending(worldName)) {
+			future.completeExceptionally(new Exception("Can't recycle world '" + worldName + "' which is loaded or about to be"));
+			return future;
 		}
 
-		// Try to get the next pregenerated world
-		// If one is not available, throw an exception
-		// Only wait a very short period of time - otherwise the watchdog may crash the server before one is available
-		String pregeneratedWorldName = pregenState.mPregenerated.poll(1, TimeUnit.SECONDS);
-		if (pregeneratedWorldName == null) {
-			if (pregenState.mError) {
-				throw new Exception("Unable to generate a new world of this type");
+		String pregenName = null;
+		int templateVersion;
+		synchronized (this) {
+			String pregenBase = PREGEN_PREFIX + pregenState.mName;
+			for (int pregenIndex = 0; pregenName == null; pregenIndex++) {
+				String candidate = pregenBase + pregenIndex;
+				if (!pregenState.mPregenerated.contains(candidate) && !pregenState.mGenerating.contains(candidate)
+					&& !pregenState.mOutdatedPregen.contains(candidate)
+					&& !new File(candidate).exists() && !new File(candidate + GENERATING_SUFFIX).exists()) {
+					pregenName = candidate;
+				}
 			}
-			pregeneratedWorldName = pregenState.mOutdatedPregen.poll();
-			if (pregeneratedWorldName == null) {
-				schedulePregeneration();
-				throw new Exception("No pregenerated worlds are currently available");
+			pregenState.mGenerating.add(pregenName);
+			templateVersion = pregenState.mTemplateVersion;
+		}
+		String reservedName = pregenName;
+		String generatingWorldName = pregenName + GENERATING_SUFFIX;
+		if (!new File(worldName).renameTo(new File(generatingWorldName))) {
+			synchronized (this) {
+				pregenState.mGenerating.remove(reservedName);
 			}
-			MMLog.warning("Using outdated pregenerated world " + pregeneratedWorldName
-				+ " due to lack of updated instances");
+			future.completeExceptionally(new Exception("Failed to move instance '" + worldName + "' to " + generatingWorldName));
+			return future;
 		}
+		WorldManagementPlugin.getInstance().getWorldFolderIndex().remove(worldName);
+		// Recorded as generating, so an interrupted reset is finished on the next startup
+		scheduleManifestSave();
+		MMLog.info("Recycling instance " + worldName + " of " + templateName + " as " + reservedName);
 
+		Bukkit.getScheduler().runTaskAsynchronously(WorldManagementPlugin.getInstance(), () -> {
+			try {
+				ContentManifest templateManifest = getTemplateManifest(pregenState);
+				copyWorldFolder(templateName, generatingWorldName, WorldManagementPlugin.isPregenRewriteEntityUuids(),
+					WorldManagementPlugin.IoClass.PREGEN, getCopyJournalFile(generatingWorldName), templateManifest.getVersionId(), templateManifest);
+				WorldDelta.writeOrigin(Paths.get(generatingWorldName), templateName, templateManifest.getVersionId());
+				if (!new File(generatingWorldName).renameTo(new File(reservedName))) {
+					throw new Exception("Failed to move recycled world " + generatingWorldName + " to " + reservedName);
+				}
+			} catch (Exception ex) {
+				MMLog.warning("Failed to recycle instance " + worldName + ", moving it back: " + ex.getMessage());
+				// Partly reset, but its owner's data is still worth more than a fresh copy
+				if (!new File(worldName).exists() && new File(generatingWorldName).renameTo(new File(worldName))) {
+					WorldManagementPlugin.getInstance().getWorldFolderIndex().add(worldName);
+					try {
+						Files.deleteIfExists(getCopyJournalFile(generatingWorldName));
+					} catch (IOException journalEx) {
+						MMLog.warning("Failed to delete copy journal of " + generatingWorldName + ": " + journalEx.getMessage());
+					}
+				} else {
+					MMLog.severe("Failed to move " + generatingWorldName + " back to " + worldName + ", it was left where it is");
+				}
+				synchronized (this) {
+					pregenState.mGenerating.remove(reservedName);
+				}
+				scheduleManifestSave();
+				completeOnMainThread(future, ex);
+				return;
+			}
+			addToPool(pregenState, reservedName, templateVersion);
+			MMLog.info("Recycled instance " + worldName + " into " + reservedName
+				+ " (" + pregeneratedInstances(templateName) + "/" + pregenState.mLimit + ")");
+			completeOnMainThread(future, null);
+		});
+		return future;
+	}
+
+	private void moveIntoPlace(TemplatePregenState pregenState, String pregeneratedWorldName, String worldName) throws Exception {
 		MMLog.info("Moving " + pregeneratedWorldName + " to " + worldName);
 		File oldPath = new File(pregeneratedWorldName);
 		File target = new File(worldName);
@@ -235,8 +1034,54 @@ public class WorldGenerator {
 			}
 			throw new Exception("Failed to move template into place");
 		}
+	}
 
-		schedulePregeneration();
+	/**
+	 * Gives a freshly generated world to a queued claim, completing it on the main thread.
+	 */
+	private void handOffToClaim(TemplatePregenState pregenState, String pregenName, PendingClaim claim) {
+		Exception failure = null;
+		try {
+			moveIntoPlace(pregenState, pregenName, claim.mWorldName);
+		} catch (Exception ex) {
+			failure = ex;
+		}
+		synchronized (this) {
+			mPendingClaims.remove(claim.mWorldName);
+		}
+		scheduleManifestSave();
+		completeOnMainThread(claim.mFuture, failure);
+	}
+
+	/**
+	 * Fails every queued claim for pregenState (or all templates if null).
+	 */
+	private synchronized void failPendingClaims(@Nullable TemplatePregenState pregenState, String reason) {
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (pregenState != null && state != pregenState) {
+				continue;
+			}
+			PendingClaim claim;
+			while ((claim = state.mWaiters.poll()) != null) {
+				mPendingClaims.remove(claim.mWorldName);
+				completeOnMainThread(claim.mFuture, new Exception(reason));
+			}
+		}
+	}
+
+	private static void completeOnMainThread(CompletableFuture<Void> future, @Nullable Exception failure) {
+		Runnable complete = () -> {
+			if (failure == null) {
+				future.complete(null);
+			} else {
+				future.completeExceptionally(failure);
+			}
+		};
+		if (Bukkit.isPrimaryThread()) {
+			complete.run();
+		} else {
+			Bukkit.getScheduler().runTask(WorldManagementPlugin.getInstance(), complete);
+		}
 	}
 
 	/**
@@ -244,81 +1089,131 @@ public class WorldGenerator {
 	 * <p>
 	 * Returns true if still instances that need generating, false if done for now
 	 * <p>
+	 * Several workers may call this at once; each reserves a distinct pregen world name before copying.
+	 * <p>
 	 * Should only be called on an async thread, will block for a long time!
 	 */
 	private boolean generateWorldInstance() throws Exception {
-		TemplatePregenState templateState = null;
-		for (TemplatePregenState pregenState : mPregenStates.values()) {
-			if (pregenState.mError) {
-				continue;
+		TemplatePregenState pregenState;
+		String pregenName = null;
+		int templateVersion;
+		long templateTimestamp;
+		synchronized (this) {
+			// While the server is overloaded, only templates players are waiting on are generated
+			boolean urgentOnly = WorldManagementPlugin.getServerLoad() == ServerLoadMonitor.Load.OVERLOADED;
+			TemplatePregenState templateState = null;
+			for (TemplatePregenState state : mPregenStates.values()) {
+				if (state.mError || (urgentOnly && !state.isUrgent())) {
+					continue;
+				}
+				if (templateState == null) {
+					templateState = state;
+					continue;
+				}
+				if (state.fractionDone() < templateState.fractionDone()) {
+					templateState = state;
+				}
+			}
+			if (templateState == null && urgentOnly) {
+				return false;
 			}
 			if (templateState == null) {
-				templateState = pregenState;
-				continue;
+				MMLog.severe("No template found!");
+				throw new Exception("No template found!");
 			}
-			if (pregenState.fractionDone() < templateState.fractionDone()) {
-				templateState = pregenState;
+			if (templateState.fractionDone() >= 1.0) {
+				// Indicate no more work
+				return false;
 			}
+			pregenState = templateState;
+
+			if (pregenState.mLimit <= 0) {
+				throw new Exception("Pregen instance limit <= 0 for " + pregenState.mName + "!");
+			}
+
+			// Resume interrupted copies first, to reuse the work already done
+			String interrupted;
+			while (pregenName == null && (interrupted = pregenState.mInterrupted.poll()) != null) {
+				if (!pregenState.mPregenerated.contains(interrupted) && !pregenState.mGenerating.contains(interrupted)) {
+					pregenName = interrupted;
+				}
+			}
+
+			// Outdated instances are overwritten; any other existing folder is skipped rather than overwritten
+			String pregenBase = PREGEN_PREFIX + pregenState.mName;
+			for (int pregenIndex = 0; pregenName == null; pregenIndex++) {
+				String candidate = pregenBase + pregenIndex;
+				if (pregenState.mPregenerated.contains(candidate) || pregenState.mGenerating.contains(candidate)) {
+					continue;
+				}
+				if (pregenState.mOutdatedPregen.contains(candidate) || !new File(candidate).exists()) {
+					pregenName = candidate;
+				}
+			}
+			pregenState.mGenerating.add(pregenName);
+			templateVersion = pregenState.mTemplateVersion;
+			templateTimestamp = pregenState.mTemplateTimestamp;
 		}
-		if (templateState == null) {
-			MMLog.severe("No template found!");
-			throw new Exception("No template found!");
-		}
-		if (templateState.fractionDone() >= 1.0) {
-			MMLog.info("Completed all pregeneration for now");
-			// Indicate no more work
-			return false;
-		}
-		TemplatePregenState pregenState = templateState;
+		// Recorded as generating before anything is written, so an interrupted copy is found on the next startup
+		commitManifest();
 		String templateName = pregenState.mName;
 
-		String pregenName = null;
 		try {
-
 			if (!worldExists(templateName)) {
 				MMLog.severe("Template world does not exist!");
 				throw new Exception("Template world does not exist!");
 			}
 
-			String pregenBase = PREGEN_PREFIX + templateName;
-			for (int pregenIndex = 0; pregenIndex < pregenState.mLimit; pregenIndex++) {
-				pregenName = pregenBase + pregenIndex;
-				if (pregenState.mOutdatedPregen.remove(pregenName)) {
-					File outdatedFile = new File(pregenName);
-					if (outdatedFile.exists()) {
+			String pregeneratedWorldName = pregenName;
+			String generatingWorldName = pregeneratedWorldName + GENERATING_SUFFIX;
+
+			// The builtin copier copies only the files in the manifest, and can update an existing copy in place,
+			// replacing only the files that changed
+			ContentManifest templateManifest = null;
+			if (WorldManagementPlugin.getCopyWorldMode() == WorldManagementPlugin.CopyWorldMode.BUILTIN) {
+				try {
+					templateManifest = getTemplateManifest(pregenState);
+				} catch (IOException ex) {
+					MMLog.warning("Failed to build content manifest of template " + templateName + ", copying the whole template instead: " + ex.getMessage());
+				}
+			}
+
+			if (pregenState.mOutdatedPregen.remove(pregenName)) {
+				File outdatedFile = new File(pregenName);
+				if (outdatedFile.exists()) {
+					// Renamed while being refreshed, so an interrupted refresh is recovered like an interrupted copy
+					if (templateManifest != null && outdatedFile.renameTo(new File(generatingWorldName))) {
+						MMLog.info("Refreshing outdated pregen world " + pregenName + " from the current template");
+					} else {
 						try {
-							FileUtils.deleteRecursively(outdatedFile.toPath());
+							WorldManagementPlugin.getWorldTrash().moveToTrash(outdatedFile.toPath(), WorldManagementPlugin.getIoThrottle(WorldManagementPlugin.IoClass.PREGEN));
 						} catch (IOException ex) {
 							pregenState.mOutdatedPregen.add(pregenName);
-							MMLog.severe("Failed to delete outdated " + pregenName);
-							continue;
+							throw new Exception("Failed to delete outdated " + pregenName);
 						}
 						MMLog.info("Deleted outdated pregen world " + pregenName);
 					}
 				}
-				if (!pregenState.mPregenerated.contains(pregenName)) {
-					break;
-				}
 			}
 
-			if (pregenName == null) {
-				throw new Exception("Pregen instance limit <= 0, or could not delete outdated pregens!");
-			}
-
-			String pregeneratedWorldName = pregenName;
 			MMLog.info("Starting pregeneration of " + pregeneratedWorldName
 				+ " (" + (pregeneratedInstances(templateName) + 1)
 				+ "/" + pregenState.mLimit
 				+ ", " + (int) (100 * progress()) + "% total)");
 
 			// Generate the instance
-			String generatingWorldName = pregeneratedWorldName + GENERATING_SUFFIX;
-			Process process = Runtime.getRuntime().exec(WorldManagementPlugin.getCopyWorldCommand() + " " + templateName + " " + generatingWorldName);
-			int exitVal = process.waitFor();
-			if (exitVal != 0) {
-				String msg = "Failed to copy world '" + templateName + "' to '" + generatingWorldName + "': " + exitVal;
-				MMLog.severe(msg);
-				throw new Exception(msg);
+			try {
+				// Journaled against the template version, so a restart part way through can resume the copy
+				String sourceVersion = templateManifest != null ? templateManifest.getVersionId() : Long.toString(templateTimestamp);
+				copyWorldFolder(templateName, generatingWorldName, WorldManagementPlugin.isPregenRewriteEntityUuids(),
+					WorldManagementPlugin.IoClass.PREGEN, getCopyJournalFile(generatingWorldName), sourceVersion, templateManifest);
+				if (templateManifest != null) {
+					// Lets cold storage keep only the files that players change
+					WorldDelta.writeOrigin(Paths.get(generatingWorldName), templateName, templateManifest.getVersionId());
+				}
+			} catch (Exception ex) {
+				MMLog.severe(ex.getMessage());
+				throw ex;
 			}
 
 			// Move to pregenerated world path
@@ -330,20 +1225,26 @@ public class WorldGenerator {
 				throw new Exception(msg);
 			}
 		} catch (Exception ex) {
-			pregenState.mRetryCount++;
-			MMLog.warning("Error pregenerating " + templateName + " (" + pregenState.mRetryCount + "): "
-				+ ex.getMessage());
-			if (pregenState.mRetryCount > MAX_PREGEN_SEQUENTIAL_FAILURES) {
-				MMLog.severe("Skipping template " + templateName + " until config is reloaded!");
-				pregenState.mError = true;
+			synchronized (this) {
+				pregenState.mGenerating.remove(pregenName);
+				pregenState.mRetryCount++;
+				MMLog.warning("Error pregenerating " + templateName + " (" + pregenState.mRetryCount + "): "
+					+ ex.getMessage());
+				if (pregenState.mRetryCount > MAX_PREGEN_SEQUENTIAL_FAILURES) {
+					MMLog.severe("Skipping template " + templateName + " until config is reloaded!");
+					pregenState.mError = true;
+					failPendingClaims(pregenState, "Unable to generate a new world of this type");
+				}
 			}
+			scheduleManifestSave();
 			// Attempt the next config instead
 			return true;
 		}
-		pregenState.mRetryCount = 0;
 
-		// Mark as complete and register pregen world name
-		pregenState.mPregenerated.add(pregenName);
+		synchronized (this) {
+			pregenState.mRetryCount = 0;
+		}
+		addToPool(pregenState, pregenName, templateVersion);
 		MMLog.info("Finished pregenerating " + pregenName
 			+ " (" + pregeneratedInstances(templateName)
 			+ "/" + pregenState.mLimit
@@ -353,54 +1254,312 @@ public class WorldGenerator {
 		return true;
 	}
 
+	/**
+	 * Registers a freshly generated pregen world that was reserved in mGenerating, or gives it straight to the oldest
+	 * waiting claim.
+	 */
+	private void addToPool(TemplatePregenState pregenState, String pregenName, int templateVersion) {
+		PendingClaim claim;
+		synchronized (this) {
+			claim = pregenState.mWaiters.poll();
+			if (claim == null) {
+				if (templateVersion == pregenState.mTemplateVersion) {
+					pregenState.mPregenerated.add(pregenName);
+				} else {
+					// Template changed while copying; still usable as a fallback
+					pregenState.mOutdatedPregen.add(pregenName);
+				}
+				pregenState.mGenerating.remove(pregenName);
+			}
+		}
+		commitManifest();
+		if (claim != null) {
+			handOffToClaim(pregenState, pregenName, claim);
+			// Kept reserved until moved, so the folder watcher doesn't mistake it for a new pool entry
+			pregenState.mGenerating.remove(pregenName);
+		}
+	}
+
+	/**
+	 * Number of instances (including those currently generating) needed to fill every working template's pool.
+	 */
+	private synchronized int missingPregeneratedInstances() {
+		int missing = 0;
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (!state.mError) {
+				missing += Math.max(0, state.mLimit - state.mPregenerated.size());
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Whether any urgent template still has instances that are neither generated nor being generated.
+	 */
+	private synchronized boolean hasUrgentPregeneration() {
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (!state.mError && state.isUrgent() && state.fractionDone() < 1.0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Number of pregeneration workers allowed at the current server load: pregeneration-threads when idle, one when
+	 * busy, and none when overloaded unless a template is urgent.
+	 */
+	private synchronized int allowedWorkers() {
+		ServerLoadMonitor.Load load = WorldManagementPlugin.getServerLoad();
+		if (load == ServerLoadMonitor.Load.IDLE) {
+			return Math.max(1, WorldManagementPlugin.getPregenerationThreads());
+		}
+		if (load == ServerLoadMonitor.Load.BUSY || hasUrgentPregeneration()) {
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * While the server is busy, waits up to pregen-scheduling.slow-delay-seconds between instances, stopping early if
+	 * the server calms down or a template becomes urgent.
+	 * <p>
+	 * Called from pregeneration workers, never the main thread.
+	 */
+	private void paceWhileBusy() {
+		for (int waited = 0; waited < WorldManagementPlugin.getPregenSlowDelaySeconds(); waited++) {
+			if (mStopped || WorldManagementPlugin.getServerLoad() == ServerLoadMonitor.Load.IDLE || hasUrgentPregeneration()) {
+				return;
+			}
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Whether any template still has instances that are neither generated nor being generated.
+	 */
+	private synchronized boolean hasPendingPregeneration() {
+		for (TemplatePregenState state : mPregenStates.values()) {
+			if (!state.mError && state.fractionDone() < 1.0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies a world folder using the configured copy-world-mode.
+	 * <p>
+	 * If rewriteEntityUuids is true (only supported by the builtin copier), entities in the copy get new UUIDs.
+	 * <p>
+	 * Should only be called on an async thread, will block for a long time!
+	 */
+	protected static void copyWorldFolder(String fromWorldName, String newWorldName, boolean rewriteEntityUuids) throws Exception {
+		copyWorldFolder(fromWorldName, newWorldName, rewriteEntityUuids, WorldManagementPlugin.IoClass.COPY, null, "", null);
+	}
+
+	/**
+	 * Copies a world folder using the configured copy-world-mode, reusing an existing partial or outdated copy if possible.
+	 * <p>
+	 * With the builtin copier and sourceManifest (an up to date manifest of the source), only the files in the manifest
+	 * are copied, and if newWorldName already exists (outdated or partially copied) it is synced to the manifest,
+	 * replacing only the files that differ. Otherwise completed files are recorded in journalFile, and if newWorldName
+	 * exists from an interrupted copy of the same sourceVersion, only the files not yet completed are copied. Failing
+	 * that (or with copy-world-command) any existing copy is deleted first. The journal is deleted once the copy succeeds.
+	 * <p>
+	 * Copies from a manifest read the source through the template cache, if template-cache-max-mb is enabled.
+	 * <p>
+	 * The builtin copier and any deletes go through the io-throttle of ioClass; copy-world-command is not throttled.
+	 * Existing copies are deleted by moving them to the trash.
+	 * <p>
+	 * Should only be called on an async thread, will block for a long time!
+	 */
+	protected static void copyWorldFolder(String fromWorldName, String newWorldName, boolean rewriteEntityUuids, WorldManagementPlugin.IoClass ioClass, @Nullable Path journalFile, String sourceVersion, @Nullable ContentManifest sourceManifest) throws Exception {
+		Path target = Paths.get(newWorldName);
+		if (WorldManagementPlugin.getCopyWorldMode() == WorldManagementPlugin.CopyWorldMode.BUILTIN) {
+			WorldCopier copier = WorldManagementPlugin.getWorldCopier(ioClass);
+			EntityUuidRewriter rewriter = rewriteEntityUuids ? new EntityUuidRewriter() : null;
+			WorldCopier.CopyResult result;
+			try {
+				if (journalFile == null) {
+					result = copier.copy(Paths.get(fromWorldName), target, rewriter);
+				} else {
+					try (CopyJournal journal = new CopyJournal(journalFile, sourceVersion)) {
+						TemplateCache.CachedTemplate cached = sourceManifest == null ? null : getCachedTemplate(fromWorldName, sourceManifest);
+						if (sourceManifest != null && Files.isDirectory(target)) {
+							MMLog.info("Updating existing copy '" + newWorldName + "' to match '" + fromWorldName + "'");
+							result = copier.sync(Paths.get(fromWorldName), target, sourceManifest, cached, rewriter);
+						} else if (sourceManifest != null) {
+							result = copier.copy(Paths.get(fromWorldName), target, sourceManifest, cached, rewriter, journal);
+						} else {
+							if (Files.exists(target)) {
+								if (journal.isResumable()) {
+									MMLog.info("Resuming interrupted copy of '" + fromWorldName + "' to '" + newWorldName + "'");
+								} else {
+									MMLog.info("Deleting interrupted copy '" + newWorldName + "' which can't be resumed");
+									WorldManagementPlugin.getWorldTrash().moveToTrash(target, WorldManagementPlugin.getIoThrottle(ioClass));
+								}
+							}
+							result = copier.copy(Paths.get(fromWorldName), target, rewriter, journal);
+						}
+					}
+					Files.deleteIfExists(journalFile);
+				}
+			} catch (IOException ex) {
+				throw new Exception("Failed to copy world '" + fromWorldName + "' to '" + newWorldName + "': " + ex.getMessage(), ex);
+			}
+			MMLog.info("Copied world '" + fromWorldName + "' to '" + newWorldName + "': " + result
+				+ (rewriter == null ? "" : ", " + rewriter.getRewrittenEntities() + " entity UUIDs rewritten"));
+			return;
+		}
+
+		if (journalFile != null && Files.exists(target)) {
+			// The copy command can't resume, so start over
+			MMLog.info("Deleting interrupted copy '" + newWorldName + "'");
+			WorldManagementPlugin.getWorldTrash().moveToTrash(target, WorldManagementPlugin.getIoThrottle(ioClass));
+			Files.deleteIfExists(journalFile);
+		}
+
+		Process process = Runtime.getRuntime().exec(WorldManagementPlugin.getCopyWorldCommand() + " " + fromWorldName + " " + newWorldName);
+		int exitVal = process.waitFor();
+		if (exitVal != 0) {
+			throw new Exception("Failed to copy world '" + fromWorldName + "' to '" + newWorldName + "': " + exitVal);
+		}
+	}
+
+	/**
+	 * Gets the contents of a world from the template cache, loading them if needed, or null if they can't be cached.
+	 * <p>
+	 * Uses file I/O, should only be called on an async thread.
+	 */
+	private static @Nullable TemplateCache.CachedTemplate getCachedTemplate(String worldName, ContentManifest manifest) {
+		TemplateCache cache = WorldManagementPlugin.getTemplateCache();
+		if (cache == null) {
+			return null;
+		}
+		try {
+			TemplateCache.CachedTemplate cached = cache.get(worldName, Paths.get(worldName), manifest);
+			if (cached == null) {
+				MMLog.fine("Not caching '" + worldName + "', it is larger than template-cache-max-mb or changed while being read");
+			}
+			return cached;
+		} catch (IOException ex) {
+			MMLog.warning("Failed to cache '" + worldName + "', copying from disk: " + ex.getMessage());
+			return null;
+		}
+	}
+
 	/*
-	 * Start generating instances if they're not already generating
+	 * Start generating instances if they're not already generating, up to pregeneration-threads workers at once.
+	 * Fewer workers are started while the server is busy; see allowedWorkers()
 	 */
-	public void schedulePregeneration() {
-		if (mStopped || mPregenScheduler != null) {
+	public synchronized void schedulePregeneration() {
+		if (mStopped) {
 			return;
 		}
 
-		mPregenScheduler = new BukkitRunnable() {
-			int mFailures = 0;
+		// No point starting more workers than there are instances left to generate
+		int workerLimit = Math.min(allowedWorkers(), missingPregeneratedInstances());
+		while (mPregenWorkers.size() < workerLimit) {
+			BukkitRunnable worker = new BukkitRunnable() {
+				final long mEpoch = mGenerationEpoch;
+				int mFailures = 0;
 
-			@Override
-			public void run() {
-				boolean workToDo = true;
-				while (workToDo && !mStopped) {
+				@Override
+				public void run() {
 					try {
-						workToDo = generateWorldInstance();
-					} catch (Exception ex) {
-						// This is for errors not specific to any particular template
-						MMLog.warning("Got exception during instance pregen: " + ex.getMessage());
-
-						mFailures += 1;
-						if (mFailures < MAX_PREGEN_SEQUENTIAL_FAILURES) {
-							// Try again - less than the failure limit
-							continue;
+						generate();
+					} finally {
+						synchronized (WorldGenerator.this) {
+							mActiveWorkers--;
+						}
+					}
+				}
+
+				private void generate() {
+					while (!mStopped) {
+						// Workers beyond what the server load allows stop, and are restarted once it calms down
+						synchronized (WorldGenerator.this) {
+							if (mEpoch != mGenerationEpoch) {
+								// Cancelled, possibly followed by a restart with new workers
+								return;
+							}
+							if (mPregenWorkers.size() > allowedWorkers()) {
+								mPregenWorkers.remove(this);
+								MMLog.fine("Pausing a pregeneration worker while the server is busy");
+								return;
+							}
 						}
 
-						// Hit retry limit, cancel generation
-						MMLog.severe("Got " + mFailures + " back-to-back pregeneration failures; aborting pregeneration");
-						cancelGeneration(true);
-						return;
+						boolean workToDo;
+						try {
+							workToDo = generateWorldInstance();
+						} catch (Exception ex) {
+							// This is for errors not specific to any particular template
+							MMLog.warning("Got exception during instance pregen: " + ex.getMessage());
+
+							mFailures += 1;
+							if (mFailures < MAX_PREGEN_SEQUENTIAL_FAILURES) {
+								// Try again - less than the failure limit
+								continue;
+							}
+
+							// Hit retry limit, cancel generation unless that already happened
+							synchronized (WorldGenerator.this) {
+								if (mEpoch == mGenerationEpoch) {
+									MMLog.severe("Got " + mFailures + " back-to-back pregeneration failures; aborting pregeneration");
+									cancelGeneration(true);
+								}
+							}
+							return;
+						}
+
+						mFailures = 0;
+						if (workToDo) {
+							paceWhileBusy();
+						} else {
+							// Checked under the lock so schedulePregeneration() can't miss a worker that is exiting
+							synchronized (WorldGenerator.this) {
+								if (!hasPendingPregeneration()) {
+									mPregenWorkers.remove(this);
+									if (mPregenWorkers.isEmpty()) {
+										MMLog.info("All pregeneration complete.");
+									}
+									return;
+								}
+							}
+						}
 					}
 
-					mFailures = 0;
+					synchronized (WorldGenerator.this) {
+						mPregenWorkers.remove(this);
+					}
 				}
-
-				MMLog.info("All pregeneration complete.");
-				cancelGeneration(false);
-			}
-		};
-		mPregenScheduler.runTaskAsynchronously(WorldManagementPlugin.getInstance());
+			};
+			mPregenWorkers.add(worker);
+			mActiveWorkers++;
+			worker.runTaskAsynchronously(WorldManagementPlugin.getInstance());
+		}
 	}
 
-	public void cancelGeneration(boolean stopGenerating) {
+	/**
+	 * Stops all current workers once they finish the instance they are generating. Workers aren't cancelled through
+	 * the scheduler, so every started worker returns through its own loop and is counted out of mActiveWorkers.
+	 * <p>
+	 * Returns the new generation epoch.
+	 */
+	public synchronized long cancelGeneration(boolean stopGenerating) {
 		mStopped = stopGenerating;
-		if (mPregenScheduler != null) {
-			mPregenScheduler.cancel();
-			mPregenScheduler = null;
+		mGenerationEpoch++;
+		mPregenWorkers.clear();
+		if (stopGenerating) {
+			failPendingClaims(null, "World generation was stopped");
 		}
+		return mGenerationEpoch;
 	}
 }
@@ -0,0 +1,161 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Limits how many worlds are loaded per tick.
+ * <p>
+ * Loading a world takes a significant part of a tick, so when many players join at once (such as after a restart)
+ * loading all their worlds immediately would stall the server. Loads beyond max-world-loads-per-tick are queued and
+ * run in the order they were requested on later ticks. Worlds that are already loaded are never held up by this.
+ * <p>
+ * Everything here runs on the main thread.
+ */
+public class WorldLoadQueue {
+	private static class LoadJob {
+		public final String mWorldName;
+		public final CompletableFuture<World> mFuture = new CompletableFuture<>();
+
+		public LoadJob(String worldName) {
+			mWorldName = worldName;
+		}
+	}
+
+	private final WorldManagementPlugin mPlugin;
+	private final ArrayDeque<LoadJob> mQueue = new ArrayDeque<>();
+	private final Map<String, LoadJob> mJobs = new HashMap<>();
+	private @Nullable BukkitTask mTask = null;
+	private int mLoadTick = -1;
+	private int mLoadsThisTick = 0;
+
+	protected WorldLoadQueue(WorldManagementPlugin plugin) {
+		mPlugin = plugin;
+	}
+
+	/**
+	 * Uses up one of this tick's world loads if one is available and nothing is already queued ahead of the caller.
+	 * <p>
+	 * If this returns true, the caller should load its world immediately; otherwise it should {@link #load} it.
+	 */
+	public boolean tryAdmit() {
+		int limit = WorldManagementPlugin.getMaxWorldLoadsPerTick();
+		if (limit <= 0) {
+			return true;
+		}
+		if (!mQueue.isEmpty()) {
+			return false;
+		}
+		if (Bukkit.getCurrentTick() != mLoadTick) {
+			mLoadTick = Bukkit.getCurrentTick();
+			mLoadsThisTick = 0;
+		}
+		if (mLoadsThisTick >= limit) {
+			return false;
+		}
+		mLoadsThisTick++;
+		return true;
+	}
+
+	/**
+	 * Queues an existing world folder to be loaded on a later tick.
+	 * <p>
+	 * The future completes once the world is loaded, or fails if loading it fails.
+	 * Loading a world that is already queued returns the existing future.
+	 */
+	public CompletableFuture<World> load(String worldName) {
+		LoadJob job = mJobs.get(worldName);
+		if (job != null) {
+			return job.mFuture;
+		}
+
+		job = new LoadJob(worldName);
+		mJobs.put(worldName, job);
+		mQueue.add(job);
+		if (mTask == null) {
+			mTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::tick, 1, 1);
+		}
+		MMLog.fine("Queued world load: worldName=" + worldName + " position=" + mQueue.size());
+		return job.mFuture;
+	}
+
+	/**
+	 * Returns the 1-based position of a world in the load queue, or 0 if it is not queued.
+	 */
+	public int getQueuePosition(String worldName) {
+		if (!mJobs.containsKey(worldName)) {
+			return 0;
+		}
+		int position = 1;
+		for (LoadJob job : mQueue) {
+			if (job.mWorldName.equals(worldName)) {
+				return position;
+			}
+			position++;
+		}
+		return 0;
+	}
+
+	public boolean isQueued(String worldName) {
+		return mJobs.containsKey(worldName);
+	}
+
+	public int queuedLoads() {
+		return mQueue.size();
+	}
+
+	private void tick() {
+		int limit = Math.max(1, WorldManagementPlugin.getMaxWorldLoadsPerTick());
+		if (Bukkit.getCurrentTick() != mLoadTick) {
+			mLoadTick = Bukkit.getCurrentTick();
+			mLoadsThisTick = 0;
+		}
+
+		while (!mQueue.isEmpty() && mLoadsThisTick < limit) {
+			LoadJob job = mQueue.poll();
+			mJobs.remove(job.mWorldName);
+
+			World world = Bukkit.getWorld(job.mWorldName);
+			if (world != null) {
+				// Something else loaded it; doesn't count against the limit
+				job.mFuture.complete(world);
+				continue;
+			}
+
+			mLoadsThisTick++;
+			try {
+				job.mFuture.complete(MonumentaWorldManagementAPI.loadWorldFolder(job.mWorldName));
+			} catch (WorldNotReadyException ex) {
+				// The folder went missing, such as into cold storage; load it again once it is back
+				LoadJob waiting = job;
+				ex.getReadyFuture().whenComplete((unused, readyEx) -> {
+					if (readyEx != null) {
+						waiting.mFuture.completeExceptionally(readyEx);
+						return;
+					}
+					load(waiting.mWorldName).whenComplete((loadedWorld, loadEx) -> {
+						if (loadEx != null) {
+							waiting.mFuture.completeExceptionally(loadEx);
+						} else {
+							waiting.mFuture.complete(loadedWorld);
+						}
+					});
+				});
+			} catch (Exception ex) {
+				job.mFuture.completeExceptionally(ex);
+			}
+		}
+
+		if (mQueue.isEmpty() && mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+}
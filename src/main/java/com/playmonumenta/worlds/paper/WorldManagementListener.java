@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import net.kyori.adventure.text.Component;
@@ -21,19 +22,39 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
-import org.bukkit.plugin.Plugin;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.scheduler.BukkitTask;
 
 public class WorldManagementListener implements Listener {
+	private static class ParkedPlayer {
+		public final String mWorldName;
+		public final CompletableFuture<Void> mReady;
+		// The world to move the player to, or null to sort them by their instance score
+		public final @Nullable String mLastWorldName;
+
+		public ParkedPlayer(WorldNotReadyException ex, @Nullable String lastWorldName) {
+			mWorldName = ex.getWorldName();
+			mReady = ex.getReadyFuture();
+			mLastWorldName = lastWorldName;
+		}
+	}
+
 	private static final String IDENTIFIER = "MonumentaWorldManagementV1";
+	// How often parked players are told their place in the world load queue
+	private static final long PARKED_PROGRESS_INTERVAL_TICKS = 40;
 	private static @Nullable WorldManagementListener INSTANCE = null;
 
-	private @Nullable BukkitTask mUnloadTask = null;
-	private final Plugin mPlugin;
+	private @Nullable IdleWorldTracker mIdleWorldTracker = null;
+	// Players who joined before their instance was ready, and are waiting on the main world for it
+	private final Map<UUID, ParkedPlayer> mParkedPlayers = new HashMap<>();
+	private @Nullable BukkitTask mParkedProgressTask = null;
+	private final WorldManagementPlugin mPlugin;
 	private final Logger mLogger;
 
-	protected WorldManagementListener(Plugin plugin) {
+	protected WorldManagementListener(WorldManagementPlugin plugin) {
 		mPlugin = plugin;
 		mLogger = plugin.getLogger();
 		INSTANCE = this;
@@ -74,7 +95,17 @@ public class WorldManagementListener implements Listener {
 				} else {
 					templateName = null;
 				}
-				World world = MonumentaWorldManagementAPI.ensureWorldLoaded(info.getBaseWorldName() + score, templateName);
+				World world;
+				try {
+					world = MonumentaWorldManagementAPI.ensureWorldLoaded(info.getBaseWorldName() + score, templateName);
+				} catch (WorldNotReadyException ex) {
+					// Respawn where the server put them, then move them to their instance once it's ready
+					mLogger.info("Parking respawning player " + player.getName() + ": " + ex.getMessage());
+					player.sendMessage(Component.text("Your instance is being prepared, you will be moved to it shortly", NamedTextColor.YELLOW));
+					ParkedPlayer parked = parkPlayer(player, ex, null);
+					parked.mReady.whenComplete((unused, parkEx) -> unparkPlayer(player, parked, parkEx, info.getRespawnInstanceCommand()));
+					return;
+				}
 
 				// RESPAWN: The player is respawning in this world after having (probably) died there
 				if (info.getRespawnInstanceCommand() != null) {
@@ -113,6 +144,11 @@ public class WorldManagementListener implements Listener {
 				try {
 					World world = MonumentaWorldManagementAPI.ensureWorldLoaded(lastSavedWorldName, null);
 					event.setWorld(world);
+				} catch (WorldNotReadyException ex) {
+					// Don't hold up the server waiting for the world - park the player on the main world until it's ready
+					mLogger.info("Parking player " + player.getName() + " on the main world: " + ex.getMessage());
+					event.setWorld(Bukkit.getWorlds().get(0));
+					parkPlayer(player, ex, lastSavedWorldName);
 				} catch (Exception ex) {
 					String msg = "Failed to load the last world you were on (" + lastSavedWorldName + "): " + ex.getMessage();
 					player.sendMessage(msg);
@@ -123,6 +159,11 @@ public class WorldManagementListener implements Listener {
 		} else {
 			try {
 				event.setWorld(getSortWorld(player));
+			} catch (WorldNotReadyException ex) {
+				// Don't hold up the server waiting for the instance - park the player on the main world until it's ready
+				mLogger.info("Parking player " + player.getName() + " on the main world: " + ex.getMessage());
+				event.setWorld(Bukkit.getWorlds().get(0));
+				parkPlayer(player, ex, null);
 			} catch (Exception ex) {
 				mLogger.warning("Failed to set world for player " + player.getName() + ": " + ex.getMessage());
 			}
@@ -140,18 +181,46 @@ public class WorldManagementListener implements Listener {
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
 	public void playerJoinEvent(PlayerJoinEvent event) {
 		Player player = event.getPlayer();
+		if (mIdleWorldTracker != null) {
+			mIdleWorldTracker.refresh(player.getWorld());
+		}
+
+		String command = getJoinCommand(player);
+
+		ParkedPlayer parked = mParkedPlayers.get(player.getUniqueId());
+		if (parked != null) {
+			// The (re)join command must run once the player is actually on their world
+			if (parked.mLastWorldName == null) {
+				player.sendMessage(Component.text("Your instance is being prepared, you will be moved to it shortly", NamedTextColor.YELLOW));
+			} else {
+				player.sendMessage(Component.text("The world you were on is being loaded, you will be moved to it shortly", NamedTextColor.YELLOW));
+			}
+			parked.mReady.whenComplete((unused, ex) -> unparkPlayer(player, parked, ex, command));
+			return;
+		}
+
+		if (command != null) {
+			mLogger.fine("Running (re)join command on player=" + player.getName() + " thread=" + Thread.currentThread().getName());
+			Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(), "execute as " + player.getUniqueId() + " at @s run " + command);
+		}
+	}
+
+	/**
+	 * The join or rejoin command to run for a player joining their instance, or null if there is none.
+	 */
+	private @Nullable String getJoinCommand(Player player) {
 		ShardInfo info = WorldManagementPlugin.getShardInfo(player);
 		if (info == null) {
-			return;
+			return null;
 		}
 		String instanceObjective = info.getInstanceObjective();
 		if (instanceObjective.isEmpty()) {
-			return;
+			return null;
 		}
 
 		int score = ScoreboardUtils.getScoreboardValue(player, instanceObjective).orElse(0);
 		if (score <= 0) {
-			return;
+			return null;
 		}
 
 		JsonObject pluginData = MonumentaRedisSyncAPI.getPlayerPluginData(player.getUniqueId(), IDENTIFIER);
@@ -167,17 +236,136 @@ public class WorldManagementListener implements Listener {
 			}
 		}
 
-		String command;
 		if (firstJoin) {
 			// JOIN: The player is joining this world for the first time
-			command = info.getJoinInstanceCommand();
+			return info.getJoinInstanceCommand();
 		} else {
 			// REJOIN: The player is joining this world after having most recently left this world
-			command = info.getRejoinInstanceCommand();
+			return info.getRejoinInstanceCommand();
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = false)
+	public void playerQuitEvent(PlayerQuitEvent event) {
+		Player player = event.getPlayer();
+		mParkedPlayers.remove(player.getUniqueId());
+
+		if (mIdleWorldTracker != null) {
+			// The player is still in the world until after this event
+			World world = player.getWorld();
+			Bukkit.getScheduler().runTask(mPlugin, () -> {
+				if (mIdleWorldTracker != null) {
+					mIdleWorldTracker.refresh(Bukkit.getWorld(world.getUID()));
+				}
+			});
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = false)
+	public void worldLoadEvent(WorldLoadEvent event) {
+		if (mIdleWorldTracker != null) {
+			mIdleWorldTracker.refresh(event.getWorld());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void worldUnloadEvent(WorldUnloadEvent event) {
+		if (mIdleWorldTracker != null) {
+			mIdleWorldTracker.forget(event.getWorld());
+		}
+	}
+
+	/**
+	 * Whether any player is parked until worldName is ready, or to be moved back to it.
+	 */
+	protected boolean isParkedFor(String worldName) {
+		for (ParkedPlayer parked : mParkedPlayers.values()) {
+			if (parked.mWorldName.equals(worldName) || worldName.equals(parked.mLastWorldName)) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	private ParkedPlayer parkPlayer(Player player, WorldNotReadyException ex, @Nullable String lastWorldName) {
+		ParkedPlayer parked = new ParkedPlayer(ex, lastWorldName);
+		mParkedPlayers.put(player.getUniqueId(), parked);
+		if (mParkedProgressTask == null) {
+			mParkedProgressTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::notifyParkedPlayers, PARKED_PROGRESS_INTERVAL_TICKS, PARKED_PROGRESS_INTERVAL_TICKS);
+		}
+		return parked;
+	}
+
+	/**
+	 * Tells parked players whose world is waiting to be loaded where they are in the world load queue.
+	 */
+	private void notifyParkedPlayers() {
+		if (mParkedPlayers.isEmpty()) {
+			if (mParkedProgressTask != null) {
+				mParkedProgressTask.cancel();
+				mParkedProgressTask = null;
+			}
+			return;
+		}
+
+		WorldLoadQueue loadQueue = mPlugin.getWorldLoadQueue();
+		for (Map.Entry<UUID, ParkedPlayer> entry : mParkedPlayers.entrySet()) {
+			int position = loadQueue.getQueuePosition(entry.getValue().mWorldName);
+			Player player = Bukkit.getPlayer(entry.getKey());
+			if (position > 0 && player != null) {
+				player.sendActionBar(Component.text("Your instance is queued to load: " + position + " of " + loadQueue.queuedLoads(), NamedTextColor.YELLOW));
+			}
+		}
+	}
+
+	/**
+	 * Moves a parked player to their world once it is ready, then runs their (re)join or respawn command.
+	 * <p>
+	 * Called on the main thread when the parked player's world becomes available (or fails to).
+	 */
+	private void unparkPlayer(Player player, ParkedPlayer parked, @Nullable Throwable failure, @Nullable String command) {
+		if (!mParkedPlayers.remove(player.getUniqueId(), parked) || !player.isOnline()) {
+			// Player left while waiting
+			return;
+		}
+
+		if (failure != null) {
+			String msg = "Failed to prepare your instance: " + failure.getMessage();
+			player.sendMessage(Component.text(msg, NamedTextColor.RED));
+			mLogger.warning("Failed to prepare instance for parked player " + player.getName() + ": " + failure.getMessage());
+			return;
+		}
+
+		try {
+			if (parked.mLastWorldName == null) {
+				MonumentaWorldManagementAPI.sortWorld(player);
+			} else {
+				// Important - need to save the player's location data on the world they are parked on
+				player.saveData();
+				World world = MonumentaWorldManagementAPI.ensureWorldLoaded(parked.mLastWorldName, null);
+				MonumentaRedisSyncAPI.getPlayerWorldData(player, world).applyToPlayer(player);
+			}
+		} catch (WorldNotReadyException ex) {
+			// The world folder is ready but has to wait its turn to load
+			mLogger.fine("Parked player " + player.getName() + " is still waiting: " + ex.getMessage());
+			ParkedPlayer requeued = parkPlayer(player, ex, parked.mLastWorldName);
+			requeued.mReady.whenComplete((unused, requeueEx) -> unparkPlayer(player, requeued, requeueEx, command));
+			return;
+		} catch (Exception ex) {
+			String msg = "Failed to move you to your world: " + ex.getMessage();
+			player.sendMessage(Component.text(msg, NamedTextColor.RED));
+			mLogger.warning("Failed to move parked player " + player.getName() + " to their world: " + ex.getMessage());
+			return;
+		}
+
 		if (command != null) {
-			mLogger.fine("Running (re)join command on player=" + player.getName() + " thread=" + Thread.currentThread().getName());
-			Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(), "execute as " + player.getUniqueId() + " at @s run " + command);
+			Bukkit.getScheduler().runTaskLater(mPlugin, () -> {
+				// Note that this will run after the player has been moved to the correct world, since it runs a tick later
+				if (player.isOnline()) {
+					mLogger.fine("Running (re)join command on unparked player=" + player.getName() + " thread=" + Thread.currentThread().getName());
+					Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(), "execute as " + player.getUniqueId() + " at @s run " + command);
+				}
+			}, 1);
 		}
 	}
 
@@ -203,6 +391,10 @@ public class WorldManagementListener implements Listener {
 				lastJoinedWorlds.remove(instanceObjective);
 			} else {
 				lastJoinedWorlds.addProperty(instanceObjective, score);
+				// Offline players' scores can't be looked up later, so the instance collector remembers this one
+				if (info != null) {
+					mPlugin.getInstanceCollector().recordReference(info.getBaseWorldName() + score);
+				}
 			}
 		}
 
@@ -212,47 +404,24 @@ public class WorldManagementListener implements Listener {
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
 	public void playerChangedWorldEvent(PlayerChangedWorldEvent event) {
 		Player player = event.getPlayer();
+		if (mIdleWorldTracker != null) {
+			mIdleWorldTracker.refresh(event.getFrom());
+			mIdleWorldTracker.refresh(player.getWorld());
+		}
+
 		if (WorldManagementPlugin.getNotifyWorldPermission() != null && player.hasPermission(WorldManagementPlugin.getNotifyWorldPermission())) {
 			player.sendMessage(Component.text("Changed to world " + player.getLocation().getWorld().getName(), NamedTextColor.GREEN));
 		}
 	}
 
 	protected void reloadConfig() {
-		if (mUnloadTask != null && !mUnloadTask.isCancelled()) {
-			mUnloadTask.cancel();
-			mUnloadTask = null;
-		}
-
-		if (WorldManagementPlugin.getUnloadInactiveWorldAfterTicks() > 0) {
-			Map<UUID, Integer> worldIdleTimes = new HashMap<>();
-
-			mUnloadTask = Bukkit.getScheduler().runTaskTimer(mPlugin, () -> {
-				List<World> worlds = Bukkit.getWorlds();
-				for (int i = 1; i < worlds.size(); i++) { // Ignore the primary world
-					World world = worlds.get(i);
-
-					if (!world.getPlayers().isEmpty()) {
-						worldIdleTimes.put(world.getUID(), 0);
-					} else {
-						int idleTime = worldIdleTimes.getOrDefault(world.getUID(), 0) + 200;
-						if (idleTime > WorldManagementPlugin.getUnloadInactiveWorldAfterTicks()) {
-							mLogger.info("Unloading world '" + world.getName() + "' which has had no players for " + idleTime + " ticks");
-							MonumentaWorldManagementAPI.unloadWorld(world.getName()).whenComplete((unused, ex) -> {
-								if (ex != null) {
-									mLogger.warning("Failed to unload world '" + world.getName() + "': " + ex.getMessage());
-								} else {
-									worldIdleTimes.remove(world.getUID());
-									mLogger.info("Unloaded world " + world.getName());
-								}
-							});
-							// Even though it hasn't unloaded yet, reset its idle time so it won't attempt to unload constantly
-							worldIdleTimes.put(world.getUID(), 0);
-						} else {
-							worldIdleTimes.put(world.getUID(), idleTime);
-						}
-					}
-				}
-			}, 200, 200);
+		if (mIdleWorldTracker != null) {
+			mIdleWorldTracker.cancel();
+			mIdleWorldTracker = null;
+		}
+
+		if (WorldManagementPlugin.getUnloadInactiveWorldAfterTicks() > 0 || WorldManagementPlugin.isEvictionEnabled()) {
+			mIdleWorldTracker = new IdleWorldTracker(mPlugin, WorldManagementPlugin.getUnloadInactiveWorldAfterTicks());
 		}
 	}
 
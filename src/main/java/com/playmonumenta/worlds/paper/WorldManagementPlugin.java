@@ -2,12 +2,25 @@ package com.playmonumenta.worlds.paper;
 
 import com.playmonumenta.worlds.common.CustomLogger;
 import com.playmonumenta.worlds.common.MMLog;
+import com.playmonumenta.worlds.common.utils.BlobStore;
+import com.playmonumenta.worlds.common.utils.CopyRules;
+import com.playmonumenta.worlds.common.utils.IoThrottle;
+import com.playmonumenta.worlds.common.utils.LocalBlobStore;
+import com.playmonumenta.worlds.common.utils.TemplateCache;
+import com.playmonumenta.worlds.common.utils.WorldCopier;
+import com.playmonumenta.worlds.common.utils.WorldTrash;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,6 +33,21 @@ import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
 public class WorldManagementPlugin extends JavaPlugin {
+	public enum CopyWorldMode {
+		COMMAND,
+		BUILTIN,
+	}
+
+	/**
+	 * Classes of background file operations, each with its own {@link IoThrottle}.
+	 */
+	public enum IoClass {
+		PREGEN,
+		COPY,
+		DELETE,
+		ARCHIVE,
+	}
+
 	private static @Nullable WorldManagementPlugin INSTANCE = null;
 
 	private static @Nullable CustomLogger mLogger = null;
@@ -27,12 +55,65 @@ public class WorldManagementPlugin extends JavaPlugin {
 	private static boolean mSortWorldByScoreOnRespawn = false;
 	private static boolean mAllowInstanceAutocreation = false;
 	private static int mUnloadInactiveWorldAfterTicks = 10 * 60 * 20;
+	private static int mUnloadTickBudgetMillis = 5;
+	private static int mMaxWorldLoadsPerTick = 1;
+	private static int mWorldIndexReconcileSeconds = 300;
+	private static double mEvictionHeapHighWatermark = 0;
+	private static int mEvictionLoadedChunksHighWatermark = 0;
+	private static int mEvictionLoadedWorldsHighWatermark = 0;
+	private static int mEvictionMinIdleTicks = 60 * 20;
+	private static int mEvictionMaxPerCheck = 2;
 	private static @Nullable String mNotifyWorldPermission = "monumenta.worldmanagement.worldnotify";
 	private static String mCopyWorldCommand = "cp -a";
+	private static CopyWorldMode mCopyWorldMode = CopyWorldMode.COMMAND;
+	private static int mCopyWorldThreads = 0;
+	private static final Path TRASH_FOLDER = Paths.get(".world_trash");
+	private static int mTrashPurgeThreads = 2;
+	private static @Nullable WorldTrash mWorldTrash = null;
+	private static boolean mPregenRewriteEntityUuids = false;
+	private static int mPregenerationThreads = 1;
+	private static double mPregenSlowMspt = 35;
+	private static double mPregenPauseMspt = 45;
+	private static int mPregenSlowJoinsPerMinute = 20;
+	private static int mPregenPauseJoinsPerMinute = 60;
+	private static int mPregenSlowPlayers = 0;
+	private static int mPregenPausePlayers = 0;
+	private static int mPregenSlowDelaySeconds = 30;
+	private static int mPregenCalmSeconds = 10;
+	private static double mPoolSizingSmoothing = 0.3;
+	private static int mPoolSizingHorizonMinutes = 60;
+	private static boolean mInstanceGcEnabled = false;
+	private static int mInstanceGcRetentionDays = 30;
+	private static InstanceCollector.Action mInstanceGcAction = InstanceCollector.Action.ARCHIVE;
+	private static int mInstanceGcIntervalMinutes = 60;
+	private static int mInstanceGcMaxPerRun = 10;
+	private static List<Integer> mInstanceGcOffPeakHours = List.of();
+	private static boolean mColdStorageEnabled = false;
+	private static int mColdStorageIdleDays = 14;
+	private static String mColdStorageFolder = "cold_storage";
+	private static int mColdStorageIntervalMinutes = 60;
+	private static int mColdStorageMaxPerRun = 5;
+	private static @Nullable String mColdStorageBlobStorePath = null;
+	private static boolean mColdStorageKeepLocal = false;
+	private static boolean mColdStorageDeltaAgainstTemplate = true;
+	private static final List<String> DEFAULT_PREGEN_COPY_EXCLUDES = List.of("session.lock", "level.dat_old", "playerdata/**", "stats/**", "advancements/**");
+	private static CopyRules mDefaultPregenCopyRules = new CopyRules(List.of(), DEFAULT_PREGEN_COPY_EXCLUDES);
+	private static final Map<String, CopyRules> mPregenCopyRules = new HashMap<>();
+	private static @Nullable WorldCopier mWorldCopier = null;
+	private static int mTemplateCacheMaxMb = 0;
+	private static @Nullable TemplateCache mTemplateCache = null;
+	private static final Map<IoClass, IoThrottle> mIoThrottles = new EnumMap<>(IoClass.class);
 	private static final Map<String, ShardInfo> mShardInfoMap = new HashMap<>();
 
 	private @Nullable WorldManagementListener mListener = null;
 	private @Nullable WorldGenerator mGenerator = null;
+	private @Nullable SpawnRegionPrefetcher mSpawnRegionPrefetcher = null;
+	private @Nullable WorldUnloader mWorldUnloader = null;
+	private @Nullable WorldLoadQueue mWorldLoadQueue = null;
+	private @Nullable WorldFolderIndex mWorldFolderIndex = null;
+	private volatile @Nullable ServerLoadMonitor mServerLoadMonitor = null;
+	private @Nullable InstanceCollector mInstanceCollector = null;
+	private volatile @Nullable ColdStorage mColdStorage = null;
 
 	@Override
 	public void onLoad() {
@@ -43,6 +124,10 @@ public class WorldManagementPlugin extends JavaPlugin {
 	public void onEnable() {
 		INSTANCE = this;
 
+		// Must exist before the generator first schedules pregeneration
+		getServerLoadMonitor();
+		Bukkit.getPluginManager().registerEvents(mServerLoadMonitor, this);
+
 		getWorldGenerator();
 
 		loadConfig();
@@ -50,7 +135,12 @@ public class WorldManagementPlugin extends JavaPlugin {
 		getListener();
 		Bukkit.getPluginManager().registerEvents(mListener, this);
 
-		MonumentaWorldManagementAPI.refreshCachedAvailableWorlds();
+		getWorldFolderIndex().start();
+		getInstanceCollector().reloadConfig();
+		getColdStorage().reloadConfig();
+
+		// Resume purging anything deleted before the last shutdown
+		getWorldTrash().purgeAsync();
 	}
 
 	protected void loadConfig() {
@@ -115,6 +205,35 @@ public class WorldManagementPlugin extends JavaPlugin {
 		mUnloadInactiveWorldAfterTicks = config.getInt("unload-inactive-world-after-ticks", mUnloadInactiveWorldAfterTicks);
 		printConfig("unload-inactive-world-after-ticks", mUnloadInactiveWorldAfterTicks);
 
+		mUnloadTickBudgetMillis = config.getInt("unload-tick-budget-ms", mUnloadTickBudgetMillis);
+		printConfig("unload-tick-budget-ms", mUnloadTickBudgetMillis);
+
+		mMaxWorldLoadsPerTick = config.getInt("max-world-loads-per-tick", mMaxWorldLoadsPerTick);
+		printConfig("max-world-loads-per-tick", mMaxWorldLoadsPerTick);
+
+		mWorldIndexReconcileSeconds = config.getInt("world-index-reconcile-seconds", mWorldIndexReconcileSeconds);
+		printConfig("world-index-reconcile-seconds", mWorldIndexReconcileSeconds);
+
+		ConfigurationSection evictionConfig = config.getConfigurationSection("eviction");
+		if (evictionConfig == null) {
+			printConfig("eviction", null);
+			mEvictionHeapHighWatermark = 0;
+			mEvictionLoadedChunksHighWatermark = 0;
+			mEvictionLoadedWorldsHighWatermark = 0;
+		} else {
+			printConfigHeader("eviction");
+			mEvictionHeapHighWatermark = evictionConfig.getDouble("heap-high-watermark", 0);
+			printConfig("  heap-high-watermark", mEvictionHeapHighWatermark);
+			mEvictionLoadedChunksHighWatermark = evictionConfig.getInt("loaded-chunks-high-watermark", 0);
+			printConfig("  loaded-chunks-high-watermark", mEvictionLoadedChunksHighWatermark);
+			mEvictionLoadedWorldsHighWatermark = evictionConfig.getInt("loaded-worlds-high-watermark", 0);
+			printConfig("  loaded-worlds-high-watermark", mEvictionLoadedWorldsHighWatermark);
+			mEvictionMinIdleTicks = evictionConfig.getInt("min-idle-ticks", mEvictionMinIdleTicks);
+			printConfig("  min-idle-ticks", mEvictionMinIdleTicks);
+			mEvictionMaxPerCheck = evictionConfig.getInt("max-evictions-per-check", mEvictionMaxPerCheck);
+			printConfig("  max-evictions-per-check", mEvictionMaxPerCheck);
+		}
+
 		mNotifyWorldPermission = config.getString("notify-world-permission", mNotifyWorldPermission);
 		if (mNotifyWorldPermission != null && (mNotifyWorldPermission.equals("null") || mNotifyWorldPermission.isEmpty())) {
 			mNotifyWorldPermission = null;
@@ -124,12 +243,229 @@ public class WorldManagementPlugin extends JavaPlugin {
 		mCopyWorldCommand = config.getString("copy-world-command", mCopyWorldCommand);
 		printConfig("copy-world-command", mCopyWorldCommand);
 
+		String copyWorldMode = config.getString("copy-world-mode", mCopyWorldMode.name().toLowerCase());
+		try {
+			mCopyWorldMode = CopyWorldMode.valueOf(copyWorldMode.toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			getLogger().warning("copy-world-mode=" + copyWorldMode + " is invalid - defaulting to command");
+			mCopyWorldMode = CopyWorldMode.COMMAND;
+		}
+		printConfig("copy-world-mode", mCopyWorldMode.name().toLowerCase());
+
+		int copyWorldThreads = config.getInt("copy-world-threads", mCopyWorldThreads);
+		synchronized (WorldManagementPlugin.class) {
+			if (copyWorldThreads != mCopyWorldThreads && mWorldCopier != null) {
+				// Copies in progress finish on the old pool; new copies get a pool of the new size
+				mWorldCopier.shutdown();
+				mWorldCopier = null;
+			}
+			mCopyWorldThreads = copyWorldThreads;
+		}
+		printConfig("copy-world-threads", mCopyWorldThreads);
+
+		int trashPurgeThreads = config.getInt("trash-purge-threads", mTrashPurgeThreads);
+		synchronized (WorldManagementPlugin.class) {
+			WorldTrash oldTrash = mWorldTrash;
+			boolean replaceTrash = trashPurgeThreads != mTrashPurgeThreads && oldTrash != null;
+			if (replaceTrash) {
+				// A purge in progress finishes on the old pool; the new pool picks up anything it left behind
+				oldTrash.shutdown();
+				mWorldTrash = null;
+			}
+			mTrashPurgeThreads = trashPurgeThreads;
+			if (replaceTrash) {
+				getWorldTrash().purgeAsync();
+			}
+		}
+		printConfig("trash-purge-threads", mTrashPurgeThreads);
+
+		mPregenRewriteEntityUuids = config.getBoolean("pregen-rewrite-entity-uuids", mPregenRewriteEntityUuids);
+		printConfig("pregen-rewrite-entity-uuids", mPregenRewriteEntityUuids);
+		if (mPregenRewriteEntityUuids && mCopyWorldMode != CopyWorldMode.BUILTIN) {
+			getLogger().warning("pregen-rewrite-entity-uuids requires copy-world-mode: builtin and will be ignored");
+		}
+
+		mPregenerationThreads = config.getInt("pregeneration-threads", mPregenerationThreads);
+		printConfig("pregeneration-threads", mPregenerationThreads);
+
+		ConfigurationSection pregenSchedulingConfig = config.getConfigurationSection("pregen-scheduling");
+		if (pregenSchedulingConfig == null) {
+			printConfig("pregen-scheduling", null);
+		} else {
+			printConfigHeader("pregen-scheduling");
+			mPregenSlowMspt = pregenSchedulingConfig.getDouble("slow-mspt", mPregenSlowMspt);
+			printConfig("  slow-mspt", mPregenSlowMspt);
+			mPregenPauseMspt = pregenSchedulingConfig.getDouble("pause-mspt", mPregenPauseMspt);
+			printConfig("  pause-mspt", mPregenPauseMspt);
+			mPregenSlowJoinsPerMinute = pregenSchedulingConfig.getInt("slow-joins-per-minute", mPregenSlowJoinsPerMinute);
+			printConfig("  slow-joins-per-minute", mPregenSlowJoinsPerMinute);
+			mPregenPauseJoinsPerMinute = pregenSchedulingConfig.getInt("pause-joins-per-minute", mPregenPauseJoinsPerMinute);
+			printConfig("  pause-joins-per-minute", mPregenPauseJoinsPerMinute);
+			mPregenSlowPlayers = pregenSchedulingConfig.getInt("slow-players", mPregenSlowPlayers);
+			printConfig("  slow-players", mPregenSlowPlayers);
+			mPregenPausePlayers = pregenSchedulingConfig.getInt("pause-players", mPregenPausePlayers);
+			printConfig("  pause-players", mPregenPausePlayers);
+			mPregenSlowDelaySeconds = pregenSchedulingConfig.getInt("slow-delay-seconds", mPregenSlowDelaySeconds);
+			printConfig("  slow-delay-seconds", mPregenSlowDelaySeconds);
+			mPregenCalmSeconds = pregenSchedulingConfig.getInt("calm-seconds", mPregenCalmSeconds);
+			printConfig("  calm-seconds", mPregenCalmSeconds);
+		}
+
+		ConfigurationSection poolSizingConfig = config.getConfigurationSection("pool-sizing");
+		if (poolSizingConfig == null) {
+			printConfig("pool-sizing", null);
+		} else {
+			printConfigHeader("pool-sizing");
+			mPoolSizingSmoothing = Math.max(0.01, Math.min(1.0, poolSizingConfig.getDouble("smoothing", mPoolSizingSmoothing)));
+			printConfig("  smoothing", mPoolSizingSmoothing);
+			mPoolSizingHorizonMinutes = poolSizingConfig.getInt("horizon-minutes", mPoolSizingHorizonMinutes);
+			printConfig("  horizon-minutes", mPoolSizingHorizonMinutes);
+		}
+
+		ConfigurationSection instanceGcConfig = config.getConfigurationSection("instance-gc");
+		if (instanceGcConfig == null) {
+			printConfig("instance-gc", null);
+			mInstanceGcEnabled = false;
+		} else {
+			printConfigHeader("instance-gc");
+			mInstanceGcEnabled = instanceGcConfig.getBoolean("enabled", false);
+			printConfig("  enabled", mInstanceGcEnabled);
+			mInstanceGcRetentionDays = instanceGcConfig.getInt("retention-days", mInstanceGcRetentionDays);
+			printConfig("  retention-days", mInstanceGcRetentionDays);
+			String action = instanceGcConfig.getString("action", mInstanceGcAction.name().toLowerCase());
+			try {
+				mInstanceGcAction = InstanceCollector.Action.valueOf(action.toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				getLogger().warning("instance-gc.action=" + action + " is invalid - defaulting to archive");
+				mInstanceGcAction = InstanceCollector.Action.ARCHIVE;
+			}
+			printConfig("  action", mInstanceGcAction.name().toLowerCase());
+			mInstanceGcIntervalMinutes = instanceGcConfig.getInt("interval-minutes", mInstanceGcIntervalMinutes);
+			printConfig("  interval-minutes", mInstanceGcIntervalMinutes);
+			mInstanceGcMaxPerRun = instanceGcConfig.getInt("max-per-run", mInstanceGcMaxPerRun);
+			printConfig("  max-per-run", mInstanceGcMaxPerRun);
+			mInstanceGcOffPeakHours = instanceGcConfig.getIntegerList("off-peak-hours");
+			printConfig("  off-peak-hours", mInstanceGcOffPeakHours);
+		}
+		if (mInstanceGcEnabled && mInstanceGcRetentionDays <= 0) {
+			getLogger().warning("instance-gc.retention-days must be positive, instance-gc will be disabled");
+			mInstanceGcEnabled = false;
+		}
+
+		ConfigurationSection coldStorageConfig = config.getConfigurationSection("cold-storage");
+		if (coldStorageConfig == null) {
+			printConfig("cold-storage", null);
+			mColdStorageEnabled = false;
+		} else {
+			printConfigHeader("cold-storage");
+			mColdStorageEnabled = coldStorageConfig.getBoolean("enabled", false);
+			printConfig("  enabled", mColdStorageEnabled);
+			mColdStorageIdleDays = coldStorageConfig.getInt("idle-days", mColdStorageIdleDays);
+			printConfig("  idle-days", mColdStorageIdleDays);
+			mColdStorageFolder = coldStorageConfig.getString("folder", mColdStorageFolder);
+			printConfig("  folder", mColdStorageFolder);
+			mColdStorageIntervalMinutes = coldStorageConfig.getInt("interval-minutes", mColdStorageIntervalMinutes);
+			printConfig("  interval-minutes", mColdStorageIntervalMinutes);
+			mColdStorageMaxPerRun = coldStorageConfig.getInt("max-per-run", mColdStorageMaxPerRun);
+			printConfig("  max-per-run", mColdStorageMaxPerRun);
+			mColdStorageDeltaAgainstTemplate = coldStorageConfig.getBoolean("delta-against-template", mColdStorageDeltaAgainstTemplate);
+			printConfig("  delta-against-template", mColdStorageDeltaAgainstTemplate);
+			ConfigurationSection blobStoreConfig = coldStorageConfig.getConfigurationSection("blob-store");
+			String blobStoreType = blobStoreConfig == null ? "none" : blobStoreConfig.getString("type", "none");
+			if (blobStoreConfig == null || blobStoreType.equalsIgnoreCase("none")) {
+				mColdStorageBlobStorePath = null;
+				printConfig("  blob-store", null);
+			} else if (blobStoreType.equalsIgnoreCase("local")) {
+				printConfigHeader("  blob-store");
+				mColdStorageBlobStorePath = blobStoreConfig.getString("path", null);
+				printConfig("    path", mColdStorageBlobStorePath);
+				mColdStorageKeepLocal = blobStoreConfig.getBoolean("keep-local", false);
+				printConfig("    keep-local", mColdStorageKeepLocal);
+			} else {
+				getLogger().warning("cold-storage.blob-store.type=" + blobStoreType + " is invalid - no blob store will be used");
+				mColdStorageBlobStorePath = null;
+			}
+		}
+		if (mColdStorageEnabled && mColdStorageIdleDays <= 0) {
+			getLogger().warning("cold-storage.idle-days must be positive, cold-storage will be disabled");
+			mColdStorageEnabled = false;
+		}
+
+		ConfigurationSection ioThrottleConfig = config.getConfigurationSection("io-throttle");
+		if (ioThrottleConfig == null) {
+			printConfig("io-throttle", null);
+		} else {
+			printConfigHeader("io-throttle");
+		}
+		for (IoClass ioClass : IoClass.values()) {
+			String key = ioClass.name().toLowerCase();
+			ConfigurationSection classConfig = ioThrottleConfig == null ? null : ioThrottleConfig.getConfigurationSection(key);
+			double mibPerSecond = classConfig == null ? 0 : classConfig.getDouble("mib-per-second", 0);
+			double opsPerSecond = classConfig == null ? 0 : classConfig.getDouble("ops-per-second", 0);
+			IoThrottle throttle = getIoThrottle(ioClass);
+			throttle.setLimits(mibPerSecond * 1048576.0, opsPerSecond);
+			if (ioThrottleConfig != null) {
+				printConfig("  " + key, throttle);
+			}
+		}
+
+		int templateCacheMaxMb = config.getInt("template-cache-max-mb", mTemplateCacheMaxMb);
+		synchronized (WorldManagementPlugin.class) {
+			if (templateCacheMaxMb != mTemplateCacheMaxMb && mTemplateCache != null) {
+				mTemplateCache.clear();
+				mTemplateCache = null;
+			}
+			mTemplateCacheMaxMb = templateCacheMaxMb;
+		}
+		printConfig("template-cache-max-mb", mTemplateCacheMaxMb);
+		if (mTemplateCacheMaxMb > 0 && mCopyWorldMode != CopyWorldMode.BUILTIN) {
+			getLogger().warning("template-cache-max-mb requires copy-world-mode: builtin and will be ignored");
+		}
+
+		ConfigurationSection copyRulesConfig = config.getConfigurationSection("pregen-copy-rules");
+		mDefaultPregenCopyRules = new CopyRules(List.of(), DEFAULT_PREGEN_COPY_EXCLUDES);
+		mPregenCopyRules.clear();
+		if (copyRulesConfig == null) {
+			printConfig("pregen-copy-rules", mDefaultPregenCopyRules);
+		} else {
+			printConfigHeader("pregen-copy-rules");
+			for (String templateName : copyRulesConfig.getKeys(false)) {
+				ConfigurationSection templateConfig = copyRulesConfig.getConfigurationSection(templateName);
+				if (templateConfig == null) {
+					continue;
+				}
+				try {
+					CopyRules rules = new CopyRules(templateConfig.getStringList("include"), templateConfig.getStringList("exclude"));
+					if (templateName.equals("default")) {
+						mDefaultPregenCopyRules = rules;
+					} else {
+						mPregenCopyRules.put(templateName, rules);
+					}
+					printConfig("  " + templateName, rules);
+				} catch (IllegalArgumentException ex) {
+					getLogger().warning("pregen-copy-rules." + templateName + " has an invalid pattern and will be ignored: " + ex.getMessage());
+				}
+			}
+		}
+
 		reload();
 	}
 
 	public void reload() {
 		getListener().reloadConfig();
 		getWorldGenerator().reloadConfig();
+		getSpawnRegionPrefetcher().reloadConfig();
+		if (mWorldFolderIndex != null) {
+			// Not started until onEnable finishes
+			mWorldFolderIndex.reloadConfig();
+		}
+		if (mInstanceCollector != null) {
+			// Not started until onEnable finishes
+			mInstanceCollector.reloadConfig();
+		}
+		if (mColdStorage != null) {
+			mColdStorage.reloadConfig();
+		}
 	}
 
 	protected void printConfigHeader(String configKey) {
@@ -171,6 +507,10 @@ public class WorldManagementPlugin extends JavaPlugin {
 		return mShardInfoMap.get(shardName);
 	}
 
+	public static Collection<ShardInfo> getShardInfos() {
+		return Collections.unmodifiableCollection(mShardInfoMap.values());
+	}
+
 	public static Map<String, Integer> getPregeneratedInstanceLimits() {
 		// TODO Expose an unmodifiable map so the world generator can handle this part
 		Map<String, Integer> templatePregenLimits = new HashMap<>();
@@ -188,10 +528,82 @@ public class WorldManagementPlugin extends JavaPlugin {
 		return templatePregenLimits;
 	}
 
+	/**
+	 * The smallest each template's pregenerated pool may shrink to, where pools are sized by demand between these and
+	 * {@link #getPregeneratedInstanceLimits()}.
+	 */
+	public static Map<String, Integer> getPregeneratedInstanceMinimums() {
+		Map<String, Integer> templatePregenMinimums = new HashMap<>();
+		for (ShardInfo shardInfo : mShardInfoMap.values()) {
+			int shardPregenMin = shardInfo.getPregeneratedInstancesMin();
+			if (shardInfo.getPregeneratedInstances() > 0) {
+				for (String template : shardInfo.getVariantTemplates()) {
+					Integer oldMin = templatePregenMinimums.get(template);
+					if (oldMin == null || oldMin < shardPregenMin) {
+						templatePregenMinimums.put(template, shardPregenMin);
+					}
+				}
+			}
+		}
+		return templatePregenMinimums;
+	}
+
+	public static Map<String, Integer> getSpawnRegionPrefetchLimits() {
+		Map<String, Integer> templatePrefetchLimits = new HashMap<>();
+		for (ShardInfo shardInfo : mShardInfoMap.values()) {
+			int shardPrefetchLimit = shardInfo.getPrefetchSpawnRegions();
+			if (shardPrefetchLimit > 0) {
+				for (String template : shardInfo.getVariantTemplates()) {
+					Integer oldLimit = templatePrefetchLimits.get(template);
+					if (oldLimit == null || oldLimit < shardPrefetchLimit) {
+						templatePrefetchLimits.put(template, shardPrefetchLimit);
+					}
+				}
+			}
+		}
+		return templatePrefetchLimits;
+	}
+
 	public static int getUnloadInactiveWorldAfterTicks() {
 		return mUnloadInactiveWorldAfterTicks;
 	}
 
+	public static int getUnloadTickBudgetMillis() {
+		return mUnloadTickBudgetMillis;
+	}
+
+	public static int getMaxWorldLoadsPerTick() {
+		return mMaxWorldLoadsPerTick;
+	}
+
+	public static int getWorldIndexReconcileSeconds() {
+		return mWorldIndexReconcileSeconds;
+	}
+
+	public static boolean isEvictionEnabled() {
+		return mEvictionHeapHighWatermark > 0 || mEvictionLoadedChunksHighWatermark > 0 || mEvictionLoadedWorldsHighWatermark > 0;
+	}
+
+	public static double getEvictionHeapHighWatermark() {
+		return mEvictionHeapHighWatermark;
+	}
+
+	public static int getEvictionLoadedChunksHighWatermark() {
+		return mEvictionLoadedChunksHighWatermark;
+	}
+
+	public static int getEvictionLoadedWorldsHighWatermark() {
+		return mEvictionLoadedWorldsHighWatermark;
+	}
+
+	public static int getEvictionMinIdleTicks() {
+		return mEvictionMinIdleTicks;
+	}
+
+	public static int getEvictionMaxPerCheck() {
+		return mEvictionMaxPerCheck;
+	}
+
 	public static @Nullable String getNotifyWorldPermission() {
 		return mNotifyWorldPermission;
 	}
@@ -200,8 +612,192 @@ public class WorldManagementPlugin extends JavaPlugin {
 		return mCopyWorldCommand;
 	}
 
+	public static CopyWorldMode getCopyWorldMode() {
+		return mCopyWorldMode;
+	}
+
+	public static boolean isPregenRewriteEntityUuids() {
+		return mPregenRewriteEntityUuids && mCopyWorldMode == CopyWorldMode.BUILTIN;
+	}
+
+	public static int getPregenerationThreads() {
+		return mPregenerationThreads;
+	}
+
+	public static double getPregenSlowMspt() {
+		return mPregenSlowMspt;
+	}
+
+	public static double getPregenPauseMspt() {
+		return mPregenPauseMspt;
+	}
+
+	public static int getPregenSlowJoinsPerMinute() {
+		return mPregenSlowJoinsPerMinute;
+	}
+
+	public static int getPregenPauseJoinsPerMinute() {
+		return mPregenPauseJoinsPerMinute;
+	}
+
+	public static int getPregenSlowPlayers() {
+		return mPregenSlowPlayers;
+	}
+
+	public static int getPregenPausePlayers() {
+		return mPregenPausePlayers;
+	}
+
+	public static int getPregenSlowDelaySeconds() {
+		return mPregenSlowDelaySeconds;
+	}
+
+	public static int getPregenCalmSeconds() {
+		return mPregenCalmSeconds;
+	}
+
+	public static double getPoolSizingSmoothing() {
+		return mPoolSizingSmoothing;
+	}
+
+	public static int getPoolSizingHorizonMinutes() {
+		return mPoolSizingHorizonMinutes;
+	}
+
+	public static boolean isInstanceGcEnabled() {
+		return mInstanceGcEnabled;
+	}
+
+	public static int getInstanceGcRetentionDays() {
+		return mInstanceGcRetentionDays;
+	}
+
+	public static InstanceCollector.Action getInstanceGcAction() {
+		return mInstanceGcAction;
+	}
+
+	public static int getInstanceGcIntervalMinutes() {
+		return mInstanceGcIntervalMinutes;
+	}
+
+	public static int getInstanceGcMaxPerRun() {
+		return mInstanceGcMaxPerRun;
+	}
+
+	public static List<Integer> getInstanceGcOffPeakHours() {
+		return mInstanceGcOffPeakHours;
+	}
+
+	public static boolean isColdStorageEnabled() {
+		return mColdStorageEnabled;
+	}
+
+	public static int getColdStorageIdleDays() {
+		return mColdStorageIdleDays;
+	}
+
+	public static int getColdStorageIntervalMinutes() {
+		return mColdStorageIntervalMinutes;
+	}
+
+	public static int getColdStorageMaxPerRun() {
+		return mColdStorageMaxPerRun;
+	}
+
+	public static boolean isColdStorageDeltaAgainstTemplate() {
+		return mColdStorageDeltaAgainstTemplate;
+	}
+
+	/**
+	 * The rules selecting which files of a template are copied into its pregenerated instances.
+	 */
+	public static CopyRules getPregenCopyRules(String templateName) {
+		CopyRules templateRules = mPregenCopyRules.get(templateName);
+		return templateRules == null ? mDefaultPregenCopyRules : mDefaultPregenCopyRules.merge(templateRules);
+	}
+
+	public static synchronized WorldCopier getWorldCopier() {
+		if (mWorldCopier == null) {
+			mWorldCopier = new WorldCopier(mCopyWorldThreads);
+		}
+		return mWorldCopier;
+	}
+
+	/**
+	 * Where deleted worlds go until they are purged in the background.
+	 */
+	public static synchronized WorldTrash getWorldTrash() {
+		if (mWorldTrash == null) {
+			mWorldTrash = new WorldTrash(TRASH_FOLDER, getIoThrottle(IoClass.DELETE), mTrashPurgeThreads);
+		}
+		return mWorldTrash;
+	}
+
+	/**
+	 * The cache of template contents used for pregeneration, or null if template-cache-max-mb is disabled.
+	 */
+	public static synchronized @Nullable TemplateCache getTemplateCache() {
+		if (mTemplateCacheMaxMb <= 0 || mCopyWorldMode != CopyWorldMode.BUILTIN) {
+			return null;
+		}
+		if (mTemplateCache == null) {
+			mTemplateCache = new TemplateCache(mTemplateCacheMaxMb * 1024L * 1024L);
+		}
+		return mTemplateCache;
+	}
+
+	/**
+	 * The throttle for a class of background file operations. Its limits may be changed live, until the config is reloaded.
+	 */
+	public static IoThrottle getIoThrottle(IoClass ioClass) {
+		synchronized (mIoThrottles) {
+			return mIoThrottles.computeIfAbsent(ioClass, (unused) -> new IoThrottle(0, 0));
+		}
+	}
+
+	/**
+	 * The builtin world copier, throttled for the given class of operation.
+	 */
+	public static WorldCopier getWorldCopier(IoClass ioClass) {
+		return getWorldCopier().throttled(getIoThrottle(ioClass));
+	}
+
 	@Override
 	public void onDisable() {
+		if (mWorldFolderIndex != null) {
+			mWorldFolderIndex.stop();
+		}
+		if (mServerLoadMonitor != null) {
+			mServerLoadMonitor.cancel();
+			mServerLoadMonitor = null;
+		}
+		if (mInstanceCollector != null) {
+			mInstanceCollector.cancel();
+			mInstanceCollector.save();
+		}
+		if (mColdStorage != null) {
+			mColdStorage.cancel();
+			mColdStorage = null;
+		}
+		if (mGenerator != null) {
+			mGenerator.saveManifest();
+			mGenerator.savePoolDemand();
+		}
+		synchronized (WorldManagementPlugin.class) {
+			if (mWorldCopier != null) {
+				mWorldCopier.shutdownNow();
+				mWorldCopier = null;
+			}
+			if (mTemplateCache != null) {
+				mTemplateCache.clear();
+				mTemplateCache = null;
+			}
+			// Whatever is left in the trash is purged on the next start
+			if (mWorldTrash != null) {
+				mWorldTrash.shutdownNow();
+				mWorldTrash = null;
+			}
+		}
 		INSTANCE = null;
 	}
 
@@ -239,4 +835,66 @@ public class WorldManagementPlugin extends JavaPlugin {
 		}
 		return mGenerator;
 	}
+
+	protected SpawnRegionPrefetcher getSpawnRegionPrefetcher() {
+		if (mSpawnRegionPrefetcher == null) {
+			mSpawnRegionPrefetcher = new SpawnRegionPrefetcher(this);
+		}
+		return mSpawnRegionPrefetcher;
+	}
+
+	protected WorldUnloader getWorldUnloader() {
+		if (mWorldUnloader == null) {
+			mWorldUnloader = new WorldUnloader(this);
+		}
+		return mWorldUnloader;
+	}
+
+	protected WorldLoadQueue getWorldLoadQueue() {
+		if (mWorldLoadQueue == null) {
+			mWorldLoadQueue = new WorldLoadQueue(this);
+		}
+		return mWorldLoadQueue;
+	}
+
+	/**
+	 * How busy the server currently is, for pacing background work. Safe from any thread.
+	 */
+	public static ServerLoadMonitor.Load getServerLoad() {
+		WorldManagementPlugin plugin = INSTANCE;
+		ServerLoadMonitor monitor = plugin == null ? null : plugin.mServerLoadMonitor;
+		return monitor == null ? ServerLoadMonitor.Load.IDLE : monitor.getLoad();
+	}
+
+	protected ServerLoadMonitor getServerLoadMonitor() {
+		if (mServerLoadMonitor == null) {
+			mServerLoadMonitor = new ServerLoadMonitor(this);
+		}
+		return mServerLoadMonitor;
+	}
+
+	protected InstanceCollector getInstanceCollector() {
+		if (mInstanceCollector == null) {
+			mInstanceCollector = new InstanceCollector(this);
+		}
+		return mInstanceCollector;
+	}
+
+	/**
+	 * The folder and blob store are only read when this is first created, so changing them needs a restart.
+	 */
+	protected ColdStorage getColdStorage() {
+		if (mColdStorage == null) {
+			BlobStore blobStore = mColdStorageBlobStorePath == null ? null : new LocalBlobStore(Paths.get(mColdStorageBlobStorePath));
+			mColdStorage = new ColdStorage(this, Paths.get(mColdStorageFolder), blobStore, mColdStorageKeepLocal);
+		}
+		return mColdStorage;
+	}
+
+	protected WorldFolderIndex getWorldFolderIndex() {
+		if (mWorldFolderIndex == null) {
+			mWorldFolderIndex = new WorldFolderIndex(this);
+		}
+		return mWorldFolderIndex;
+	}
 }
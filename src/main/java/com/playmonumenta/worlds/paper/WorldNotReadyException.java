@@ -0,0 +1,30 @@
+package com.playmonumenta.worlds.paper;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thrown when a world can't be provided right now, but has been queued and will become available later.
+ * <p>
+ * The future completes on the main thread once the world can be provided, either because its folder is in place or
+ * because it has been loaded from the world load queue. Retrying then will succeed, or at worst queue it again.
+ */
+public class WorldNotReadyException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final String mWorldName;
+	private final transient CompletableFuture<Void> mReady;
+
+	public WorldNotReadyException(String message, String worldName, CompletableFuture<Void> ready) {
+		super(message);
+		mWorldName = worldName;
+		mReady = ready;
+	}
+
+	public String getWorldName() {
+		return mWorldName;
+	}
+
+	public CompletableFuture<Void> getReadyFuture() {
+		return mReady;
+	}
+}
@@ -0,0 +1,146 @@
+package com.playmonumenta.worlds.paper;
+
+import com.playmonumenta.worlds.common.MMLog;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Unloads worlds incrementally, saving and unloading their chunks over several ticks.
+ * <p>
+ * Unloads are queued and processed in order. Each tick, at most unload-tick-budget-ms of unload work is done
+ * across all queued worlds, so unloading many worlds at once doesn't cause a lag spike.
+ * <p>
+ * Everything here runs on the main thread.
+ */
+public class WorldUnloader {
+	private static class UnloadJob {
+		public final String mWorldName;
+		public final UUID mWorldId;
+		public final CompletableFuture<Void> mFuture = new CompletableFuture<>();
+		public boolean mStarted = false;
+		// Chunks loaded when the current pass started, and how far through them it has got; kept across ticks
+		public @Nullable Chunk[] mChunks = null;
+		public int mNextChunk = 0;
+		public boolean mMadeProgress = false;
+
+		public UnloadJob(World world) {
+			mWorldName = world.getName();
+			mWorldId = world.getUID();
+		}
+	}
+
+	private final WorldManagementPlugin mPlugin;
+	private final ArrayDeque<UnloadJob> mQueue = new ArrayDeque<>();
+	private final Map<UUID, UnloadJob> mJobs = new HashMap<>();
+	private @Nullable BukkitTask mTask = null;
+
+	protected WorldUnloader(WorldManagementPlugin plugin) {
+		mPlugin = plugin;
+	}
+
+	/**
+	 * Queues a world to be unloaded. The caller is responsible for checking the world may be unloaded.
+	 * <p>
+	 * The future completes once the world has been saved and fully unloaded, or fails if players enter it first.
+	 * Unloading a world that is already queued returns the existing future.
+	 */
+	public CompletableFuture<Void> unload(World world) {
+		UnloadJob job = mJobs.get(world.getUID());
+		if (job != null) {
+			return job.mFuture;
+		}
+
+		job = new UnloadJob(world);
+		mJobs.put(job.mWorldId, job);
+		mQueue.add(job);
+		if (mTask == null) {
+			mTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::tick, 1, 1);
+		}
+		return job.mFuture;
+	}
+
+	public boolean isUnloading(World world) {
+		return mJobs.containsKey(world.getUID());
+	}
+
+	public int queuedUnloads() {
+		return mQueue.size();
+	}
+
+	private void tick() {
+		long deadline = System.nanoTime() + WorldManagementPlugin.getUnloadTickBudgetMillis() * 1_000_000L;
+
+		while (!mQueue.isEmpty() && System.nanoTime() < deadline) {
+			UnloadJob job = mQueue.peek();
+			World world = Bukkit.getWorld(job.mWorldId);
+			if (world == null) {
+				// Something else unloaded it
+				finish(job, null);
+				continue;
+			}
+
+			if (!world.getPlayers().isEmpty()) {
+				finish(job, new Exception("Can't unload world '" + job.mWorldName + "' because players entered it while it was unloading"));
+				continue;
+			}
+
+			if (!job.mStarted) {
+				job.mStarted = true;
+				world.setKeepSpawnInMemory(false);
+				MMLog.fine("Started unloading chunks of world " + job.mWorldName);
+			}
+
+			// Save and unload chunks until out of time; chunks that refuse to unload are left for Bukkit.unloadWorld()
+			Chunk[] chunks = job.mChunks;
+			if (chunks == null) {
+				chunks = world.getLoadedChunks();
+				job.mChunks = chunks;
+				job.mNextChunk = 0;
+				job.mMadeProgress = false;
+			}
+			while (job.mNextChunk < chunks.length) {
+				if (System.nanoTime() >= deadline) {
+					return;
+				}
+				Chunk chunk = chunks[job.mNextChunk++];
+				if (world.unloadChunk(chunk.getX(), chunk.getZ(), true)) {
+					job.mMadeProgress = true;
+				}
+			}
+			job.mChunks = null;
+			if (chunks.length > 0 && job.mMadeProgress) {
+				// Start another pass in case more chunks were loaded during this one
+				continue;
+			}
+
+			if (Bukkit.unloadWorld(world, true)) {
+				finish(job, null);
+			} else {
+				finish(job, new Exception("Unloading world '" + job.mWorldName + "' failed, unknown reason"));
+			}
+		}
+
+		if (mQueue.isEmpty() && mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+
+	private void finish(UnloadJob job, @Nullable Exception failure) {
+		mQueue.remove(job);
+		mJobs.remove(job.mWorldId);
+		if (failure == null) {
+			job.mFuture.complete(null);
+		} else {
+			job.mFuture.completeExceptionally(failure);
+		}
+	}
+}
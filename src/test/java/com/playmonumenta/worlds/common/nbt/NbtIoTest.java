@@ -0,0 +1,116 @@
+package com.playmonumenta.worlds.common.nbt;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+public class NbtIoTest {
+	static NbtCompound everyTagType() {
+		NbtCompound nested = new NbtCompound();
+		nested.put("name", "nested");
+		nested.put("empty", new NbtCompound());
+
+		NbtList doubles = new NbtList(NbtIo.TAG_DOUBLE);
+		doubles.add(1.5);
+		doubles.add(-64.0);
+		NbtList compounds = new NbtList(NbtIo.TAG_COMPOUND);
+		compounds.add(nested);
+
+		NbtCompound root = new NbtCompound();
+		root.put("byte", (byte) -3);
+		root.put("short", (short) 1234);
+		root.put("int", 0x12345678);
+		root.put("long", Long.MIN_VALUE);
+		root.put("float", 0.25f);
+		root.put("double", Math.PI);
+		root.put("bytes", new byte[] {0, 1, -1, 127});
+		root.put("string", "\u00e9t\u00e9 \u2603");
+		root.put("doubles", doubles);
+		root.put("compounds", compounds);
+		root.put("emptyList", new NbtList(NbtIo.TAG_END));
+		root.put("nested", nested);
+		root.put("ints", new int[] {1, -2, Integer.MAX_VALUE});
+		root.put("longs", new long[] {3L, -4L});
+		return root;
+	}
+
+	static byte[] write(NbtCompound root) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			NbtIo.writeRoot(out, "", root);
+		}
+		return bytes.toByteArray();
+	}
+
+	static NbtCompound read(byte[] bytes) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			return NbtIo.readRoot(in);
+		}
+	}
+
+	@Test
+	public void roundTripIsByteIdentical() throws IOException {
+		byte[] written = write(everyTagType());
+		assertArrayEquals(written, write(read(written)));
+	}
+
+	@Test
+	public void readsBackEveryTagType() throws IOException {
+		NbtCompound root = read(write(everyTagType()));
+
+		assertEquals((byte) -3, root.get("byte"));
+		assertEquals((short) 1234, root.get("short"));
+		assertEquals(0x12345678, root.get("int"));
+		assertEquals(Long.MIN_VALUE, root.get("long"));
+		assertEquals(0.25f, root.get("float"));
+		assertEquals(Math.PI, root.get("double"));
+		assertArrayEquals(new byte[] {0, 1, -1, 127}, (byte[]) root.get("bytes"));
+		assertEquals("\u00e9t\u00e9 \u2603", root.get("string"));
+		assertArrayEquals(new int[] {1, -2, Integer.MAX_VALUE}, root.getIntArray("ints"));
+		assertArrayEquals(new long[] {3L, -4L}, (long[]) root.get("longs"));
+
+		NbtList doubles = root.getList("doubles");
+		assertEquals(NbtIo.TAG_DOUBLE, doubles.getElementType());
+		assertEquals(-64.0, doubles.get(1));
+		assertEquals(NbtIo.TAG_END, root.getList("emptyList").getElementType());
+		assertEquals("nested", ((NbtCompound) root.getList("compounds").get(0)).get("name"));
+		assertEquals(0, root.getCompound("nested").getCompound("empty").size());
+	}
+
+	@Test
+	public void keepsKeyOrder() throws IOException {
+		NbtCompound root = new NbtCompound();
+		root.put("z", 1);
+		root.put("a", 2);
+		root.put("m", 3);
+		String keys = String.join(",", read(write(root)).entrySet().stream().map(entry -> entry.getKey()).toList());
+		assertEquals("z,a,m", keys);
+	}
+
+	@Test
+	public void rejectsNonCompoundRoot() {
+		byte[] bytes = {NbtIo.TAG_INT, 0, 0, 0, 0, 0, 1};
+		assertThrows(IOException.class, () -> read(bytes));
+	}
+
+	@Test
+	public void rejectsNegativeLengths() {
+		byte[] bytes = {NbtIo.TAG_COMPOUND, 0, 0, NbtIo.TAG_BYTE_ARRAY, 0, 1, 'a', -1, -1, -1, -1};
+		assertThrows(IOException.class, () -> read(bytes));
+	}
+
+	@Test
+	public void rejectsMismatchedListElements() {
+		NbtList list = new NbtList(NbtIo.TAG_INT);
+		assertThrows(IllegalArgumentException.class, () -> list.add("not an int"));
+		assertTrue(list.values().isEmpty());
+	}
+}
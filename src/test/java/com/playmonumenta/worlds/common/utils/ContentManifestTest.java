@@ -0,0 +1,105 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ContentManifestTest {
+	// SHA-256 of "hello"
+	private static final String HELLO_HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+	@TempDir
+	Path mTemp;
+
+	private Path write(String relativePath, String contents) throws IOException {
+		Path file = mTemp.resolve("world").resolve(relativePath);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, contents, StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000));
+		return file;
+	}
+
+	@Test
+	public void listsEveryFileWithItsHash() throws IOException {
+		write("level.dat", "hello");
+		write("region/r.0.0.mca", "region");
+
+		ContentManifest manifest = ContentManifest.build(mTemp.resolve("world"), null);
+		assertEquals(List.of("level.dat", "region/r.0.0.mca"), List.copyOf(manifest.getEntries().keySet()));
+		ContentManifest.Entry entry = manifest.get("level.dat");
+		assertNotNull(entry);
+		assertEquals(HELLO_HASH, entry.mHash);
+		assertEquals(5, entry.mSize);
+		assertEquals(1_000_000, entry.mModifiedMillis);
+		assertEquals(11, manifest.totalBytes());
+	}
+
+	@Test
+	public void versionDependsOnContentsNotModifyTimes() throws IOException {
+		Path levelDat = write("level.dat", "hello");
+		String version = ContentManifest.build(mTemp.resolve("world"), null).getVersionId();
+
+		Files.setLastModifiedTime(levelDat, FileTime.fromMillis(2_000_000));
+		assertEquals(version, ContentManifest.build(mTemp.resolve("world"), null).getVersionId());
+
+		write("level.dat", "hellO");
+		assertNotEquals(version, ContentManifest.build(mTemp.resolve("world"), null).getVersionId());
+	}
+
+	@Test
+	public void reusesHashesOfUnchangedFiles() throws IOException {
+		write("level.dat", "hello");
+		ContentManifest previous = ContentManifest.build(mTemp.resolve("world"), null);
+
+		// Same size and modify time, so it is taken to be unchanged without being read
+		write("level.dat", "jello");
+		ContentManifest reused = ContentManifest.build(mTemp.resolve("world"), previous);
+		assertEquals(HELLO_HASH, reused.get("level.dat").mHash);
+		assertNotEquals(HELLO_HASH, ContentManifest.build(mTemp.resolve("world"), null).get("level.dat").mHash);
+	}
+
+	@Test
+	public void appliesCopyRules() throws IOException {
+		write("level.dat", "hello");
+		write("playerdata/player.dat", "player");
+		write("playerdata/keep.dat", "keep");
+
+		CopyRules rules = new CopyRules(List.of("playerdata/keep.dat"), List.of("playerdata/**"));
+		ContentManifest manifest = ContentManifest.build(mTemp.resolve("world"), null, rules);
+		assertEquals(List.of("level.dat", "playerdata/keep.dat"), List.copyOf(manifest.getEntries().keySet()));
+	}
+
+	@Test
+	public void saveAndLoadRoundTrip() throws IOException {
+		write("level.dat", "hello");
+		write("data/name\twith tab.dat", "tab");
+		ContentManifest manifest = ContentManifest.build(mTemp.resolve("world"), null);
+
+		Path file = mTemp.resolve("manifests/world.manifest");
+		manifest.save(file);
+		ContentManifest loaded = ContentManifest.load(file);
+		assertNotNull(loaded);
+		assertEquals(manifest.getVersionId(), loaded.getVersionId());
+		assertEquals(manifest.getEntries().keySet(), loaded.getEntries().keySet());
+		assertEquals(1_000_000, loaded.get("data/name\twith tab.dat").mModifiedMillis);
+	}
+
+	@Test
+	public void loadRejectsMissingOrForeignFiles() throws IOException {
+		assertNull(ContentManifest.load(mTemp.resolve("missing.manifest")));
+
+		Path file = mTemp.resolve("other.manifest");
+		Files.writeString(file, "not a manifest\n", StandardCharsets.UTF_8);
+		assertNull(ContentManifest.load(file));
+	}
+}
@@ -0,0 +1,55 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ContentStoreTest {
+	@TempDir
+	Path mTemp;
+
+	private String store(ContentStore store, String name, String contents) throws IOException {
+		Path file = mTemp.resolve(name);
+		Files.writeString(file, contents, StandardCharsets.UTF_8);
+		String hash = ContentManifest.hash(file);
+		store.moveIn(hash, file);
+		assertFalse(Files.exists(file));
+		return hash;
+	}
+
+	@Test
+	public void storesEachContentsOnce() throws IOException {
+		ContentStore store = new ContentStore(mTemp.resolve("objects"));
+		String first = store(store, "a", "same");
+		String second = store(store, "b", "same");
+		assertEquals(first, second);
+		assertTrue(store.contains(first));
+
+		Path copy = mTemp.resolve("copy");
+		store.copyOut(first, copy);
+		assertEquals("same", Files.readString(copy, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void sweepRemovesOnlyUnreferencedObjects() throws IOException {
+		ContentStore store = new ContentStore(mTemp.resolve("objects"));
+		String kept = store(store, "a", "kept");
+		String dropped = store(store, "b", "dropped");
+		Path leftover = mTemp.resolve("objects").resolve(dropped.substring(0, 2)).resolve(dropped + ".tmp1");
+		Files.writeString(leftover, "partial", StandardCharsets.UTF_8);
+
+		assertEquals(1, store.sweep(Set.of(kept), null));
+		assertTrue(store.contains(kept));
+		assertFalse(store.contains(dropped));
+		assertFalse(Files.exists(leftover));
+		assertEquals(0, new ContentStore(mTemp.resolve("missing")).sweep(Set.of(), null));
+	}
+}
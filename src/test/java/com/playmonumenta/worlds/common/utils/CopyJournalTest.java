@@ -0,0 +1,85 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CopyJournalTest {
+	@TempDir
+	Path mTemp;
+
+	@Test
+	public void newJournalIsNotResumable() throws IOException {
+		try (CopyJournal journal = new CopyJournal(mTemp.resolve("journals/copy.journal"), "v1")) {
+			assertFalse(journal.isResumable());
+			assertEquals(0, journal.completedFiles());
+		}
+	}
+
+	@Test
+	public void reopeningWithTheSameVersionResumes() throws IOException {
+		Path file = mTemp.resolve("copy.journal");
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			journal.markCompleted("level.dat");
+			journal.markCompleted("region/r.0.0.mca");
+		}
+
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			assertTrue(journal.isResumable());
+			assertEquals(2, journal.completedFiles());
+			assertTrue(journal.isCompleted("level.dat"));
+			assertTrue(journal.isCompleted("region/r.0.0.mca"));
+			assertFalse(journal.isCompleted("region/r.0.1.mca"));
+			journal.markCompleted("region/r.0.1.mca");
+		}
+
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			assertEquals(3, journal.completedFiles());
+		}
+	}
+
+	@Test
+	public void reopeningWithAnotherVersionStartsOver() throws IOException {
+		Path file = mTemp.resolve("copy.journal");
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			journal.markCompleted("level.dat");
+		}
+
+		try (CopyJournal journal = new CopyJournal(file, "v2")) {
+			assertFalse(journal.isResumable());
+			assertFalse(journal.isCompleted("level.dat"));
+		}
+		// The discarded journal was replaced by one for the new version
+		try (CopyJournal journal = new CopyJournal(file, "v2")) {
+			assertTrue(journal.isResumable());
+			assertEquals(0, journal.completedFiles());
+		}
+	}
+
+	@Test
+	public void partialLastLineIsNotJoinedWithTheNext() throws IOException {
+		Path file = mTemp.resolve("copy.journal");
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			journal.markCompleted("level.dat");
+		}
+		// As if the server crashed part way through appending a line
+		Files.writeString(file, "region/r.0", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			journal.markCompleted("poi/r.0.0.mca");
+		}
+		try (CopyJournal journal = new CopyJournal(file, "v1")) {
+			assertTrue(journal.isCompleted("level.dat"));
+			assertTrue(journal.isCompleted("poi/r.0.0.mca"));
+			assertFalse(journal.isCompleted("region/r.0poi/r.0.0.mca"));
+		}
+	}
+}
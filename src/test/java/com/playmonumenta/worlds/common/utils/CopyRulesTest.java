@@ -0,0 +1,39 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CopyRulesTest {
+	@Test
+	public void acceptsEverythingByDefault() {
+		assertTrue(CopyRules.ALL.accepts("level.dat"));
+		assertTrue(CopyRules.ALL.accepts("playerdata/player.dat"));
+	}
+
+	@Test
+	public void includesOverrideExcludes() {
+		CopyRules rules = new CopyRules(List.of("playerdata/keep.dat"), List.of("playerdata/**", "*.old"));
+		assertFalse(rules.accepts("playerdata/player.dat"));
+		assertFalse(rules.accepts("level.dat.old"));
+		assertTrue(rules.accepts("playerdata/keep.dat"));
+		assertTrue(rules.accepts("region/r.0.0.mca"));
+	}
+
+	@Test
+	public void mergeCombinesBothRuleSets() {
+		CopyRules merged = new CopyRules(List.of(), List.of("playerdata/**"))
+			.merge(new CopyRules(List.of("playerdata/keep.dat"), List.of("stats/**")));
+		assertFalse(merged.accepts("playerdata/player.dat"));
+		assertFalse(merged.accepts("stats/player.json"));
+		assertTrue(merged.accepts("playerdata/keep.dat"));
+	}
+
+	@Test
+	public void rejectsInvalidPatterns() {
+		assertThrows(IllegalArgumentException.class, () -> new CopyRules(List.of(), List.of("region/[")));
+	}
+}
@@ -0,0 +1,198 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.playmonumenta.worlds.common.nbt.NbtCompound;
+import com.playmonumenta.worlds.common.nbt.NbtIo;
+import com.playmonumenta.worlds.common.nbt.NbtList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EntityUuidRewriterTest {
+	private static final int SECTOR_SIZE = 4096;
+
+	@TempDir
+	Path mTemp;
+
+	@Test
+	public void acceptsOnlyRegionFiles() {
+		EntityUuidRewriter rewriter = new EntityUuidRewriter();
+		assertTrue(rewriter.accepts(Paths.get("entities", "r.0.0.mca")));
+		assertTrue(rewriter.accepts(Paths.get("region", "r.-1.2.mca")));
+		assertFalse(rewriter.accepts(Paths.get("poi", "r.0.0.mca")));
+		assertFalse(rewriter.accepts(Paths.get("region", "r.0.0.mcc")));
+		assertFalse(rewriter.accepts(Paths.get("level.dat")));
+	}
+
+	@Test
+	public void regionWithoutEntitiesIsCopiedByteIdentically() throws IOException {
+		NbtCompound terrain = new NbtCompound();
+		terrain.put("DataVersion", 3337);
+		terrain.put("Status", "minecraft:full");
+		NbtCompound noUuids = new NbtCompound();
+		NbtList entities = new NbtList(NbtIo.TAG_COMPOUND);
+		NbtCompound marker = new NbtCompound();
+		marker.put("id", "minecraft:marker");
+		entities.add(marker);
+		noUuids.put("Entities", entities);
+
+		byte[] region = region(new NbtCompound[] {terrain, null, noUuids});
+		EntityUuidRewriter rewriter = new EntityUuidRewriter();
+		byte[] output = transform(rewriter, region);
+
+		assertArrayEquals(region, output);
+		assertEquals(0, rewriter.getRewrittenEntities());
+	}
+
+	@Test
+	public void rewritesEntityAndPassengerUuids() throws IOException {
+		NbtCompound passenger = entity("minecraft:zombie", new int[] {5, 6, 7, 8});
+		NbtList passengers = new NbtList(NbtIo.TAG_COMPOUND);
+		passengers.add(passenger);
+		NbtCompound mount = entity("minecraft:horse", new int[] {1, 2, 3, 4});
+		mount.put("Passengers", passengers);
+		NbtCompound legacy = new NbtCompound();
+		legacy.put("id", "minecraft:pig");
+		legacy.put("UUIDMost", 11L);
+		legacy.put("UUIDLeast", 12L);
+
+		NbtList entities = new NbtList(NbtIo.TAG_COMPOUND);
+		entities.add(mount);
+		NbtCompound chunk = new NbtCompound();
+		chunk.put("Entities", entities);
+		NbtList levelEntities = new NbtList(NbtIo.TAG_COMPOUND);
+		levelEntities.add(legacy);
+		NbtCompound level = new NbtCompound();
+		level.put("Entities", levelEntities);
+		NbtCompound oldChunk = new NbtCompound();
+		oldChunk.put("Level", level);
+		NbtCompound terrain = new NbtCompound();
+		terrain.put("Status", "minecraft:full");
+
+		byte[] region = region(new NbtCompound[] {chunk, terrain, oldChunk});
+		EntityUuidRewriter rewriter = new EntityUuidRewriter();
+		byte[] output = transform(rewriter, region);
+
+		assertEquals(3, rewriter.getRewrittenEntities());
+		// Timestamps are carried over
+		assertArrayEquals(Arrays.copyOfRange(region, SECTOR_SIZE, 2 * SECTOR_SIZE),
+			Arrays.copyOfRange(output, SECTOR_SIZE, 2 * SECTOR_SIZE));
+
+		NbtCompound rewrittenMount = (NbtCompound) readChunk(output, 0).getList("Entities").get(0);
+		NbtCompound rewrittenPassenger = (NbtCompound) rewrittenMount.getList("Passengers").get(0);
+		assertEquals("minecraft:horse", rewrittenMount.get("id"));
+		assertEquals("minecraft:zombie", rewrittenPassenger.get("id"));
+		assertNotEquals(Arrays.toString(new int[] {1, 2, 3, 4}), Arrays.toString(rewrittenMount.getIntArray("UUID")));
+		assertNotEquals(Arrays.toString(new int[] {5, 6, 7, 8}), Arrays.toString(rewrittenPassenger.getIntArray("UUID")));
+		Set<String> uuids = new HashSet<>();
+		uuids.add(Arrays.toString(rewrittenMount.getIntArray("UUID")));
+		uuids.add(Arrays.toString(rewrittenPassenger.getIntArray("UUID")));
+		assertEquals(2, uuids.size());
+
+		assertArrayEquals(write(terrain), write(readChunk(output, 1)));
+
+		NbtCompound rewrittenLegacy = (NbtCompound) readChunk(output, 2).getCompound("Level").getList("Entities").get(0);
+		assertNotEquals(11L, rewrittenLegacy.get("UUIDMost"));
+		assertNotEquals(12L, rewrittenLegacy.get("UUIDLeast"));
+		assertEquals("minecraft:pig", rewrittenLegacy.get("id"));
+	}
+
+	@Test
+	public void corruptRegionIsCopiedUnchanged() throws IOException {
+		byte[] region = new byte[2 * SECTOR_SIZE];
+		// Chunk 0 claims to be at sector 5, past the end of the file
+		ByteBuffer.wrap(region).putInt(0, (5 << 8) | 1);
+		assertArrayEquals(region, transform(new EntityUuidRewriter(), region));
+	}
+
+	private static NbtCompound entity(String id, int[] uuid) {
+		NbtCompound entity = new NbtCompound();
+		entity.put("id", id);
+		entity.put("UUID", uuid);
+		NbtList pos = new NbtList(NbtIo.TAG_DOUBLE);
+		pos.add(0.5);
+		pos.add(64.0);
+		pos.add(-0.5);
+		entity.put("Pos", pos);
+		return entity;
+	}
+
+	private byte[] transform(EntityUuidRewriter rewriter, byte[] region) throws IOException {
+		Path source = mTemp.resolve("source.mca");
+		Path target = mTemp.resolve("target.mca");
+		Files.write(source, region);
+		Files.deleteIfExists(target);
+		long written = rewriter.transform(source, target);
+		byte[] output = Files.readAllBytes(target);
+		assertEquals(output.length, written);
+		return output;
+	}
+
+	/**
+	 * Builds a region file with the given chunks (null for absent ones) zlib-compressed in consecutive sectors.
+	 */
+	private static byte[] region(NbtCompound[] chunks) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_SIZE);
+		int sector = 2;
+		for (int i = 0; i < chunks.length; i++) {
+			header.putInt(SECTOR_SIZE + i * 4, 1000 + i);
+			if (chunks[i] == null) {
+				continue;
+			}
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(compressed))) {
+				NbtIo.writeRoot(out, "", chunks[i]);
+			}
+			int length = compressed.size() + 1;
+			int sectors = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+			DataOutputStream bodyOut = new DataOutputStream(body);
+			bodyOut.writeInt(length);
+			bodyOut.writeByte(2);
+			bodyOut.write(compressed.toByteArray());
+			bodyOut.write(new byte[sectors * SECTOR_SIZE - length - 4]);
+			header.putInt(i * 4, (sector << 8) | sectors);
+			sector += sectors;
+		}
+		byte[] output = new byte[header.capacity() + body.size()];
+		System.arraycopy(header.array(), 0, output, 0, header.capacity());
+		System.arraycopy(body.toByteArray(), 0, output, header.capacity(), body.size());
+		return output;
+	}
+
+	private static byte[] write(NbtCompound root) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			NbtIo.writeRoot(out, "", root);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static NbtCompound readChunk(byte[] region, int index) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(region);
+		int start = (buffer.getInt(index * 4) >>> 8) * SECTOR_SIZE;
+		int length = buffer.getInt(start);
+		assertEquals(2, region[start + 4]);
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(region, start + 5, length - 1)))) {
+			return NbtIo.readRoot(in);
+		}
+	}
+}
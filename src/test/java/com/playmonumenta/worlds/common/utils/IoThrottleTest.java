@@ -0,0 +1,76 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import org.junit.jupiter.api.Test;
+
+public class IoThrottleTest {
+	private static long millisToAcquire(IoThrottle throttle, long bytes, int ops) throws InterruptedIOException {
+		long start = System.nanoTime();
+		throttle.acquire(bytes, ops);
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	@Test
+	public void unlimitedNeverWaits() throws InterruptedIOException {
+		IoThrottle throttle = new IoThrottle(0, 0);
+		assertTrue(throttle.isUnlimited());
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			throttle.acquire(1L << 30, 100);
+		}
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+	}
+
+	@Test
+	public void largeRequestPassesThenLaterOnesRepayTheDebt() throws InterruptedIOException {
+		IoThrottle throttle = new IoThrottle(0, 100);
+		assertFalse(throttle.isUnlimited());
+		// Larger than the bucket, but it isn't in debt yet
+		assertTrue(millisToAcquire(throttle, 0, 50) < 100);
+		// 50 ops of debt at 100 ops per second
+		long waited = millisToAcquire(throttle, 0, 1);
+		assertTrue(waited >= 400, "waited " + waited + "ms");
+		assertTrue(waited < 3000, "waited " + waited + "ms");
+	}
+
+	@Test
+	public void bytesAndOpsAreLimitedSeparately() throws InterruptedIOException {
+		IoThrottle throttle = new IoThrottle(1000, 0);
+		assertTrue(millisToAcquire(throttle, 0, 1_000_000) < 100);
+		assertTrue(millisToAcquire(throttle, 500, 0) < 100);
+		long waited = millisToAcquire(throttle, 1, 0);
+		assertTrue(waited >= 400, "waited " + waited + "ms");
+	}
+
+	@Test
+	public void newLimitsForgiveDebt() throws InterruptedIOException {
+		IoThrottle throttle = new IoThrottle(0, 10);
+		// 100 seconds of debt
+		throttle.acquire(0, 1000);
+		throttle.setLimits(0, 1000);
+		assertEquals(1000, throttle.getOpsPerSecond());
+		assertTrue(millisToAcquire(throttle, 0, 1) < 100);
+
+		throttle.acquire(0, 1_000_000);
+		throttle.setLimits(0, 0);
+		assertTrue(millisToAcquire(throttle, 0, 1) < 100);
+	}
+
+	@Test
+	public void interruptedWhileWaiting() throws InterruptedIOException {
+		IoThrottle throttle = new IoThrottle(0, 1);
+		throttle.acquire(0, 100);
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(InterruptedIOException.class, () -> throttle.acquire(0, 1));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+}
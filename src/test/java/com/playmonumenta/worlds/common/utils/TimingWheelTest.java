@@ -0,0 +1,112 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+	private static List<String> advance(TimingWheel<String> wheel, long now) {
+		List<String> expired = new ArrayList<>();
+		wheel.advance(now, expired::add);
+		return expired;
+	}
+
+	@Test
+	public void expiresAtDeadline() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		wheel.schedule("a", 25);
+		wheel.schedule("b", 50);
+
+		assertEquals(List.of(), advance(wheel, 24));
+		assertEquals(List.of("a"), advance(wheel, 25));
+		assertEquals(List.of(), advance(wheel, 49));
+		assertEquals(List.of("b"), advance(wheel, 50));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void expiresLaterInAVisitedSlot() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		wheel.schedule("a", 18);
+
+		// Slot 1 is visited at 15, before the deadline
+		assertEquals(List.of(), advance(wheel, 15));
+		assertEquals(List.of(), advance(wheel, 17));
+		assertEquals(List.of("a"), advance(wheel, 20));
+	}
+
+	@Test
+	public void reschedulingReplacesTheDeadline() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		wheel.schedule("a", 20);
+		wheel.schedule("a", 70);
+
+		assertEquals(1, wheel.size());
+		assertEquals(List.of(), advance(wheel, 60));
+		assertEquals(List.of("a"), advance(wheel, 70));
+	}
+
+	@Test
+	public void cancelledKeysNeverExpire() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		wheel.schedule("a", 20);
+		assertTrue(wheel.cancel("a"));
+		assertFalse(wheel.cancel("a"));
+		assertFalse(wheel.isScheduled("a"));
+		assertEquals(List.of(), advance(wheel, 1000));
+	}
+
+	@Test
+	public void deadlinesBeyondOneRotationWaitForTheirTurn() {
+		// 5 slots of 10 ticks
+		TimingWheel<String> wheel = new TimingWheel<>(10, 40, 0);
+		wheel.schedule("near", 30);
+		wheel.schedule("far", 130);
+
+		assertEquals(List.of("near"), advance(wheel, 30));
+		assertEquals(List.of(), advance(wheel, 80));
+		assertTrue(wheel.isScheduled("far"));
+		assertEquals(List.of(), advance(wheel, 129));
+		assertEquals(List.of("far"), advance(wheel, 130));
+	}
+
+	@Test
+	public void cancelsKeysLeftForALaterRotation() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 40, 0);
+		wheel.schedule("far", 130);
+		advance(wheel, 80);
+		assertTrue(wheel.cancel("far"));
+		assertEquals(List.of(), advance(wheel, 200));
+	}
+
+	@Test
+	public void pastDeadlinesExpireOnTheNextAdvance() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		advance(wheel, 50);
+		wheel.schedule("late", 5);
+		assertEquals(List.of("late"), advance(wheel, 51));
+	}
+
+	@Test
+	public void longGapsExpireEverything() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 40, 0);
+		for (int i = 0; i < 20; i++) {
+			wheel.schedule("k" + i, i * 7L);
+		}
+		assertEquals(20, advance(wheel, 10_000).size());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void expiredKeysCanBeRescheduled() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 100, 0);
+		wheel.schedule("a", 10);
+		wheel.advance(10, (key) -> wheel.schedule(key, 40));
+		assertTrue(wheel.isScheduled("a"));
+		assertEquals(List.of("a"), advance(wheel, 40));
+	}
+}
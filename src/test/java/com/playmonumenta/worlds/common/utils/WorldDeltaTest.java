@@ -0,0 +1,113 @@
+package com.playmonumenta.worlds.common.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorldDeltaTest {
+	@TempDir
+	Path mTemp;
+	private Path mTemplate;
+	private Path mWorld;
+	private ContentStore mStore;
+
+	private static void write(Path file, String contents, long modifiedMillis) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, contents, StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+	}
+
+	@BeforeEach
+	public void createWorld() throws IOException {
+		mTemplate = mTemp.resolve("template");
+		write(mTemplate.resolve("level.dat"), "template level", 1000);
+		write(mTemplate.resolve("region/r.0.0.mca"), "template region 0", 1000);
+		write(mTemplate.resolve("region/r.0.1.mca"), "template region 1", 1000);
+
+		// A copy of the template where a player changed one region and added another
+		mWorld = mTemp.resolve("world");
+		write(mWorld.resolve("level.dat"), "template level", 1000);
+		write(mWorld.resolve("region/r.0.0.mca"), "player region 0", 2000);
+		write(mWorld.resolve("region/r.0.1.mca"), "template region 1", 1000);
+		write(mWorld.resolve("region/r.1.1.mca"), "player region 2", 3000);
+		mStore = new ContentStore(mTemp.resolve("objects"));
+	}
+
+	@Test
+	public void originRoundTrip() throws IOException {
+		assertNull(WorldDelta.readOrigin(mWorld));
+		WorldDelta.writeOrigin(mWorld, "template", "abc123");
+		WorldDelta.Origin origin = WorldDelta.readOrigin(mWorld);
+		assertNotNull(origin);
+		assertEquals("template", origin.mTemplateName);
+		assertEquals("abc123", origin.mVersionId);
+	}
+
+	@Test
+	public void dehydrateKeepsOnlyChangedFiles() throws IOException {
+		ContentManifest origin = ContentManifest.build(mTemplate, null);
+		WorldDelta.Result result = WorldDelta.dehydrate(mWorld, origin, mStore, null);
+
+		assertEquals(2, result.mKeptFiles);
+		assertEquals(2, result.mStoredFiles);
+		assertTrue(WorldDelta.isDehydrated(mWorld));
+		assertFalse(Files.exists(mWorld.resolve("level.dat")));
+		assertFalse(Files.exists(mWorld.resolve("region/r.0.1.mca")));
+		assertTrue(Files.exists(mWorld.resolve("region/r.0.0.mca")));
+		assertTrue(Files.exists(mWorld.resolve("region/r.1.1.mca")));
+		assertTrue(mStore.contains(origin.get("level.dat").mHash));
+	}
+
+	@Test
+	public void materializeRestoresTheWorld() throws IOException {
+		ContentManifest before = ContentManifest.build(mWorld, null);
+		WorldDelta.dehydrate(mWorld, ContentManifest.build(mTemplate, null), mStore, null);
+		WorldDelta.materialize(mWorld, mStore, null);
+
+		assertFalse(WorldDelta.isDehydrated(mWorld));
+		ContentManifest after = ContentManifest.build(mWorld, null);
+		assertEquals(before.getVersionId(), after.getVersionId());
+		assertEquals(1000, after.get("level.dat").mModifiedMillis);
+
+		// Does nothing once materialized
+		WorldDelta.materialize(mWorld, mStore, null);
+	}
+
+	@Test
+	public void sharedObjectsAreStoredOnce() throws IOException {
+		Path otherWorld = mTemp.resolve("other");
+		write(otherWorld.resolve("level.dat"), "template level", 1000);
+		ContentManifest origin = ContentManifest.build(mTemplate, null);
+
+		WorldDelta.dehydrate(mWorld, origin, mStore, null);
+		WorldDelta.dehydrate(otherWorld, origin, mStore, null);
+		WorldDelta.materialize(mWorld, mStore, null);
+		WorldDelta.materialize(otherWorld, mStore, null);
+		assertEquals("template level", Files.readString(otherWorld.resolve("level.dat"), StandardCharsets.UTF_8));
+		assertEquals("template level", Files.readString(mWorld.resolve("level.dat"), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void materializeFailsWhenAnObjectIsMissing() throws IOException {
+		WorldDelta.dehydrate(mWorld, ContentManifest.build(mTemplate, null), mStore, null);
+		mStore.sweep(Set.of(), null);
+
+		assertThrows(NoSuchFileException.class, () -> WorldDelta.materialize(mWorld, mStore, null));
+		// Still dehydrated, so it can be retried
+		assertTrue(WorldDelta.isDehydrated(mWorld));
+	}
+}